@@ -0,0 +1,26 @@
+package com.interpreters.lox;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Runs the benchmarks with the GC profiler always on, so every
+ * result comes with how many bytes an operation allocated
+ * (gc.alloc.rate.norm) next to how long it took. That is the
+ * number to watch when changing Environment or Token, where a
+ * few bytes per scope or token add up to most of the garbage.
+ *
+ * Takes the same arguments as JMH's own main, to run only
+ * some of them pass a pattern, like `Scanner`.
+ */
+public final class Benchmarks {
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).build()).run();
+    }
+}
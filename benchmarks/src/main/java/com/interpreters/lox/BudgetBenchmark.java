@@ -0,0 +1,64 @@
+package com.interpreters.lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * What keeping to a budget costs a run that stays within it:
+ * the same call heavy and loop heavy script without a budget,
+ * and with limits on steps, time and memory it never gets near.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BudgetBenchmark {
+    @Param({ "none", "limited" })
+    public String budget;
+
+    @Setup
+    public void setup() {
+        script = engine.prepare(SCRIPT);
+        limits = budget.equals("none") ? Budget.UNLIMITED
+                : Budget.UNLIMITED.steps(1L << 40).time(Duration.ofHours(1)).memory(1L << 40);
+    }
+
+    @Benchmark
+    public List<Diagnostic> execute() {
+        List<Diagnostic> errors = engine.newContext(SINK).execute(script, limits);
+        if (!errors.isEmpty())
+            throw new IllegalStateException(errors.get(0).toString());
+        return errors;
+    }
+
+    private static final String SCRIPT = ""
+            + "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }\n"
+            + "fib(20);\n"
+            + "let s = \"\";\n"
+            + "let total = 0;\n"
+            + "for (let i = 0; i < 50000; i++) { let x = i * 2; total = total + x; }\n"
+            + "for (let i = 0; i < 1000; i++) s = s + \"x\";\n";
+
+    private static final PrintStream SINK = new PrintStream(OutputStream.nullOutputStream());
+
+    private final LoxEngine engine = new LoxEngine();
+    private PreparedScript script;
+    private Budget limits;
+}
@@ -0,0 +1,51 @@
+package com.interpreters.lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Running the programs in Programs, compiled once beforehand.
+ * Every run gets a fresh interpreter, like every run of a
+ * script does, so its globals and frame pool start out empty.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterpreterBenchmark {
+    @Param({ "numericLoop", "nestedBlocks", "stringConcat", "postfix", "deepScopes", "globals" })
+    public String program;
+
+    @Setup
+    public void setup() {
+        statements = Programs.compile(Programs.program(program));
+    }
+
+    @Benchmark
+    public Diagnostic interprete() {
+        Diagnostic error = new Interpreter(SINK).interprete(statements, null);
+        if (error != null)
+            throw new IllegalStateException(error.toString());
+        return error;
+    }
+
+    private static final PrintStream SINK = new PrintStream(OutputStream.nullOutputStream());
+
+    private List<Stmt> statements;
+}
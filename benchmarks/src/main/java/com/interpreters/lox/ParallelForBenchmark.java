@@ -0,0 +1,74 @@
+package com.interpreters.lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * How a numeric sweep written as a `parallel for` scales with the
+ * number of threads, against the same sweep as a plain for loop.
+ * Every run starts from a thread of a ForkJoin pool with `threads`
+ * threads, which the loop picks up and splits its work over.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelForBenchmark {
+    @Param({ "for", "parallel" })
+    public String loop;
+
+    @Param({ "1", "2", "4" })
+    public int threads;
+
+    @Param({ "200000" })
+    public int n;
+
+    @Setup
+    public void setup() {
+        String header = loop.equals("for") ? "for (let i = 0; i < n; i++) {"
+                : "parallel for (let i = 0; i < n; i++) reduce (+: sum) {";
+        script = engine.prepare("let sum = 0;\n" + header + BODY + "}\n");
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Object sweep() throws Exception {
+        LoxContext context = engine.newContext(SINK);
+        context.set("n", n);
+        List<Diagnostic> errors = pool.submit(() -> context.execute(script)).get();
+        if (!errors.isEmpty())
+            throw new IllegalStateException(errors.get(0).toString());
+        return context.get("sum");
+    }
+
+    private static final String BODY = "let x = i / n; sum = sum + sqrt(x) * (1 - x);";
+
+    private static final PrintStream SINK = new PrintStream(OutputStream.nullOutputStream());
+
+    private final LoxEngine engine = new LoxEngine();
+    private PreparedScript script;
+    private ForkJoinPool pool;
+}
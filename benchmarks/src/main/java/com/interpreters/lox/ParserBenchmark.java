@@ -0,0 +1,44 @@
+package com.interpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Parsing tokens that were scanned beforehand, so the numbers
+ * are the parser's alone. The parser never changes the tokens,
+ * so the same list is parsed again every time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+    @Param({ "small", "medium", "huge" })
+    public String size;
+
+    @Setup
+    public void setup() {
+        tokens = Programs.scan(Programs.source(Programs.copies(size)));
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(tokens, new Diagnostics()).parse();
+    }
+
+    private List<Token> tokens;
+}
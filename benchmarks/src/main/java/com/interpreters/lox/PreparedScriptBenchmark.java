@@ -0,0 +1,72 @@
+package com.interpreters.lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Latency of running a small rule script once per request, the
+ * way a service would: a fresh context with the request's values
+ * bound, one execution, then reading the result back. Sampled,
+ * so JMH reports the percentiles along with the mean. `prepared`
+ * runs a script compiled once, `eval` compiles the source every
+ * time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PreparedScriptBenchmark {
+    @Param({ "prepared", "eval" })
+    public String mode;
+
+    @Setup
+    public void setup() {
+        script = mode.equals("prepared") ? engine.prepare(RULE) : null;
+    }
+
+    @Benchmark
+    public Object request() {
+        int i = ++request;
+        bindings.put("amount", i % 5000);
+        bindings.put("country", i % 7 == 0 ? "XX" : "NL");
+        bindings.put("attempts", i % 4);
+        LoxContext context = engine.newContext(SINK, bindings);
+        if (script != null)
+            context.execute(script);
+        else
+            context.eval(RULE);
+        return context.get("flagged");
+    }
+
+    private static final String RULE = ""
+            + "let score = 0;\n"
+            + "if (amount > 1000) score = score + 2;\n"
+            + "if (amount > 4000) score = score + 3;\n"
+            + "if (country == \"XX\") score = score + 4;\n"
+            + "for (let i = 0; i < attempts; i++) score = score + 1;\n"
+            + "let flagged = score >= 6;\n";
+
+    private static final PrintStream SINK = new PrintStream(OutputStream.nullOutputStream());
+
+    private final LoxEngine engine = new LoxEngine();
+    private final Map<String, Object> bindings = new HashMap<>();
+    private PreparedScript script;
+    private int request = 0;
+}
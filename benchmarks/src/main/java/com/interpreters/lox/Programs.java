@@ -0,0 +1,174 @@
+package com.interpreters.lox;
+
+import java.util.List;
+
+/*
+ * The Lox programs the benchmarks run, each one stressing a
+ * different part of the interpreter, and the sources of a few
+ * sizes the scanner and parser benchmarks read.
+ */
+final class Programs {
+    private Programs() {
+    }
+
+    // Arithmetic on doubles in a counted loop
+    static final String NUMERIC_LOOP = ""
+            + "let sum = 0;\n"
+            + "for (let i = 0; i < 100000; i++) {\n"
+            + "    sum = sum + i * 2 - i / 4;\n"
+            + "}\n";
+
+    // Blocks inside blocks, each declaring, so each needs a scope
+    static final String NESTED_BLOCKS = ""
+            + "let total = 0;\n"
+            + "for (let i = 0; i < 20000; i++) {\n"
+            + "    let a = i;\n"
+            + "    {\n"
+            + "        let b = a + 1;\n"
+            + "        {\n"
+            + "            let c = b + 1;\n"
+            + "            {\n"
+            + "                let d = c + 1;\n"
+            + "                total = total + d;\n"
+            + "            }\n"
+            + "        }\n"
+            + "    }\n"
+            + "}\n";
+
+    // Short strings built and thrown away, like formatting output does
+    static final String STRING_CONCAT = ""
+            + "let length = 0;\n"
+            + "for (let i = 0; i < 20000; i++) {\n"
+            + "    let line = \"item \" + str(i) + \": \" + \"ok\";\n"
+            + "    length = length + len(line);\n"
+            + "}\n";
+
+    // Postfix and prefix operators, deferred to the end of their statement
+    static final String POSTFIX = ""
+            + "let a = 0;\n"
+            + "let b = 100000;\n"
+            + "for (let i = 0; i < 50000; i++) {\n"
+            + "    a++;\n"
+            + "    b--;\n"
+            + "    ++a;\n"
+            + "    let c = a++ + b--;\n"
+            + "}\n";
+
+    /*
+     * Variables looked up through many scopes: the loop sits ten
+     * blocks deep and reads from the outermost and the globals.
+     */
+    static final String DEEP_SCOPES = ""
+            + "let total = 0;\n"
+            + "fun deep() {\n"
+            + "    let a0 = 1; { let a1 = 1; { let a2 = 1; { let a3 = 1; { let a4 = 1; {\n"
+            + "    let a5 = 1; { let a6 = 1; { let a7 = 1; { let a8 = 1; { let a9 = 1;\n"
+            + "        for (let i = 0; i < 50000; i++) {\n"
+            + "            total = total + a0 + a9;\n"
+            + "        }\n"
+            + "    } } } } } } } } }\n"
+            + "}\n"
+            + "deep();\n";
+
+    /*
+     * Globals read and written from inside a function, a few
+     * blocks away from the global scope, along with a builtin
+     * that the globals are checked for first.
+     */
+    static final String GLOBALS = ""
+            + "let count = 0;\n"
+            + "let total = 0;\n"
+            + "let step = 3;\n"
+            + "let limit = 1000;\n"
+            + "fun run() {\n"
+            + "    for (let i = 0; i < 50000; i++) {\n"
+            + "        if (total > limit) {\n"
+            + "            total = total - limit;\n"
+            + "            count = count + 1;\n"
+            + "        }\n"
+            + "        total = total + max(step, i - i);\n"
+            + "    }\n"
+            + "}\n"
+            + "run();\n";
+
+    /*
+     * Code that looks like a real program, repeated to reach a
+     * size. Every copy declares its own names, so the result is
+     * still a program that parses and resolves.
+     */
+    static String source(int copies) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < copies; i++) {
+            source.append("// Copy ").append(i).append(" of the sample\n")
+                    .append("class Point").append(i).append(" {\n")
+                    .append("    init(x, y) { this.x = x; this.y = y; }\n")
+                    .append("    length() { return sqrt(this.x * this.x + this.y * this.y); }\n")
+                    .append("}\n")
+                    .append("fun scale").append(i).append("(p, k) {\n")
+                    .append("    if (k == 0) return nil;\n")
+                    .append("    let q = Point").append(i).append("(p.x * k, p.y * k);\n")
+                    .append("    return q;\n")
+                    .append("}\n")
+                    .append("let names").append(i).append(" = [\"a\", \"b\", \"c\"];\n")
+                    .append("for (let i = 0; i < 3; i++) {\n")
+                    .append("    let label = \"point \" + names").append(i).append("[i];\n")
+                    .append("    while (i < 2 and label != \"\") { i++; }\n")
+                    .append("}\n");
+        }
+        return source.toString();
+    }
+
+    // Sizes of the generated sources, in copies of the sample
+    static final int SMALL = 2;
+    static final int MEDIUM = 200;
+    static final int HUGE = 20000;
+
+    static int copies(String size) {
+        switch (size) {
+            case "small":
+                return SMALL;
+            case "medium":
+                return MEDIUM;
+            default:
+                return HUGE;
+        }
+    }
+
+    static List<Token> scan(String source) {
+        Diagnostics diagnostics = new Diagnostics();
+        List<Token> tokens = new Scanner(source, diagnostics).scanTokens();
+        check(diagnostics);
+        return tokens;
+    }
+
+    // Scanned, parsed and resolved, ready to interpret
+    static List<Stmt> compile(String source) {
+        Diagnostics diagnostics = new Diagnostics();
+        List<Stmt> statements = new Parser(scan(source), diagnostics).parse();
+        new Resolver(diagnostics).resolve(statements);
+        check(diagnostics);
+        return statements;
+    }
+
+    private static void check(Diagnostics diagnostics) {
+        if (diagnostics.hasErrors())
+            throw new IllegalStateException("Benchmark program doesn't compile: " + diagnostics.list());
+    }
+
+    static String program(String name) {
+        switch (name) {
+            case "numericLoop":
+                return NUMERIC_LOOP;
+            case "nestedBlocks":
+                return NESTED_BLOCKS;
+            case "stringConcat":
+                return STRING_CONCAT;
+            case "postfix":
+                return POSTFIX;
+            case "globals":
+                return GLOBALS;
+            default:
+                return DEEP_SCOPES;
+        }
+    }
+}
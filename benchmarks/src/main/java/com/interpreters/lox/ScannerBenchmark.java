@@ -0,0 +1,44 @@
+package com.interpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * How fast sources of a few sizes are turned into tokens. The
+ * sizes are about 1 KB, 100 KB and 10 MB, from fitting in the
+ * cache to not fitting in any of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScannerBenchmark {
+    @Param({ "small", "medium", "huge" })
+    public String size;
+
+    @Setup
+    public void setup() {
+        source = Programs.source(Programs.copies(size));
+    }
+
+    @Benchmark
+    public List<Token> scanTokens() {
+        return new Scanner(source, new Diagnostics()).scanTokens();
+    }
+
+    private String source;
+}
@@ -0,0 +1,10 @@
+#!/bin/sh
+# Runs the perf corpus against perf/baseline.json, see PerfRunner for the options.
+# Everything it needs is local, it runs offline once the build has run once.
+# The runner lives in perf/src, next to the corpus, not among the tests.
+set -e
+cd "$(dirname "$0")/.."
+mvn -q -B -o compile
+mkdir -p target/perf-classes
+javac -d target/perf-classes -cp target/classes perf/src/com/interpreters/lox/*.java
+exec java -cp target/perf-classes:target/classes com.interpreters.lox.PerfRunner "$@"
@@ -0,0 +1,77 @@
+package com.interpreters.lox;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the Lox command line just like `java -jar` does, and as
+ * the JVM shuts down writes what the whole run cost to the file
+ * named by the first argument: peak resident memory, bytes
+ * allocated on the heap and time spent in GC pauses, one
+ * `name=value` per line. PerfRunner starts one for every run.
+ *
+ * The numbers are taken in a shutdown hook, so they are written
+ * whether the script ends normally or Lox exits on an error.
+ */
+public class PerfProbe
+{
+    public static void main( String[] args ) throws Exception
+    {
+        final Path metrics = Paths.get( args[0] );
+        Runtime.getRuntime().addShutdownHook( new Thread( () -> write( metrics ) ) );
+        Lox.main( Arrays.copyOfRange( args, 1, args.length ) );
+    }
+
+    private static void write( Path metrics )
+    {
+        long allocated = ( (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean() )
+            .getTotalThreadAllocatedBytes();
+        long pauses = 0;
+        long collections = 0;
+        for ( GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans() )
+        {
+            // Concurrent cycles run next to the program, they don't stop it
+            if ( collector.getName().contains( "Concurrent" ) )
+                continue;
+            pauses += collector.getCollectionTime();
+            collections += collector.getCollectionCount();
+        }
+        String text = "peakRssKb=" + peakRssKb() + "\n"
+            + "allocatedBytes=" + allocated + "\n"
+            + "gcPauseMs=" + pauses + "\n"
+            + "gcCount=" + collections + "\n";
+        try
+        {
+            Files.write( metrics, text.getBytes() );
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Can't write metrics: " + e.getMessage() );
+        }
+    }
+
+    // The high water mark of the process' resident set, as Linux counts it
+    private static long peakRssKb()
+    {
+        try
+        {
+            List<String> status = Files.readAllLines( Paths.get( "/proc/self/status" ) );
+            for ( String line : status )
+            {
+                if ( line.startsWith( "VmHWM:" ) )
+                    return Long.parseLong( line.replaceAll( "[^0-9]", "" ) );
+            }
+        }
+        catch ( IOException e )
+        {
+            // Not on Linux
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,345 @@
+package com.interpreters.lox;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs every program of the performance corpus through the whole
+ * command line, each run in a JVM of its own so startup, reading
+ * the file and GC are all part of it, and checks the output and
+ * what the run cost against a baseline.
+ *
+ * For each `name.lox` in the corpus `name.out` holds the output
+ * it has to print. Every program runs a few times and the median
+ * of each metric is compared to the baseline. The runner fails,
+ * exiting with 1, if an output is wrong or a metric got worse by
+ * more than its threshold (and by more than the noise floor of
+ * that metric). With --update the medians become the new baseline,
+ * and whatever a program prints becomes its output if it has none.
+ *
+ * perf/run.sh builds it along with the interpreter and runs it. It takes
+ *   --runs N               runs of each program, 5 by default
+ *   --threshold P          allowed regression of every metric, in percent
+ *   --threshold metric=P   the same for one metric
+ *   --update               write the results as the new baseline
+ *   --corpus DIR           perf/corpus by default
+ *   --baseline FILE        perf/baseline.json by default
+ */
+public class PerfRunner
+{
+    public static void main( String[] args ) throws Exception
+    {
+        Map<String, Double> thresholds = new LinkedHashMap<>( THRESHOLDS );
+        Path corpus = Paths.get( "perf", "corpus" );
+        Path baselineFile = Paths.get( "perf", "baseline.json" );
+        int runs = 5;
+        boolean update = false;
+        for ( int i = 0; i < args.length; i++ )
+        {
+            switch ( args[i] )
+            {
+                case "--runs":
+                    runs = Integer.parseInt( args[++i] );
+                    break;
+                case "--threshold":
+                    String value = args[++i];
+                    if ( value.contains( "=" ) )
+                    {
+                        String metric = value.substring( 0, value.indexOf( '=' ) );
+                        if ( !THRESHOLDS.containsKey( metric ) )
+                            throw new IllegalArgumentException( "No metric " + metric + ", there are " + METRICS );
+                        thresholds.put( metric, Double.parseDouble( value.substring( value.indexOf( '=' ) + 1 ) ) );
+                    }
+                    else
+                    {
+                        for ( String metric : METRICS )
+                            thresholds.put( metric, Double.parseDouble( value ) );
+                    }
+                    break;
+                case "--update":
+                    update = true;
+                    break;
+                case "--corpus":
+                    corpus = Paths.get( args[++i] );
+                    break;
+                case "--baseline":
+                    baselineFile = Paths.get( args[++i] );
+                    break;
+                default:
+                    throw new IllegalArgumentException( "Unknown option " + args[i] );
+            }
+        }
+
+        List<Path> programs;
+        try ( Stream<Path> files = Files.list( corpus ) )
+        {
+            programs = files.filter( file -> file.toString().endsWith( ".lox" ) ).sorted()
+                .collect( Collectors.toList() );
+        }
+        Map<String, Object> baseline = Files.exists( baselineFile )
+            ? Json.object( new String( Files.readAllBytes( baselineFile ) ) )
+            : new LinkedHashMap<>();
+        String java = System.getProperty( "java.version" );
+        if ( !update && baseline.containsKey( "java" ) && !java.equals( baseline.get( "java" ) ) )
+            System.out.println( "Note: the baseline was taken on Java " + baseline.get( "java" ) + ", this is " + java );
+        @SuppressWarnings( "unchecked" )
+        Map<String, Object> expected = (Map<String, Object>) baseline.getOrDefault( "workloads", Map.of() );
+
+        boolean failed = false;
+        Map<String, Object> results = new LinkedHashMap<>();
+        System.out.printf( "%-12s %-15s %14s %14s %8s%n", "program", "metric", "baseline", "current", "change" );
+        for ( Path program : programs )
+        {
+            String name = program.getFileName().toString().replaceFirst( "\\.lox$", "" );
+            Path outputFile = program.resolveSibling( name + ".out" );
+            List<Map<String, Double>> samples = new ArrayList<>();
+            for ( int run = 0; run < runs; run++ )
+            {
+                Run result = run( program );
+                if ( update && result.exitCode == 0 && !Files.exists( outputFile ) )
+                {
+                    Files.write( outputFile, result.output.getBytes() );
+                    System.out.println( "Wrote " + outputFile );
+                }
+                if ( result.exitCode != 0 || !Files.exists( outputFile )
+                    || !result.output.equals( new String( Files.readAllBytes( outputFile ) ) ) )
+                {
+                    System.out.printf( "%-12s wrong output (exit code %d):%n%s%n", name, result.exitCode,
+                        result.output );
+                    failed = true;
+                    break;
+                }
+                samples.add( result.metrics );
+            }
+            if ( samples.size() < runs )
+                continue;
+
+            Map<String, Object> medians = new LinkedHashMap<>();
+            @SuppressWarnings( "unchecked" )
+            Map<String, Object> before = (Map<String, Object>) expected.get( name );
+            for ( String metric : METRICS )
+            {
+                double current = median( samples, metric );
+                medians.put( metric, current );
+                if ( before == null || !before.containsKey( metric ) )
+                {
+                    System.out.printf( "%-12s %-15s %14s %14.0f %8s%n", name, metric, "-", current, "new" );
+                    continue;
+                }
+                double old = (Double) before.get( metric );
+                double change = old == 0 ? 0 : ( current / old - 1 ) * 100;
+                boolean regressed = change > thresholds.get( metric ) && current - old > FLOORS.get( metric );
+                failed |= regressed && !update;
+                System.out.printf( "%-12s %-15s %14.0f %14.0f %+7.1f%%%s%n", name, metric, old, current, change,
+                    regressed ? "  REGRESSED, allowed +" + thresholds.get( metric ) + "%" : "" );
+            }
+            results.put( name, medians );
+        }
+
+        if ( update && !failed )
+        {
+            Map<String, Object> written = new LinkedHashMap<>();
+            written.put( "java", java );
+            written.put( "workloads", results );
+            Files.write( baselineFile, ( Json.write( written, "" ) + "\n" ).getBytes() );
+            System.out.println( "Wrote " + baselineFile );
+        }
+        System.exit( failed ? 1 : 0 );
+    }
+
+    // One run of a program in a fresh JVM
+    private static Run run( Path program ) throws IOException, InterruptedException
+    {
+        File metricsFile = File.createTempFile( "lox-perf", ".properties" );
+        File outputFile = File.createTempFile( "lox-perf", ".out" );
+        try
+        {
+            List<String> command = new ArrayList<>();
+            command.add( Paths.get( System.getProperty( "java.home" ), "bin", "java" ).toString() );
+            command.addAll( JVM_OPTIONS );
+            command.addAll( Arrays.asList( "-cp", System.getProperty( "java.class.path" ),
+                PerfProbe.class.getName(), metricsFile.getPath(), program.toString() ) );
+            ProcessBuilder builder = new ProcessBuilder( command ).redirectOutput( outputFile )
+                .redirectError( ProcessBuilder.Redirect.INHERIT );
+
+            long start = System.nanoTime();
+            int exitCode = builder.start().waitFor();
+            double wall = Math.round( ( System.nanoTime() - start ) / 1e6 );
+
+            Properties properties = new Properties();
+            properties.load( Files.newBufferedReader( metricsFile.toPath() ) );
+            Map<String, Double> metrics = new LinkedHashMap<>();
+            metrics.put( "wallMs", wall );
+            for ( String metric : METRICS )
+            {
+                if ( properties.containsKey( metric ) )
+                    metrics.put( metric, Double.parseDouble( properties.getProperty( metric ) ) );
+            }
+            return new Run( exitCode, new String( Files.readAllBytes( outputFile.toPath() ) ), metrics );
+        }
+        finally
+        {
+            metricsFile.delete();
+            outputFile.delete();
+        }
+    }
+
+    private static double median( List<Map<String, Double>> samples, String metric )
+    {
+        List<Double> values = new ArrayList<>();
+        for ( Map<String, Double> sample : samples )
+        {
+            values.add( sample.get( metric ) );
+        }
+        Collections.sort( values );
+        return values.get( values.size() / 2 );
+    }
+
+    private static final class Run
+    {
+        Run( int exitCode, String output, Map<String, Double> metrics )
+        {
+            this.exitCode = exitCode;
+            this.output = output;
+            this.metrics = metrics;
+        }
+
+        final int exitCode;
+        final String output;
+        final Map<String, Double> metrics;
+    }
+
+    /*
+     * Just enough JSON for the baseline: objects, strings and
+     * numbers, which is all it ever holds.
+     */
+    static final class Json
+    {
+        static Map<String, Object> object( String text )
+        {
+            Json json = new Json( text );
+            @SuppressWarnings( "unchecked" )
+            Map<String, Object> value = (Map<String, Object>) json.value();
+            return value;
+        }
+
+        private Json( String text )
+        {
+            this.text = text;
+        }
+
+        private Object value()
+        {
+            skipSpace();
+            char c = text.charAt( at );
+            if ( c == '{' )
+            {
+                Map<String, Object> object = new LinkedHashMap<>();
+                at++;
+                skipSpace();
+                if ( text.charAt( at ) == '}' )
+                {
+                    at++;
+                    return object;
+                }
+                while ( true )
+                {
+                    skipSpace();
+                    String key = (String) value();
+                    skipSpace();
+                    expect( ':' );
+                    object.put( key, value() );
+                    skipSpace();
+                    if ( text.charAt( at ) == '}' )
+                    {
+                        at++;
+                        return object;
+                    }
+                    expect( ',' );
+                }
+            }
+            if ( c == '"' )
+            {
+                int end = text.indexOf( '"', at + 1 );
+                String string = text.substring( at + 1, end );
+                at = end + 1;
+                return string;
+            }
+            int start = at;
+            while ( at < text.length() && "+-.eE0123456789".indexOf( text.charAt( at ) ) >= 0 )
+            {
+                at++;
+            }
+            if ( start == at )
+                throw new IllegalArgumentException( "Unexpected '" + c + "' in the baseline at " + at );
+            return Double.parseDouble( text.substring( start, at ) );
+        }
+
+        private void expect( char c )
+        {
+            if ( text.charAt( at ) != c )
+                throw new IllegalArgumentException( "Expected '" + c + "' in the baseline at " + at );
+            at++;
+        }
+
+        private void skipSpace()
+        {
+            while ( at < text.length() && Character.isWhitespace( text.charAt( at ) ) )
+            {
+                at++;
+            }
+        }
+
+        static String write( Object value, String indent )
+        {
+            if ( value instanceof String )
+                return "\"" + value + "\"";
+            if ( value instanceof Double )
+            {
+                double number = (Double) value;
+                return number == Math.rint( number ) ? String.valueOf( (long) number ) : String.valueOf( number );
+            }
+            StringBuilder out = new StringBuilder( "{\n" );
+            String inner = indent + "  ";
+            int i = 0;
+            for ( Map.Entry<?, ?> entry : ( (Map<?, ?>) value ).entrySet() )
+            {
+                out.append( inner ).append( '"' ).append( entry.getKey() ).append( "\": " )
+                    .append( write( entry.getValue(), inner ) ).append( ++i < ( (Map<?, ?>) value ).size() ? ",\n" : "\n" );
+            }
+            return out.append( indent ).append( '}' ).toString();
+        }
+
+        private final String text;
+        private int at = 0;
+    }
+
+    private static final List<String> METRICS = List.of( "wallMs", "peakRssKb", "allocatedBytes", "gcPauseMs" );
+
+    // Allowed regression of each metric in percent, wall time being the noisiest
+    private static final Map<String, Double> THRESHOLDS = Map.of( "wallMs", 20.0, "peakRssKb", 10.0,
+        "allocatedBytes", 5.0, "gcPauseMs", 50.0 );
+
+    // Changes no bigger than these are noise whatever the percentage
+    private static final Map<String, Double> FLOORS = Map.of( "wallMs", 30.0, "peakRssKb", 8192.0,
+        "allocatedBytes", 1048576.0, "gcPauseMs", 10.0 );
+
+    /*
+     * The same collector and heap limit on every machine, so
+     * that memory and GC numbers don't change with how many
+     * cores or how much memory the JVM sees.
+     */
+    private static final List<String> JVM_OPTIONS = List.of( "-XX:+UseSerialGC", "-Xmx1g" );
+}
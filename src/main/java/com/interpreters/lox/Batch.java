@@ -0,0 +1,221 @@
+package com.interpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/*
+ * Runs many scripts in one JVM, `jobs` of them at a time, or
+ * with `check` only prepares them, which finds every syntax
+ * error without running anything. Every script runs in a
+ * context of its own with its output captured, so scripts
+ * running side by side can't mix up what they print.
+ *
+ * The scripts are taken in order of their paths, and what each
+ * printed is written out in that order, as soon as it and all
+ * the ones before it are done, so the output is the same from
+ * one run to the next however the scripts were scheduled. It
+ * ends with a line per script saying how it went and how long
+ * it took, and the batch exits with the worst exit code of any
+ * of them.
+ */
+final class Batch {
+    Batch(LoxEngine engine, boolean check, int jobs) {
+        this.engine = engine;
+        this.check = check;
+        this.jobs = jobs;
+    }
+
+    // What one script did
+    private static final class Result {
+        Result(Path path, int code, byte[] output, byte[] errors, long nanos) {
+            this.path = path;
+            this.code = code;
+            this.output = output;
+            this.errors = errors;
+            this.nanos = nanos;
+        }
+
+        final Path path;
+        final int code;
+        final byte[] output;
+        final byte[] errors;
+        final long nanos;
+    }
+
+    // Runs the scripts the targets name and returns the exit code of the whole batch
+    int run(List<String> targets, PrintStream out, PrintStream err) throws IOException, InterruptedException {
+        List<Path> scripts = scripts(targets);
+        if (scripts.isEmpty()) {
+            err.println("No scripts found.");
+            return ExitCode.INCORRECT_CMD_USAGE.exitCode;
+        }
+
+        long start = System.nanoTime();
+        List<Result> results = new ArrayList<>();
+        ExecutorService workers = Executors.newFixedThreadPool(jobs);
+        try {
+            List<Future<Result>> pending = new ArrayList<>();
+            for (Path script : scripts) {
+                pending.add(workers.submit(() -> run(script)));
+            }
+            for (int i = 0; i < pending.size(); i++) {
+                Result result = result(scripts.get(i), pending.get(i));
+                results.add(result);
+                if (result.output.length > 0) {
+                    out.println("== " + result.path);
+                    out.write(result.output);
+                }
+                if (result.errors.length > 0) {
+                    err.println("== " + result.path);
+                    err.write(result.errors);
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        long nanos = System.nanoTime() - start;
+
+        int code = 0;
+        int failed = 0;
+        for (Result result : results) {
+            out.printf("%-8s %9.1f ms  %s%n", status(result.code), result.nanos / 1e6, result.path);
+            code = Math.max(code, result.code);
+            if (result.code != 0)
+                failed++;
+        }
+        out.printf("%d scripts %s, %d failed, in %.1f ms on %d workers%n", results.size(),
+                check ? "checked" : "run", failed, nanos / 1e6, jobs);
+        return code;
+    }
+
+    /*
+     * What the script did, or the error that took down the thread
+     * running it, like running out of memory. run() catches all
+     * it can, this is for what it can't, which then only fails
+     * the script it happened in.
+     */
+    private static Result result(Path script, Future<Result> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            byte[] message = ("Internal error: " + e.getCause() + System.lineSeparator()).getBytes();
+            return new Result(script, ExitCode.INTERNAL_ERR.exitCode, new byte[0], message, 0);
+        }
+    }
+
+    private Result run(Path script) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        PrintStream err = new PrintStream(errors);
+        long start = System.nanoTime();
+        int code;
+        try {
+            String source = new String(Files.readAllBytes(script), Charset.defaultCharset());
+            PreparedScript prepared = engine.prepare(source, script);
+            for (String line : prepared.loopReport()) {
+                err.println(line);
+            }
+            List<Diagnostic> diagnostics = check ? prepared.errors()
+                    : engine.newContext(new PrintStream(output)).execute(prepared);
+            for (Diagnostic diagnostic : diagnostics) {
+                err.println(diagnostic);
+            }
+            code = Lox.exitCode(diagnostics);
+        } catch (IOException e) {
+            err.println("Can't read " + script + ".");
+            code = ExitCode.IO_ERR.exitCode;
+        } catch (StackOverflowError e) {
+            err.println("Stack overflow.");
+            code = ExitCode.INTERNAL_ERR.exitCode;
+        } catch (RuntimeException e) {
+            // A bug in the interpreter fails the script it showed up in, the rest still run
+            err.println("Internal error: " + e);
+            code = ExitCode.INTERNAL_ERR.exitCode;
+        }
+        long nanos = System.nanoTime() - start;
+        err.flush();
+        return new Result(script, code, output.toByteArray(), errors.toByteArray(), nanos);
+    }
+
+    private static String status(int code) {
+        if (code == 0)
+            return "ok";
+        if (code == ExitCode.INCORRECT_CODE_ERR.exitCode)
+            return "syntax";
+        if (code == ExitCode.IO_ERR.exitCode)
+            return "unread";
+        return "runtime";
+    }
+
+    /*
+     * The scripts the targets name, in order of their paths. A
+     * target is a script, a directory to find every .lox file
+     * in, a glob like `tests/**.lox` or `@file`, a file listing
+     * scripts one per line.
+     */
+    static List<Path> scripts(List<String> targets) throws IOException {
+        TreeSet<Path> scripts = new TreeSet<>();
+        for (String target : targets) {
+            if (target.startsWith("@")) {
+                for (String line : Files.readAllLines(Paths.get(target.substring(1)))) {
+                    if (!line.isBlank())
+                        scripts.add(Paths.get(line.trim()).normalize());
+                }
+            } else if (target.chars().anyMatch(c -> GLOB.indexOf(c) >= 0)) {
+                int root = root(target);
+                Path directory = Paths.get(root < 0 ? "." : root == 0 ? "/" : target.substring(0, root));
+                find(directory, FileSystems.getDefault().getPathMatcher("glob:" + target.substring(root + 1)), scripts);
+            } else if (Files.isDirectory(Paths.get(target))) {
+                find(Paths.get(target), FileSystems.getDefault().getPathMatcher("glob:**.lox"), scripts);
+            } else {
+                scripts.add(Paths.get(target).normalize());
+            }
+        }
+        return new ArrayList<>(scripts);
+    }
+
+    // The files under the directory whose paths relative to it match
+    private static void find(Path directory, PathMatcher matcher, TreeSet<Path> scripts) throws IOException {
+        if (!Files.isDirectory(directory))
+            return;
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.filter(file -> Files.isRegularFile(file) && matcher.matches(directory.relativize(file)))
+                    .forEach(file -> scripts.add(file.normalize()));
+        }
+    }
+
+    /*
+     * Where the directory a glob's matches are all in ends, the
+     * last separator before any wildcard, -1 for the working
+     * directory. The rest of the glob is matched relative to it.
+     */
+    private static int root(String glob) {
+        int wildcard = 0;
+        while (GLOB.indexOf(glob.charAt(wildcard)) < 0) {
+            wildcard++;
+        }
+        return glob.lastIndexOf('/', wildcard);
+    }
+
+    // Characters that make a target a glob
+    private static final String GLOB = "*?[{";
+
+    private final LoxEngine engine;
+    private final boolean check;
+    private final int jobs;
+}
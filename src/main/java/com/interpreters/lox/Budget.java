@@ -0,0 +1,57 @@
+package com.interpreters.lox;
+
+import java.time.Duration;
+
+/*
+ * Limits on what a single run of a script may use, for running
+ * code that can't be trusted to stop on its own. A run that goes
+ * over any of them stops with a runtime error, like any other.
+ *
+ * - steps: statements executed plus expressions evaluated.
+ * - time: wall clock time from the start of the run. A thread
+ *   of the run still waiting in a native when it runs out is
+ *   interrupted, so waiting doesn't get around it.
+ * - memory: bytes of strings and scopes allocated, roughly.
+ *   It counts what was allocated, not what is still alive.
+ *
+ * Budgets are immutable, every setter gives back a new one, so
+ * one can be shared by any number of runs. Tasks a run spawns
+ * and the threads of its parallel loops count against it too.
+ */
+public final class Budget {
+    private Budget(long steps, long nanos, long bytes) {
+        this.steps = steps;
+        this.nanos = nanos;
+        this.bytes = bytes;
+    }
+
+    public Budget steps(long steps) {
+        return new Budget(positive(steps), nanos, bytes);
+    }
+
+    public Budget time(Duration time) {
+        return new Budget(steps, positive(time.toNanos()), bytes);
+    }
+
+    public Budget memory(long bytes) {
+        return new Budget(steps, nanos, positive(bytes));
+    }
+
+    private static long positive(long limit) {
+        if (limit <= 0)
+            throw new IllegalArgumentException("A budget must be positive.");
+        return limit;
+    }
+
+    // What a run starting now keeps track of
+    Meter start() {
+        return new Meter(this, System.nanoTime());
+    }
+
+    // No limits at all, what a run without a budget gets
+    public static final Budget UNLIMITED = new Budget(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+
+    final long steps;
+    final long nanos;
+    final long bytes;
+}
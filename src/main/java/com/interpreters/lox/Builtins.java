@@ -0,0 +1,361 @@
+package com.interpreters.lox;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Functions that are available in every program without
+ * being declared. They live in an environment of their own
+ * that every global environment is nested in.
+ *
+ * The natives themselves keep no state, so that environment
+ * is built once, frozen and shared by every program, rather
+ * than copying each native into every new global scope.
+ *
+ * The ones marked pure() have no effects at all, they are the
+ * only functions a loop run in parallel without being asked
+ * to (see LoopAnalyzer) may call.
+ */
+final class Builtins {
+    private Builtins() {
+    }
+
+    private static void register(Map<String, LoxNative> registry, LoxNative function) {
+        registry.put(function.name, function);
+    }
+
+    private static void defineCore(Map<String, LoxNative> registry) {
+        register(registry, LoxNative.of("len", value -> {
+            if (value instanceof LoxArray)
+                return (double) ((LoxArray) value).size();
+            if (value instanceof String)
+                return (double) ((String) value).length();
+            if (value instanceof PersistentVector)
+                return (double) ((PersistentVector) value).size();
+            if (value instanceof PersistentMap)
+                return (double) ((PersistentMap) value).size();
+            if (value instanceof LoxMap)
+                return (double) ((LoxMap) value).size();
+            if (value instanceof PersistentVector.Transient)
+                return (double) ((PersistentVector.Transient) value).size();
+            if (value instanceof PersistentMap.Transient)
+                return (double) ((PersistentMap.Transient) value).size();
+            throw new LoxError.RuntimeError(null, "Can only take the length of strings and collections.");
+        }).pure());
+
+        register(registry, LoxNative.of("push", (value, element) -> {
+            if (!(value instanceof LoxArray))
+                throw new LoxError.RuntimeError(null, "Can only push onto arrays.");
+            LoxArray array = (LoxArray) value;
+            array.add(element);
+            return (double) array.size();
+        }));
+
+        /*
+         * Both clocks count from when the interpreter started, on
+         * the JVM's monotonic high resolution timer, so they can't
+         * jump with the wall clock and `nanos()` stays well within
+         * the range a double holds exactly.
+         */
+        register(registry, LoxNative.of("clock", () -> (System.nanoTime() - START) / 1e9));
+        register(registry, LoxNative.of("nanos", () -> (double) (System.nanoTime() - START)));
+    }
+
+    private static void defineMath(Map<String, LoxNative> registry) {
+        register(registry, LoxNative.of("abs", x -> Math.abs(number("abs", x))).pure());
+        register(registry, LoxNative.of("floor", x -> Math.floor(number("floor", x))).pure());
+        register(registry, LoxNative.of("ceil", x -> Math.ceil(number("ceil", x))).pure());
+        register(registry, LoxNative.of("round", x -> (double) Math.round(number("round", x))).pure());
+        register(registry, LoxNative.of("sqrt", x -> Math.sqrt(number("sqrt", x))).pure());
+        register(registry, LoxNative.of("exp", x -> Math.exp(number("exp", x))).pure());
+        register(registry, LoxNative.of("log", x -> Math.log(number("log", x))).pure());
+        register(registry, LoxNative.of("sin", x -> Math.sin(number("sin", x))).pure());
+        register(registry, LoxNative.of("cos", x -> Math.cos(number("cos", x))).pure());
+        register(registry, LoxNative.of("tan", x -> Math.tan(number("tan", x))).pure());
+        register(registry, LoxNative.of("atan", x -> Math.atan(number("atan", x))).pure());
+        register(registry, LoxNative.of("atan2", (y, x) -> Math.atan2(number("atan2", y), number("atan2", x))).pure());
+        register(registry, LoxNative.of("pow", (x, y) -> Math.pow(number("pow", x), number("pow", y))).pure());
+        register(registry, LoxNative.of("min", (x, y) -> Math.min(number("min", x), number("min", y))).pure());
+        register(registry, LoxNative.of("max", (x, y) -> Math.max(number("max", x), number("max", y))).pure());
+        // There is no '%' operator, the result has the sign of x like in Java
+        register(registry, LoxNative.of("mod", (x, y) -> number("mod", x) % number("mod", y)).pure());
+        register(registry, LoxNative.of("random", () -> ThreadLocalRandom.current().nextDouble()));
+    }
+
+    private static void defineStrings(Map<String, LoxNative> registry) {
+        register(registry, LoxNative.of("str", value -> Interpreter.stringify(value)).pure());
+
+        // The number the whole string spells out, or nil if it isn't one
+        register(registry, LoxNative.of("parseNumber", value -> {
+            String text = string("parseNumber", value).trim();
+            if (text.isEmpty() || !Character.isDigit(text.charAt(text.length() - 1)))
+                return null; // Rules out Java's "1d", "NaN" and the like
+            try {
+                return Double.parseDouble(text);
+            } catch (NumberFormatException error) {
+                return null;
+            }
+        }).pure());
+
+        register(registry, LoxNative.of("substring", (value, start, end) -> {
+            String text = string("substring", value);
+            int from = Interpreter.checkIndex(null, start, text.length() + 1);
+            int to = Interpreter.checkIndex(null, end, text.length() + 1);
+            if (from > to)
+                throw new LoxError.RuntimeError(null, "Substring can't end before it starts.");
+            return text.substring(from, to);
+        }).pure());
+
+        register(registry, LoxNative.of("indexOf",
+                (value, part) -> (double) string("indexOf", value).indexOf(string("indexOf", part))).pure());
+
+        register(registry, LoxNative.of("upper", value -> string("upper", value).toUpperCase()).pure());
+        register(registry, LoxNative.of("lower", value -> string("lower", value).toLowerCase()).pure());
+        register(registry, LoxNative.of("trim", value -> string("trim", value).trim()).pure());
+
+        register(registry, LoxNative.of("split", (value, separator) -> {
+            String text = string("split", value);
+            String delimiter = string("split", separator);
+            if (delimiter.isEmpty())
+                throw new LoxError.RuntimeError(null, "Can't split on an empty string.");
+            LoxArray parts = new LoxArray(8);
+            int from = 0;
+            for (int at = text.indexOf(delimiter); at >= 0; at = text.indexOf(delimiter, from)) {
+                parts.add(text.substring(from, at));
+                from = at + delimiter.length();
+            }
+            parts.add(text.substring(from));
+            return parts;
+        }).pure());
+    }
+
+    /*
+     * Persistent vectors and maps. Every function that changes
+     * one returns the changed collection, the one passed in is
+     * left as it was. Transients are changed in place but the
+     * same functions work on them, so a bulk load is the same
+     * code wrapped in transient() and persistent().
+     */
+    private static void defineCollections(Map<String, LoxNative> registry) {
+        register(registry, LoxNative.of("vec", value -> {
+            if (value instanceof PersistentVector)
+                return value;
+            if (!(value instanceof LoxArray))
+                throw new LoxError.RuntimeError(null, "Can only make a vector out of an array.");
+            LoxArray array = (LoxArray) value;
+            PersistentVector.Transient vector = PersistentVector.EMPTY.asTransient();
+            for (int i = 0; i < array.size(); i++) {
+                vector.conj(array.get(i));
+            }
+            return vector.persistent();
+        }).pure());
+
+        register(registry, LoxNative.of("hashmap", () -> PersistentMap.EMPTY).pure());
+
+        register(registry, LoxNative.of("get", (collection, key) -> {
+            if (collection instanceof LoxMap)
+                return ((LoxMap) collection).get(key, null);
+            if (collection instanceof PersistentMap)
+                return ((PersistentMap) collection).get(key, null);
+            if (collection instanceof PersistentMap.Transient)
+                return ((PersistentMap.Transient) collection).get(key, null);
+            if (collection instanceof PersistentVector) {
+                PersistentVector vector = (PersistentVector) collection;
+                return vector.get(Interpreter.checkIndex(null, key, vector.size()));
+            }
+            if (collection instanceof PersistentVector.Transient) {
+                PersistentVector.Transient vector = (PersistentVector.Transient) collection;
+                return vector.get(Interpreter.checkIndex(null, key, vector.size()));
+            }
+            throw new LoxError.RuntimeError(null, "Can only get from vectors and maps.");
+        }).pure());
+
+        register(registry, LoxNative.of("contains", (collection, key) -> {
+            if (collection instanceof LoxMap)
+                return ((LoxMap) collection).get(key, LoxMap.NOT_FOUND) != LoxMap.NOT_FOUND;
+            if (collection instanceof PersistentMap)
+                return ((PersistentMap) collection).get(key, PersistentMap.NOT_FOUND) != PersistentMap.NOT_FOUND;
+            if (collection instanceof PersistentMap.Transient)
+                return ((PersistentMap.Transient) collection).get(key,
+                        PersistentMap.NOT_FOUND) != PersistentMap.NOT_FOUND;
+            throw new LoxError.RuntimeError(null, "Can only look for keys in maps.");
+        }).pure());
+
+        // For vectors the key is an index, one past the end appends
+        register(registry, LoxNative.of("assoc", (collection, key, value) -> {
+            if (collection instanceof PersistentMap)
+                return ((PersistentMap) collection).assoc(key, value);
+            if (collection instanceof PersistentMap.Transient)
+                return ((PersistentMap.Transient) collection).assoc(key, value);
+            if (collection instanceof PersistentVector) {
+                PersistentVector vector = (PersistentVector) collection;
+                return vector.assoc(Interpreter.checkIndex(null, key, vector.size() + 1), value);
+            }
+            if (collection instanceof PersistentVector.Transient) {
+                PersistentVector.Transient vector = (PersistentVector.Transient) collection;
+                return vector.assoc(Interpreter.checkIndex(null, key, vector.size() + 1), value);
+            }
+            throw new LoxError.RuntimeError(null, "Can only assoc into vectors and maps.");
+        }));
+
+        register(registry, LoxNative.of("dissoc", (collection, key) -> {
+            if (collection instanceof PersistentMap)
+                return ((PersistentMap) collection).dissoc(key);
+            if (collection instanceof PersistentMap.Transient)
+                return ((PersistentMap.Transient) collection).dissoc(key);
+            throw new LoxError.RuntimeError(null, "Can only dissoc from maps.");
+        }));
+
+        register(registry, LoxNative.of("conj", (collection, value) -> {
+            if (collection instanceof PersistentVector)
+                return ((PersistentVector) collection).conj(value);
+            if (collection instanceof PersistentVector.Transient)
+                return ((PersistentVector.Transient) collection).conj(value);
+            throw new LoxError.RuntimeError(null, "Can only conj onto vectors.");
+        }));
+
+        register(registry, LoxNative.of("pop", collection -> {
+            if (collection instanceof PersistentVector) {
+                PersistentVector vector = (PersistentVector) collection;
+                if (vector.size() == 0)
+                    throw new LoxError.RuntimeError(null, "Can't pop an empty vector.");
+                return vector.pop();
+            }
+            if (collection instanceof PersistentVector.Transient) {
+                PersistentVector.Transient vector = (PersistentVector.Transient) collection;
+                if (vector.size() == 0)
+                    throw new LoxError.RuntimeError(null, "Can't pop an empty vector.");
+                return vector.pop();
+            }
+            throw new LoxError.RuntimeError(null, "Can only pop from vectors.");
+        }));
+
+        register(registry, LoxNative.of("keys", collection -> {
+            if (collection instanceof LoxMap) {
+                LoxMap map = (LoxMap) collection;
+                LoxArray keys = new LoxArray(map.size());
+                map.forEach((key, value) -> keys.add(key));
+                return keys;
+            }
+            if (!(collection instanceof PersistentMap))
+                throw new LoxError.RuntimeError(null, "Can only list the keys of maps.");
+            PersistentMap map = (PersistentMap) collection;
+            LoxArray keys = new LoxArray(map.size());
+            map.forEach((key, value) -> keys.add(key));
+            return keys;
+        }).pure());
+
+        register(registry, LoxNative.of("values", collection -> {
+            if (collection instanceof LoxMap) {
+                LoxMap map = (LoxMap) collection;
+                LoxArray values = new LoxArray(map.size());
+                map.forEach((key, value) -> values.add(value));
+                return values;
+            }
+            if (!(collection instanceof PersistentMap))
+                throw new LoxError.RuntimeError(null, "Can only list the values of maps.");
+            PersistentMap map = (PersistentMap) collection;
+            LoxArray values = new LoxArray(map.size());
+            map.forEach((key, value) -> values.add(value));
+            return values;
+        }).pure());
+
+        // Removes the key from a map literal, returns whether it was there
+        register(registry, LoxNative.of("delete", (collection, key) -> {
+            if (!(collection instanceof LoxMap))
+                throw new LoxError.RuntimeError(null, "Can only delete keys from maps.");
+            return ((LoxMap) collection).remove(key);
+        }));
+
+        register(registry, LoxNative.of("transient", collection -> {
+            if (collection instanceof PersistentVector)
+                return ((PersistentVector) collection).asTransient();
+            if (collection instanceof PersistentMap)
+                return ((PersistentMap) collection).asTransient();
+            throw new LoxError.RuntimeError(null, "Can only make transients of vectors and maps.");
+        }));
+
+        register(registry, LoxNative.of("persistent", collection -> {
+            if (collection instanceof PersistentVector.Transient)
+                return ((PersistentVector.Transient) collection).persistent();
+            if (collection instanceof PersistentMap.Transient)
+                return ((PersistentMap.Transient) collection).persistent();
+            throw new LoxError.RuntimeError(null, "Can only make transients persistent.");
+        }));
+    }
+
+    /*
+     * Channels and tasks, the values `spawn` works with. All of
+     * these may block, which on a task's virtual thread costs
+     * no platform thread while it waits.
+     */
+    private static void defineConcurrency(Map<String, LoxNative> registry) {
+        register(registry, LoxNative.of("channel", capacity -> {
+            double size = number("channel", capacity);
+            if (size < 0 || size != Math.floor(size) || size > Integer.MAX_VALUE)
+                throw new LoxError.RuntimeError(null, "Channel capacity must be a whole number that isn't negative.");
+            return new LoxChannel((int) size);
+        }));
+
+        register(registry, LoxNative.of("send", (channel, value) -> {
+            channel("send", channel).send(value);
+            return null;
+        }));
+
+        register(registry, LoxNative.of("receive", channel -> channel("receive", channel).receive()));
+
+        register(registry, LoxNative.of("join", task -> {
+            if (!(task instanceof LoxTask))
+                throw new LoxError.RuntimeError(null, "Can only join tasks.");
+            return ((LoxTask) task).join();
+        }));
+
+        register(registry, LoxNative.of("sleep", millis -> {
+            try {
+                Thread.sleep((long) number("sleep", millis));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LoxError.RuntimeError(null, "Interrupted while sleeping.");
+            }
+            return null;
+        }));
+    }
+
+    private static LoxChannel channel(String function, Object value) {
+        if (!(value instanceof LoxChannel))
+            throw new LoxError.RuntimeError(null, "First argument of '" + function + "' must be a channel.");
+        return (LoxChannel) value;
+    }
+
+    private static double number(String function, Object value) {
+        if (!(value instanceof Double))
+            throw new LoxError.RuntimeError(null, "Arguments of '" + function + "' must be numbers.");
+        return (double) value;
+    }
+
+    private static String string(String function, Object value) {
+        if (!(value instanceof String))
+            throw new LoxError.RuntimeError(null, "Arguments of '" + function + "' must be strings.");
+        return (String) value;
+    }
+
+    private static final long START = System.nanoTime();
+
+    static final Environment ENVIRONMENT;
+
+    static {
+        Map<String, LoxNative> registry = new LinkedHashMap<>();
+        defineCore(registry);
+        defineMath(registry);
+        defineStrings(registry);
+        defineCollections(registry);
+        defineConcurrency(registry);
+
+        Environment environment = new Environment();
+        for (LoxNative function : registry.values()) {
+            environment.define(function.name, function);
+        }
+        ENVIRONMENT = environment.freeze();
+    }
+}
@@ -0,0 +1,36 @@
+package com.interpreters.lox;
+
+/*
+ * A reported error: what kind of error it is, the token it
+ * was reported at and the message. Unlike a LoxError this is
+ * just a result value, it can be returned, stored or compared
+ * without anything being thrown.
+ */
+public final class Diagnostic {
+    public enum Kind {
+        // Scanner, parser and resolver errors, the code never runs
+        SYNTAX,
+        // Errors raised while the code is being interpreted
+        RUNTIME
+    }
+
+    Diagnostic(Kind kind, Token token, String message) {
+        this.kind = kind;
+        this.token = token;
+        this.message = message;
+    }
+
+    public int line() {
+        return token.line;
+    }
+
+    public String toString() {
+        String where = token.type == TokenType.EOF ? "at end" : "at '" + token.lexeme + "' ";
+        String file = token.file == null ? "" : token.file + ", ";
+        return "[" + file + "line " + token.line + "] Error " + where + ": " + message;
+    }
+
+    public final Kind kind;
+    public final Token token;
+    public final String message;
+}
@@ -0,0 +1,32 @@
+package com.interpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Collects the errors reported while running one piece of
+ * code. Every stage that can find errors, from the scanner to
+ * the interpreter, reports to the collector it was handed
+ * rather than to anything global, so runs that happen at the
+ * same time can't see or mix up each other's errors.
+ */
+final class Diagnostics {
+    void report(Diagnostic diagnostic) {
+        diagnostics.add(diagnostic);
+    }
+
+    void report(LoxError error) {
+        report(error.toDiagnostic());
+    }
+
+    boolean hasErrors() {
+        return !diagnostics.isEmpty();
+    }
+
+    List<Diagnostic> list() {
+        return Collections.unmodifiableList(diagnostics);
+    }
+
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+}
@@ -3,30 +3,104 @@ package com.interpreters.lox;
 import java.util.Map;
 import java.util.Stack;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 public class Environment {
 
     Environment() {
         outer = null;
+        global = null;
+        if (Stats.ENABLED)
+            Stats.ENVIRONMENTS.increment();
     }
 
     Environment(Environment enclosing) {
         this.outer = enclosing;
+        this.global = enclosing.global;
+        if (Stats.ENABLED)
+            Stats.ENVIRONMENTS.increment();
+    }
+
+    /*
+     * Clears the environment so that it can be handed out
+     * again as a fresh scope nested in `enclosing`, instead
+     * of allocating a new one (along with its map) for every
+     * block that gets executed. A frame that was shared while
+     * a parallel loop ran inside it isn't anymore once reused.
+     */
+    Environment reset(Environment enclosing) {
+        this.outer = enclosing;
+        this.global = enclosing.global;
+        if (values instanceof ConcurrentHashMap)
+            values = new HashMap<>();
+        else
+            values.clear();
+        if (memstack != null) {
+            memstack.clear();
+        }
+        return this;
+    }
+
+    /*
+     * Makes the environment read only, for ones shared between
+     * programs (like the builtins) that no program may change.
+     * Programs never run directly in it, so all there is to
+     * guard against is code assigning to one of its names.
+     */
+    Environment freeze() {
+        frozen = true;
+        return this;
+    }
+
+    /*
+     * Readies the environment for being used by several threads
+     * at once, which a HashMap can't take, by moving its names
+     * to a ConcurrentHashMap. Reads from it stay free of locks,
+     * so threads reading the same variables don't slow each
+     * other down, and every single read or write of a variable
+     * is atomic. This has to happen before another thread can
+     * reach the environment, so the interpreter shares every
+     * scope a closure can hold on to as soon as it is created,
+     * and the enclosing scopes of a parallel loop before the
+     * loop starts. Frozen environments don't change anymore,
+     * reading those from any thread is safe as it is.
+     */
+    Environment share() {
+        if (!frozen && !(values instanceof ConcurrentHashMap))
+            values = new ConcurrentHashMap<>(values);
+        return this;
+    }
+
+    // Shares this environment and every one enclosing it
+    void shareAll() {
+        for (Environment scope = this; scope != null; scope = scope.outer) {
+            scope.share();
+        }
     }
 
     void define(Token var, Object value) {
-        if (values.get(var.lexeme) != null) {
+        Object old = values.get(var.lexeme);
+        if (old != null && old != NIL) {
             throw new LoxError.RuntimeError(var, "Variable redefinition '" + var.lexeme + "'' in current scope.");
         }
-        values.put(var.lexeme, value);
+        values.put(var.lexeme, value == null ? NIL : value);
+    }
+
+    // For names that don't come from the source, like builtins
+    void define(String name, Object value) {
+        if (frozen) {
+            throw new IllegalStateException("Can't define '" + name + "' in a read only scope.");
+        }
+        values.put(name, value == null ? NIL : value);
     }
 
     Object fetch(Token var) {
         // We check if variable is present in current scope
-        if (values.containsKey(var.lexeme)) {
-            Object value = values.get(var.lexeme);
+        Object value = values.get(var.lexeme);
+        if (value != null) {
             // If variable is unassigned and used we report it as an error
-            if (value == null) {
+            if (value == NIL) {
                 throw new LoxError.RuntimeError(var, "Unassigned variable '" + var.lexeme + "' is used.");
             }
             return value;
@@ -37,20 +111,56 @@ public class Environment {
             throw new LoxError.RuntimeError(var, "Undefined variable '" + var.lexeme + "'.");
         }
 
+        if (Stats.ENABLED)
+            Stats.SCOPE_HOPS.increment();
         return outer.fetch(var);
     }
 
+    // The value of a name defined right in this scope, null if there is none
+    Object lookup(String name) {
+        Object value = values.get(name);
+        return value == NIL ? null : value;
+    }
+
+    // Every name defined right in this scope with its value
+    void forEach(BiConsumer<String, Object> action) {
+        values.forEach((name, value) -> action.accept(name, value == NIL ? null : value));
+    }
+
     void assign(Token var, Object value) {
-        if (values.containsKey(var.lexeme)) {
-            values.put(var.lexeme, value);
-        } else if (outer != null) {
-            outer.assign(var, value);
-        } else {
+        if (frozen) {
+            if (values.containsKey(var.lexeme))
+                throw new LoxError.RuntimeError(var, "Can't assign to builtin '" + var.lexeme + "'.");
+        } else if (values.replace(var.lexeme, value == null ? NIL : value) != null) {
+            return;
+        }
+        if (outer == null) {
             throw new LoxError.RuntimeError(var, "Undefined variable '" + var.lexeme + "'.");
         }
+        if (Stats.ENABLED)
+            Stats.SCOPE_HOPS.increment();
+        outer.assign(var, value);
+    }
+
+    /*
+     * Postfix expressions are rare compared to the number
+     * of scopes that get created, so the stack holding them
+     * is only allocated once one is actually deferred.
+     */
+    void defer(Expr expr) {
+        if (memstack == null) {
+            memstack = new Stack<>();
+        }
+        memstack.push(expr);
     }
 
-    private final Environment outer;
-    private final Map<String, Object> values = new HashMap<>();
-    final Stack<Expr> memstack = new Stack<>();
+    // Stands in for nil, which a ConcurrentHashMap can't hold
+    static final Object NIL = new Object();
+
+    private Environment outer;
+    // The global scope at the end of the chain, for going straight to a global, see Globals
+    Globals global;
+    private Map<String, Object> values = new HashMap<>();
+    private boolean frozen = false;
+    Stack<Expr> memstack = null;
 }
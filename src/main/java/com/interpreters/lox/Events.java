@@ -0,0 +1,67 @@
+package com.interpreters.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*
+ * Flight Recorder events for the phases a script goes through,
+ * each with how long it took and how much it worked on. They
+ * show up in a recording (-XX:StartFlightRecording, or jcmd on
+ * a running JVM) under Lox next to the JVM's own events, which
+ * puts a slow run's GC pauses and the like in the context of
+ * the script.
+ *
+ * JFR only turns an event class on while a recording wants it,
+ * until then begin() and commit() do nothing and the JIT gets
+ * rid of the event objects. The stack traces would only show the
+ * interpreter's own frames, so none are recorded.
+ */
+final class Events {
+    private Events() {
+    }
+
+    @Name("com.interpreters.lox.Scan")
+    @Label("Scan")
+    @Category("Lox")
+    @Description("Turning a script's source into tokens")
+    @StackTrace(false)
+    static final class Scan extends Event {
+        @Label("Characters")
+        int characters;
+
+        @Label("Tokens")
+        int tokens;
+    }
+
+    @Name("com.interpreters.lox.Parse")
+    @Label("Parse")
+    @Category("Lox")
+    @Description("Parsing and resolving a script's tokens")
+    @StackTrace(false)
+    static final class Parse extends Event {
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Statements")
+        int statements;
+    }
+
+    @Name("com.interpreters.lox.Execute")
+    @Label("Execute")
+    @Category("Lox")
+    @Description("Running a prepared script")
+    @StackTrace(false)
+    static final class Execute extends Event {
+        @Label("Statements")
+        @Description("Top level statements of the script")
+        int statements;
+
+        @Label("Failed")
+        @Description("Whether a runtime error stopped the run")
+        boolean failed;
+    }
+}
@@ -3,7 +3,8 @@ package com.interpreters.lox;
 public enum ExitCode {
     INCORRECT_CMD_USAGE(64),
     INCORRECT_CODE_ERR(65),
-    INTERNAL_ERR(70);
+    INTERNAL_ERR(70),
+    IO_ERR(74);
 
     ExitCode(int code) {
         this.exitCode = code;
@@ -22,6 +22,26 @@ abstract class Expr {
 
         T visitVariableExpr(Variable expr);
 
+        T visitCallExpr(Call expr);
+
+        T visitArrayExpr(Array expr);
+
+        T visitMapExpr(Map expr);
+
+        T visitIndexExpr(Index expr);
+
+        T visitIndexSetExpr(IndexSet expr);
+
+        T visitGetExpr(Get expr);
+
+        T visitSetExpr(Set expr);
+
+        T visitThisExpr(This expr);
+
+        T visitSuperExpr(Super expr);
+
+        T visitSpawnExpr(Spawn expr);
+
     }
 
     static class Logical extends Expr {
@@ -54,6 +74,8 @@ abstract class Expr {
 
         final Token name;
         final Expr value;
+        // Set by the Resolver when no scope around it declares the name, see Globals
+        boolean global = false;
     }
 
     static class Conditional extends Expr {
@@ -161,6 +183,189 @@ abstract class Expr {
         }
 
         final Token name;
+        // Set by the Resolver when no scope around it declares the name, see Globals
+        boolean global = false;
+        // The builtin a global name fell through to when it was last read
+        Object builtin = null;
+    }
+
+    static class Call extends Expr {
+        Call(Expr callee, Token paren, List<Expr> arguments) {
+            this.callee = callee;
+            this.paren = paren;
+            this.arguments = arguments;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitCallExpr(this);
+        }
+
+        final Expr callee;
+        final Token paren;
+        final List<Expr> arguments;
+        /*
+         * Set by the Resolver when the call is the value of a
+         * return statement, so nothing is left to do in the
+         * caller once the callee is done.
+         */
+        boolean tail = false;
+        /*
+         * The native this call was last checked against. As long
+         * as the callee is still the same native its arity is
+         * known to match and the call goes straight to it.
+         */
+        LoxNative target = null;
+    }
+
+    static class Array extends Expr {
+        Array(Token bracket, List<Expr> elements) {
+            this.bracket = bracket;
+            this.elements = elements;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitArrayExpr(this);
+        }
+
+        final Token bracket;
+        final List<Expr> elements;
+    }
+
+    static class Map extends Expr {
+        Map(Token brace, List<Expr> keys, List<Expr> values) {
+            this.brace = brace;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitMapExpr(this);
+        }
+
+        final Token brace;
+        final List<Expr> keys;
+        final List<Expr> values;
+    }
+
+    static class Index extends Expr {
+        Index(Expr object, Token bracket, Expr index) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitIndexExpr(this);
+        }
+
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+    }
+
+    static class IndexSet extends Expr {
+        IndexSet(Expr object, Token bracket, Expr index, Expr value) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitIndexSetExpr(this);
+        }
+
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+        final Expr value;
+    }
+
+    static class Get extends Expr {
+        Get(Expr object, Token name) {
+            this.object = object;
+            this.name = name;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitGetExpr(this);
+        }
+
+        final Expr object;
+        final Token name;
+        // Shapes seen at this site, see InlineCache
+        InlineCache cache = InlineCache.EMPTY;
+    }
+
+    static class Set extends Expr {
+        Set(Expr object, Token name, Expr value) {
+            this.object = object;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitSetExpr(this);
+        }
+
+        final Expr object;
+        final Token name;
+        final Expr value;
+        // Shapes seen at this site, see InlineCache
+        InlineCache cache = InlineCache.EMPTY;
+    }
+
+    static class This extends Expr {
+        This(Token keyword) {
+            this.keyword = keyword;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitThisExpr(this);
+        }
+
+        final Token keyword;
+    }
+
+    static class Super extends Expr {
+        Super(Token keyword, Token method) {
+            this.keyword = keyword;
+            this.method = method;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitSuperExpr(this);
+        }
+
+        final Token keyword;
+        final Token method;
+        // Keyed on the superclass' root shape, see InlineCache
+        InlineCache cache = InlineCache.EMPTY;
+    }
+
+    // The block is kept as a function without parameters, see Parser.spawn()
+    static class Spawn extends Expr {
+        Spawn(Token keyword, Stmt.Function body) {
+            this.keyword = keyword;
+            this.body = body;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitSpawnExpr(this);
+        }
+
+        final Token keyword;
+        final Stmt.Function body;
     }
 
     abstract <T> T accept(Visitor<T> visitor);
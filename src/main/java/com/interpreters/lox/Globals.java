@@ -0,0 +1,206 @@
+package com.interpreters.lox;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/*
+ * The global scope of a program, or of a module, with the
+ * builtins right outside of it. Globals are kept in a table
+ * indexed by symbol (see Symbols) instead of a map by name, so
+ * finding one is two array reads and no hashing at all.
+ *
+ * The table is in chunks of CHUNK variables, made as globals
+ * with symbols in their range are defined. Symbols are shared
+ * by the whole JVM and never forgotten, see Symbols, so in a
+ * long running process a program's globals can have symbols in
+ * the millions. The chunks are found through a small hash table
+ * of their own rather than an array indexed by chunk, so what a
+ * table takes is in proportion to the chunks it has, not to the
+ * highest symbol it was ever asked for. That costs a compare
+ * more per access than indexing would. Growing it only ever
+ * adds chunks, so a write to a variable can't get lost in a
+ * copy of the table made while another thread defines a new one.
+ *
+ * Variable and assignment sites the resolver found to be
+ * global, as no scope around them declares the name, come
+ * straight here instead of asking each scope on the way out
+ * (see Interpreter.visitVariableExpr). A global's slot is its
+ * symbol, known since the name was scanned, so there is
+ * nothing for a site to cache about it. What it does cache is
+ * the builtin its name falls through to, which is the same in
+ * every context. The site only uses it after finding no global
+ * of that name, so defining one later takes over right away.
+ *
+ * Like a shared scope every single read or write of a global
+ * is atomic, but unlike ConcurrentHashMap the table doesn't
+ * order them. Threads get that from how they hand values to
+ * each other: starting and joining tasks, and channels.
+ */
+final class Globals extends Environment {
+    Globals() {
+        super(Builtins.ENVIRONMENT);
+        this.global = this;
+    }
+
+    @Override
+    Environment share() {
+        return this;
+    }
+
+    @Override
+    void define(Token var, Object value) {
+        int symbol = var.symbol();
+        Object old = get(symbol);
+        if (old != null && old != NIL) {
+            throw new LoxError.RuntimeError(var, "Variable redefinition '" + var.lexeme + "'' in current scope.");
+        }
+        put(symbol, value == null ? NIL : value);
+    }
+
+    @Override
+    void define(String name, Object value) {
+        put(Symbols.id(name), value == null ? NIL : value);
+    }
+
+    @Override
+    Object fetch(Token var) {
+        Object value = get(var.symbol());
+        if (value == null) {
+            if (Stats.ENABLED)
+                Stats.SCOPE_HOPS.increment();
+            return Builtins.ENVIRONMENT.fetch(var);
+        }
+        if (value == NIL)
+            throw new LoxError.RuntimeError(var, "Unassigned variable '" + var.lexeme + "' is used.");
+        return value;
+    }
+
+    // Reads a global site, or the builtin it fell through to the last time
+    Object fetch(Expr.Variable site) {
+        Object value = get(site.name.symbol());
+        if (value != null && value != NIL)
+            return value;
+        if (value == null && site.builtin != null)
+            return site.builtin;
+        value = fetch(site.name);
+        if (get(site.name.symbol()) == null)
+            site.builtin = value;
+        return value;
+    }
+
+    @Override
+    Object lookup(String name) {
+        Object value = get(Symbols.id(name));
+        return value == NIL ? null : value;
+    }
+
+    @Override
+    void assign(Token var, Object value) {
+        int symbol = var.symbol();
+        Object[] chunk = chunk(symbol);
+        if (chunk == null || chunk[symbol & MASK] == null) {
+            if (Stats.ENABLED)
+                Stats.SCOPE_HOPS.increment();
+            Builtins.ENVIRONMENT.assign(var, value);
+            return;
+        }
+        chunk[symbol & MASK] = value == null ? NIL : value;
+    }
+
+    // In order of their symbols, the order in which their names were first seen
+    @Override
+    void forEach(BiConsumer<String, Object> action) {
+        Directory directory = this.directory;
+        int[] indexes = Arrays.stream(directory.indexes).filter(index -> index >= 0).sorted().toArray();
+        for (int index : indexes) {
+            Object[] chunk = directory.find(index);
+            for (int i = 0; i < CHUNK; i++) {
+                Object value = chunk[i];
+                if (value != null)
+                    action.accept(Symbols.name(index * CHUNK + i), value == NIL ? null : value);
+            }
+        }
+    }
+
+    // The value of the global with the symbol, NIL for nil and null if there is none
+    private Object get(int symbol) {
+        Object[] chunk = chunk(symbol);
+        return chunk == null ? null : chunk[symbol & MASK];
+    }
+
+    private Object[] chunk(int symbol) {
+        return directory.find(symbol >>> CHUNK_BITS);
+    }
+
+    private void put(int symbol, Object value) {
+        Object[] chunk = chunk(symbol);
+        if (chunk == null)
+            chunk = grow(symbol);
+        chunk[symbol & MASK] = value;
+    }
+
+    // Makes the chunk for the symbol, unless another thread just did
+    private synchronized Object[] grow(int symbol) {
+        int index = symbol >>> CHUNK_BITS;
+        Object[] chunk = directory.find(index);
+        if (chunk != null)
+            return chunk;
+        // Kept at most half full, so looking for a chunk that isn't there soon finds an empty slot
+        Directory old = directory;
+        Directory grown = new Directory(old.size * 2 + 2 > old.indexes.length ? old.indexes.length * 2 : old.indexes.length);
+        for (int i = 0; i < old.indexes.length; i++) {
+            if (old.indexes[i] >= 0)
+                grown.add(old.indexes[i], old.chunks[i]);
+        }
+        chunk = new Object[CHUNK];
+        grown.add(index, chunk);
+        directory = grown;
+        return chunk;
+    }
+
+    /*
+     * Where the chunks are, by their index, the symbols in them
+     * over CHUNK. Open addressed, with -1 for an empty slot. Once
+     * published it is never changed again, a new chunk comes with
+     * a new directory.
+     */
+    private static final class Directory {
+        Directory(int capacity) {
+            indexes = new int[capacity];
+            chunks = new Object[capacity][];
+            Arrays.fill(indexes, -1);
+        }
+
+        Object[] find(int index) {
+            int mask = indexes.length - 1;
+            for (int slot = index & mask;; slot = (slot + 1) & mask) {
+                int found = indexes[slot];
+                if (found == index)
+                    return chunks[slot];
+                if (found < 0)
+                    return null;
+            }
+        }
+
+        void add(int index, Object[] chunk) {
+            int mask = indexes.length - 1;
+            int slot = index & mask;
+            while (indexes[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            indexes[slot] = index;
+            chunks[slot] = chunk;
+            size++;
+        }
+
+        final int[] indexes;
+        final Object[][] chunks;
+        int size = 0;
+    }
+
+    private static final int CHUNK_BITS = 6;
+    private static final int CHUNK = 1 << CHUNK_BITS;
+    private static final int MASK = CHUNK - 1;
+
+    private volatile Directory directory = new Directory(4);
+}
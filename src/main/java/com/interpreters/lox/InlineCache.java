@@ -0,0 +1,72 @@
+package com.interpreters.lox;
+
+/*
+ * The cache a property site keeps of the shapes it has seen
+ * and what it found for each of them, so that the next time
+ * an instance of a known shape comes by we go straight to the
+ * slot (or method) instead of looking the name up again.
+ *
+ * Each entry maps a shape to a slot. A slot below zero stands
+ * for a method instead, encoding where in the class hierarchy
+ * it was found (see LoxClass.locate). Set sites also keep the
+ * shape an instance moves to when the field is new as the
+ * entry's target, null when the instance already has it.
+ *
+ * A site that only ever sees one shape is monomorphic and
+ * hits on the first entry. Up to MAX_ENTRIES shapes are kept
+ * (polymorphic), past that the oldest entry makes room for
+ * the new one. That also flushes out the shapes of earlier
+ * runs when the same tree is executed again.
+ *
+ * Caches are never modified, a miss replaces the site's cache
+ * with an extended copy. So a tree shared between threads can
+ * at worst lose an entry to a race, never see a broken one.
+ */
+final class InlineCache {
+    private InlineCache(Shape[] shapes, int[] slots, Shape[] targets) {
+        this.shapes = shapes;
+        this.slots = slots;
+        this.targets = targets;
+    }
+
+    // The entry for the shape or -1 on a miss
+    int find(Shape shape) {
+        for (int i = 0; i < shapes.length; i++) {
+            if (shapes[i] == shape)
+                return i;
+        }
+        return -1;
+    }
+
+    InlineCache with(Shape shape, int slot, Shape target) {
+        int kept = Math.min(shapes.length, MAX_ENTRIES - 1);
+        int dropped = shapes.length - kept;
+
+        Shape[] newShapes = new Shape[kept + 1];
+        int[] newSlots = new int[kept + 1];
+        Shape[] newTargets = new Shape[kept + 1];
+        System.arraycopy(shapes, dropped, newShapes, 0, kept);
+        System.arraycopy(slots, dropped, newSlots, 0, kept);
+        System.arraycopy(targets, dropped, newTargets, 0, kept);
+        newShapes[kept] = shape;
+        newSlots[kept] = slot;
+        newTargets[kept] = target;
+        return new InlineCache(newShapes, newSlots, newTargets);
+    }
+
+    // Slot of an entry for the method at the given location
+    static int methodSlot(int location) {
+        return -1 - location;
+    }
+
+    static int location(int methodSlot) {
+        return -1 - methodSlot;
+    }
+
+    static final int MAX_ENTRIES = 4;
+    static final InlineCache EMPTY = new InlineCache(new Shape[0], new int[0], new Shape[0]);
+
+    final Shape[] shapes;
+    final int[] slots;
+    final Shape[] targets;
+}
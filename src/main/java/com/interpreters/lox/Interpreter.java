@@ -1,25 +1,127 @@
 package com.interpreters.lox;
 
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /* 
- * Notice we use Expr.Visitor<Void> as Statements have 
- * no return values -> statments don't produce any values.
+ * Statements don't produce any values, what executing one
+ * gives back instead is the jump (break/continue) that cut
+ * its execution short, or null if it ran to completion.
+ * The jump node itself is the signal, so leaving a loop
+ * neither allocates nor throws anything.
  */
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Stmt.Jump> {
 
-    void interprete(List<Stmt> statements) {
+    Interpreter() {
+        this(System.out);
+    }
+
+    // Everything the program prints goes to `out`
+    Interpreter(PrintStream out) {
+        this.out = out;
+        this.globals = new Globals();
+        this.environment = globals;
+    }
+
+    // See child()
+    private Interpreter(Interpreter parent) {
+        this.out = parent.out;
+        this.globals = parent.globals;
+        this.environment = globals;
+        this.meter = parent.meter;
+        if (meter != null)
+            this.fuel = 0;
+    }
+
+    /*
+     * An interpreter for running code on another thread, next to
+     * this one. It shares our globals, output and budget but
+     * nothing else.
+     */
+    Interpreter child() {
+        return new Interpreter(this);
+    }
+
+    /*
+     * Runs the program and returns the runtime error that
+     * stopped it, or null if it ran to completion. Reporting
+     * the error is left to the caller. With a meter the run
+     * keeps to its budget, null means it has none.
+     */
+    Diagnostic interprete(List<Stmt> statements, Meter meter) {
+        this.meter = meter;
+        this.fuel = meter == null ? Long.MAX_VALUE : 0;
+        this.granted = 0;
+        enter(Thread.currentThread());
         try {
             for (Stmt statement : statements) {
                 execute(statement);
             }
         } catch (LoxError.RuntimeError error) {
-            Lox.runtimeError(error.token, error.message);
+            // Only a budget running out in top level code has no place yet
+            if (error.token == null)
+                error.token = TOP_LEVEL;
+            return error.toDiagnostic();
+        } finally {
+            leave();
+            this.meter = null;
+            this.fuel = Long.MAX_VALUE;
+        }
+        return null;
+    }
+
+    /*
+     * The thread works for our run until it calls leave(), so
+     * it is interrupted if the run's deadline passes while it
+     * waits in a native, see Meter.
+     */
+    void enter(Thread thread) {
+        if (meter != null)
+            meter.enter(thread);
+    }
+
+    void leave() {
+        if (meter != null)
+            meter.leave();
+    }
+
+    /*
+     * Every statement executed and every expression evaluated
+     * takes a step of fuel, see Meter. Errors raised from here
+     * have no token, the loop or call around them fills it in.
+     */
+    private void refuel() {
+        if (meter == null) {
+            fuel = Long.MAX_VALUE;
+            return;
         }
+        granted = fuel = meter.refuel(granted);
+    }
+
+    // Charges the memory budget, if there is one, for an allocation
+    private void allocate(long size) {
+        if (meter != null)
+            meter.allocate(size);
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    private Stmt.Jump execute(Stmt stmt) {
+        if (--fuel <= 0)
+            refuel();
+        line = stmt.line;
+        if (Stats.ENABLED)
+            Stats.STATEMENTS.increment();
+        Stmt.Jump jump = stmt.accept(this);
 
         /*
          * For postfix expression we store the variables
@@ -33,9 +135,12 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
          * find a ';'.
          */
         clearStack();
+        return jump;
     }
 
     private void clearStack() {
+        if (this.environment.memstack == null)
+            return;
         while (!this.environment.memstack.empty()) {
             Expr expr = this.environment.memstack.pop();
             if (expr instanceof Expr.PrePost) {
@@ -50,23 +155,26 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                                     + " Expected Number type.");
                 }
                 if (operator.type == TokenType.PLUS_PLUS) {
-                    this.environment.assign(name, (Double) value + 1);
+                    this.environment.assign(name, boxed((Double) value + 1));
                 } else if (operator.type == TokenType.MINUS_MINUS) {
-                    this.environment.assign(name, (Double) value - 1);
+                    this.environment.assign(name, boxed((Double) value - 1));
                 }
             }
         }
     }
 
-    private void executeBlock(List<Stmt> statements, Environment environment) {
+    private Stmt.Jump executeBlock(List<Stmt> statements, Environment environment) {
         Environment outer = this.environment;
 
         try {
             this.environment = environment;
 
             for (Stmt statement : statements) {
-                execute(statement);
+                Stmt.Jump jump = execute(statement);
+                if (jump != null)
+                    return jump;
             }
+            return null;
         } catch (LoxError.RuntimeError error) {
             throw error;
         } finally {
@@ -74,42 +182,364 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
+    // A scope that doesn't come from the frame pool, shared if a closure can capture it
+    private Environment newEnvironment(Environment enclosing, boolean captured) {
+        allocate(ENVIRONMENT_BYTES);
+        Environment scope = new Environment(enclosing);
+        return captured ? scope.share() : scope;
+    }
+
     private Object evaluate(Expr expr) {
+        if (--fuel <= 0)
+            refuel();
         return expr.accept(this);
     }
 
+    /*
+     * A jump coming out of the body either targets this loop,
+     * in which case we break or carry on with the increment,
+     * or some loop further out which we hand it on to.
+     */
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
-        if (stmt.label != null) {
-            environment.define(stmt.label, stmt);
+    public Stmt.Jump visitWhileStmt(Stmt.While stmt) {
+        try {
+            if (stmt.plan != null && runPlanned(stmt.plan))
+                return null;
+            while (isTruthy(evaluate(stmt.condition))) {
+                Stmt.Jump jump = execute(stmt.body);
+                if (jump != null) {
+                    if (jump.target != stmt)
+                        return jump;
+                    if (jump.keyword.type == TokenType.BREAK)
+                        break;
+                }
+                if (stmt.increment != null) {
+                    execute(stmt.increment);
+                }
+            }
+        } catch (LoxError.RuntimeError error) {
+            // A budget running out in the loop itself
+            if (error.token == null)
+                error.token = stmt.keyword;
+            throw error;
         }
 
-        while (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.body);
+        return null;
+    }
+
+    /*
+     * A return works just like break and continue, its value is
+     * parked in `returnValue` while the jump makes its way back
+     * up to invoke().
+     */
+    @Override
+    public Stmt.Jump visitJumpStmt(Stmt.Jump stmt) {
+        if (stmt.keyword.type == TokenType.RETURN) {
+            returnValue = null;
+            if (stmt.value instanceof Expr.Call && ((Expr.Call) stmt.value).tail) {
+                tailCall((Expr.Call) stmt.value);
+            } else if (stmt.value != null) {
+                returnValue = evaluate(stmt.value);
+            }
         }
+        return stmt;
+    }
 
+    @Override
+    public Stmt.Jump visitFunctionStmt(Stmt.Function stmt) {
+        environment.define(stmt.name, new LoxFunction(stmt, environment));
         return null;
     }
 
+    /*
+     * Splits the range over the ForkJoin pool, see ParallelLoop.
+     * Once all of it has run each reduced variable is combined
+     * with what the parts came up with. If we are already on a
+     * thread of a pool (a loop nested in a parallel loop, or a
+     * host running us on a pool of its own) the loop runs there.
+     */
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Stmt.Jump visitParallelStmt(Stmt.Parallel stmt) {
+        long start = rangeBound(stmt.keyword, evaluate(stmt.start));
+        long end = rangeBound(stmt.keyword, evaluate(stmt.end));
+        double[] values = new double[stmt.reductions.size()];
+        for (int i = 0; i < values.length; i++) {
+            Object value = environment.fetch(stmt.reductions.get(i));
+            if (!(value instanceof Double))
+                throw new LoxError.RuntimeError(stmt.reductions.get(i), "Reduced variable must be a number.");
+            values[i] = (double) value;
+        }
+        if (start >= end)
+            return null;
+
+        // Unlike a spawn the enclosing scopes can be frames from the pool
+        environment.shareAll();
+        ParallelLoop loop = new ParallelLoop(this, stmt, environment, start, end);
+        double[] parts = ForkJoinTask.inForkJoinPool() ? loop.invoke() : ForkJoinPool.commonPool().invoke(loop);
+        if (parts == null) {
+            LoxError.RuntimeError error = loop.error();
+            if (error.token == null)
+                error.token = stmt.keyword;
+            throw error;
+        }
+        for (int i = 0; i < values.length; i++) {
+            environment.assign(stmt.reductions.get(i), ParallelLoop.combine(stmt.operators.get(i), values[i], parts[i]));
+        }
+        return null;
+    }
+
+    /*
+     * Runs a loop the LoopAnalyzer planned to run in parallel,
+     * see ParallelPlan, and leaves the counter where the loop
+     * would have. We are in the scope the counter is declared
+     * in. Returns false, leaving the loop to run as it is, if
+     * what only shows now rules that out: a counter or bound
+     * that isn't a whole number, a builtin the loop calls that
+     * has been shadowed, a reduced variable not holding a
+     * number, or too few iterations to be worth it.
+     */
+    private boolean runPlanned(ParallelPlan plan) {
+        Object first = environment.fetch(plan.counter);
+        Object limit = evaluate(plan.bound);
+        if (!(first instanceof Double) || !(limit instanceof Double))
+            return false;
+        double start = (double) first;
+        double end = plan.inclusive ? Math.floor((double) limit) + 1 : Math.ceil((double) limit);
+        if (start != Math.floor(start) || Math.abs(start) > 1L << 53 || !(Math.abs(end) <= 1L << 53))
+            return false;
+        if (end - start < MIN_PARALLEL_ITERATIONS)
+            return false;
+
+        for (Token name : plan.natives) {
+            Object function = environment.fetch(name);
+            if (!(function instanceof LoxNative) || !((LoxNative) function).pure)
+                return false;
+        }
+        double[] values = new double[plan.reductions.size()];
+        for (int i = 0; i < values.length; i++) {
+            Object value = environment.fetch(plan.reductions.get(i));
+            if (!(value instanceof Double))
+                return false;
+            values[i] = (double) value;
+        }
+
+        try {
+            plan.run(this, environment, (long) start, (long) (end - start), values);
+        } finally {
+            for (int i = 0; i < values.length; i++) {
+                environment.assign(plan.reductions.get(i), values[i]);
+            }
+        }
+        environment.assign(plan.counter, end);
+        return true;
+    }
+
+    private long rangeBound(Token keyword, Object value) {
+        if (!(value instanceof Double) || (double) value != Math.floor((double) value)
+                || Math.abs((double) value) > 1L << 53)
+            throw new LoxError.RuntimeError(keyword, "The range of a parallel loop must be whole numbers.");
+        return (long) (double) value;
+    }
+
+    // Runs one iteration of a parallel loop, on a child
+    void runIteration(Stmt body, Environment frame) {
+        Environment outer = environment;
+        try {
+            environment = frame;
+            execute(body);
+        } finally {
+            environment = outer;
+        }
+    }
+
+    /*
+     * The first import of a module in this context runs it, in
+     * a global scope of its own, later ones only bring in what
+     * it declared again. Cycles were ruled out before the run,
+     * so a module is never imported while it is still running.
+     */
+    @Override
+    public Stmt.Jump visitImportStmt(Stmt.Import stmt) {
+        Module module = modules.get(stmt.path);
+        Environment scope = instances.get(module);
+        if (scope == null) {
+            allocate(ENVIRONMENT_BYTES);
+            scope = new Globals();
+            instances.put(module, scope);
+            executeBlock(module.statements, scope);
+        }
+        // Importing a module again binds the same values, anything else already there is a clash
+        for (Token name : module.exports) {
+            Object value = scope.lookup(name.lexeme);
+            Object old = environment.lookup(name.lexeme);
+            if (old != null && old != value)
+                throw new LoxError.RuntimeError(stmt.file,
+                        "Imported name '" + name.lexeme + "' is already defined in this scope.");
+            environment.define(name.lexeme, value);
+        }
+        return null;
+    }
+
+    @Override
+    public Stmt.Jump visitClassStmt(Stmt.Class stmt) {
+        LoxClass superclass = null;
+        if (stmt.superclass != null) {
+            Object value = evaluate(stmt.superclass);
+            if (!(value instanceof LoxClass)) {
+                throw new LoxError.RuntimeError(stmt.superclass.name, "Superclass must be a class.");
+            }
+            superclass = (LoxClass) value;
+        }
+
+        LoxClass klass = new LoxClass(stmt.name.lexeme, superclass);
+        for (Stmt.Function method : stmt.methods) {
+            klass.addMethod(new LoxFunction(method, environment, klass, null));
+        }
+
+        environment.define(stmt.name, klass);
+        return null;
+    }
+
+    /*
+     * Calls a Lox function. Functions whose frame can't be
+     * captured by a closure take theirs from the frame pool
+     * just like blocks do.
+     *
+     * This is also the trampoline for tail calls: when the body
+     * returns with a tail call pending we don't recurse, we loop
+     * around and run the new callee in place of the old one. So
+     * a chain of tail calls, however long, runs in constant Java
+     * stack space.
+     */
+    Object invoke(LoxFunction function, List<Object> arguments) {
+        Profiler.Frame caller = top;
+        int callLine = line;
+        try {
+            return invokeFrom(function, arguments, caller, callLine);
+        } finally {
+            top = caller;
+            line = callLine;
+        }
+    }
+
+    // A tail call takes the place of its caller's frame on the profiler's stack
+    private Object invokeFrom(LoxFunction function, List<Object> arguments, Profiler.Frame caller, int callLine) {
+        while (true) {
+            if (profiling)
+                top = new Profiler.Frame(frameName(function), callLine, caller);
+            Stmt.Function declaration = function.declaration;
+            Environment frame = declaration.captured || frames.isEmpty()
+                    ? newEnvironment(function.closure, declaration.captured)
+                    : frames.pop().reset(function.closure);
+
+            Stmt.Jump jump;
+            try {
+                if (function.receiver != null) {
+                    frame.define("this", function.receiver);
+                    if (function.holder.superclass != null)
+                        frame.define("super", function.holder.superclass);
+                }
+                for (int i = 0; i < declaration.params.size(); i++) {
+                    frame.define(declaration.params.get(i), arguments.get(i));
+                }
+                jump = executeBlock(declaration.body, frame);
+            } finally {
+                if (!declaration.captured) {
+                    frames.push(frame);
+                }
+            }
+
+            if (tailFunction == null) {
+                Object value = jump != null ? returnValue : null;
+                if (function.initializer)
+                    value = function.receiver;
+                returnValue = null;
+                return value;
+            }
+
+            function = tailFunction;
+            arguments = tailArguments;
+            tailFunction = null;
+            tailArguments = null;
+        }
+    }
+
+    private static String frameName(LoxFunction function) {
+        String name = function.declaration.name.lexeme;
+        return function.holder == null ? name : function.holder.name + "." + name;
+    }
+
+    /*
+     * A call in tail position isn't made here. Its callee and
+     * arguments are left for invoke() to pick up once the
+     * current call has returned to it. Anything other than a
+     * Lox function is just called, it doesn't run Lox code on
+     * our stack.
+     */
+    private void tailCall(Expr.Call expr) {
+        Object callee = evaluate(expr.callee);
+        if (callee instanceof LoxNative) {
+            returnValue = callNative(expr, (LoxNative) callee);
+            return;
+        }
+        List<Object> arguments = evaluateArguments(expr);
+        LoxCallable function = checkCallable(expr.paren, callee, arguments.size());
+
+        if (function instanceof LoxFunction) {
+            tailFunction = (LoxFunction) function;
+            tailArguments = arguments;
+        } else {
+            returnValue = call(expr.paren, function, arguments);
+        }
+    }
+
+    @Override
+    public Stmt.Jump visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         } else if (stmt.elsebranch != null) {
-            execute(stmt.elsebranch);
+            return execute(stmt.elsebranch);
         }
 
         return null;
     }
 
+    /*
+     * Blocks that don't declare anything simply run in the
+     * enclosing environment. The ones that do take a frame
+     * from the pool of previously used ones, so a loop body
+     * with declarations keeps reusing the same frame on every
+     * iteration rather than allocating a new one each time.
+     * Unless a closure can capture the frame, then it has to
+     * be a new one that outlives the block.
+     */
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Stmt.Jump visitBlockStmt(Stmt.Block stmt) {
+        if (!stmt.scoped) {
+            for (Stmt statement : stmt.statements) {
+                Stmt.Jump jump = execute(statement);
+                if (jump != null)
+                    return jump;
+            }
+            return null;
+        }
+
+        if (stmt.captured) {
+            return executeBlock(stmt.statements, newEnvironment(environment, true));
+        }
+
+        Environment frame = frames.isEmpty()
+                ? newEnvironment(environment, false)
+                : frames.pop().reset(environment);
+        try {
+            return executeBlock(stmt.statements, frame);
+        } finally {
+            frames.push(frame);
+        }
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Stmt.Jump visitVarStmt(Stmt.Var stmt) {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
@@ -120,14 +550,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Stmt.Jump visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        out.println(stringify(value));
         return null;
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Stmt.Jump visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression);
         return null;
     }
@@ -156,15 +586,233 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        environment.assign(expr.name, value);
+        if (expr.global)
+            environment.global.assign(expr.name, value);
+        else
+            environment.assign(expr.name, value);
         return value;
     }
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
+        if (expr.global)
+            return environment.global.fetch(expr);
         return environment.fetch(expr.name);
     }
 
+    @Override
+    public Object visitCallExpr(Expr.Call expr) {
+        Object callee = evaluate(expr.callee);
+        if (callee instanceof LoxNative)
+            return callNative(expr, (LoxNative) callee);
+        List<Object> arguments = evaluateArguments(expr);
+        LoxCallable function = checkCallable(expr.paren, callee, arguments.size());
+
+        return call(expr.paren, function, arguments);
+    }
+
+    private List<Object> evaluateArguments(Expr.Call expr) {
+        List<Object> arguments = new ArrayList<>(expr.arguments.size());
+        for (Expr argument : expr.arguments) {
+            arguments.add(evaluate(argument));
+        }
+        return arguments;
+    }
+
+    private LoxCallable checkCallable(Token paren, Object callee, int count) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new LoxError.RuntimeError(paren, "Can only call functions and classes.");
+        }
+        LoxCallable function = (LoxCallable) callee;
+        if (count != function.arity()) {
+            throw new LoxError.RuntimeError(paren,
+                    "Expected " + function.arity() + " arguments but got " + count + ".");
+        }
+        return function;
+    }
+
+    /*
+     * Natives are bound to the call site the first time they
+     * are called from it, which is the only time their arity
+     * is checked. The arguments are then evaluated right into
+     * the native's fixed arity entry point, no List needed.
+     */
+    private Object callNative(Expr.Call expr, LoxNative function) {
+        List<Expr> arguments = expr.arguments;
+        if (function != expr.target) {
+            checkCallable(expr.paren, function, arguments.size());
+            expr.target = function;
+        }
+
+        int count = arguments.size();
+        Object a = count > 0 ? evaluate(arguments.get(0)) : null;
+        Object b = count > 1 ? evaluate(arguments.get(1)) : null;
+        Object c = count > 2 ? evaluate(arguments.get(2)) : null;
+        try {
+            Object result;
+            switch (count) {
+                case 0:
+                    result = function.call0();
+                    break;
+                case 1:
+                    result = function.call1(a);
+                    break;
+                case 2:
+                    result = function.call2(a, b);
+                    break;
+                default:
+                    result = function.call3(a, b, c);
+            }
+            // Natives can't charge the strings they make themselves
+            if (meter != null && result instanceof String)
+                allocate(STRING_BYTES + ((String) result).length());
+            return result;
+        } catch (LoxError.RuntimeError error) {
+            // Waiting for longer than the run had left is what made it give up
+            if (meter != null && meter.expired())
+                error = meter.overtime();
+            if (error.token == null)
+                error.token = expr.paren;
+            throw error;
+        }
+    }
+
+    /*
+     * Recursion that isn't in tail position still uses up the
+     * Java stack. When it runs out we turn that into a regular
+     * Lox error at the call that overflowed.
+     */
+    private Object call(Token paren, LoxCallable function, List<Object> arguments) {
+        try {
+            return function.call(this, arguments);
+        } catch (StackOverflowError error) {
+            throw new LoxError.RuntimeError(paren, "Stack overflow.");
+        } catch (LoxError.RuntimeError error) {
+            // Errors from natives don't know where they happened
+            if (error.token == null)
+                error.token = paren;
+            throw error;
+        }
+    }
+
+    /*
+     * Property access goes through the site's inline cache
+     * first. For a shape it has seen before it already knows
+     * the slot of the field or the method to bind, and only
+     * on a miss do we look the name up and extend the cache.
+     */
+    @Override
+    public Object visitGetExpr(Expr.Get expr) {
+        Object object = evaluate(expr.object);
+        if (!(object instanceof LoxInstance)) {
+            throw new LoxError.RuntimeError(expr.name, "Only instances have properties.");
+        }
+        LoxInstance instance = (LoxInstance) object;
+        Shape shape = instance.shape;
+
+        InlineCache cache = expr.cache;
+        int entry = cache.find(shape);
+        if (entry >= 0) {
+            ++cacheHits;
+            int slot = cache.slots[entry];
+            if (slot >= 0)
+                return instance.fields[slot];
+            return instance.klass.methodAt(InlineCache.location(slot)).bind(instance);
+        }
+
+        ++cacheMisses;
+        int slot = shape.slotOf(expr.name.lexeme);
+        if (slot >= 0) {
+            expr.cache = cache.with(shape, slot, null);
+            return instance.fields[slot];
+        }
+        int location = instance.klass.locate(expr.name.lexeme);
+        if (location >= 0) {
+            expr.cache = cache.with(shape, InlineCache.methodSlot(location), null);
+            return instance.klass.methodAt(location).bind(instance);
+        }
+
+        throw new LoxError.RuntimeError(expr.name, "Undefined property '" + expr.name.lexeme + "'.");
+    }
+
+    /*
+     * Assigning a field an instance doesn't have yet moves it
+     * to a new shape. The cache remembers that transition too,
+     * so instances built the same way share it without any
+     * lookups.
+     */
+    @Override
+    public Object visitSetExpr(Expr.Set expr) {
+        Object object = evaluate(expr.object);
+        if (!(object instanceof LoxInstance)) {
+            throw new LoxError.RuntimeError(expr.name, "Only instances have fields.");
+        }
+        LoxInstance instance = (LoxInstance) object;
+        Object value = evaluate(expr.value);
+        Shape shape = instance.shape;
+
+        InlineCache cache = expr.cache;
+        int entry = cache.find(shape);
+        if (entry >= 0) {
+            ++cacheHits;
+            Shape next = cache.targets[entry];
+            if (next != null)
+                instance.grow(next);
+            instance.fields[cache.slots[entry]] = value;
+            return value;
+        }
+
+        ++cacheMisses;
+        int slot = shape.slotOf(expr.name.lexeme);
+        if (slot >= 0) {
+            expr.cache = cache.with(shape, slot, null);
+        } else {
+            Shape next = shape.with(expr.name.lexeme);
+            slot = shape.size();
+            instance.grow(next);
+            expr.cache = cache.with(shape, slot, next);
+        }
+        instance.fields[slot] = value;
+        return value;
+    }
+
+    @Override
+    public Object visitThisExpr(Expr.This expr) {
+        return environment.fetch(expr.keyword);
+    }
+
+    @Override
+    public Object visitSuperExpr(Expr.Super expr) {
+        LoxClass superclass = (LoxClass) environment.fetch(expr.keyword);
+        LoxInstance receiver = (LoxInstance) environment.fetch(THIS);
+
+        InlineCache cache = expr.cache;
+        int entry = cache.find(superclass.shape);
+        if (entry >= 0) {
+            ++cacheHits;
+            return superclass.methodAt(InlineCache.location(cache.slots[entry])).bind(receiver);
+        }
+
+        ++cacheMisses;
+        int location = superclass.locate(expr.method.lexeme);
+        if (location < 0) {
+            throw new LoxError.RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
+        }
+        expr.cache = cache.with(superclass.shape, InlineCache.methodSlot(location), null);
+        return superclass.methodAt(location).bind(receiver);
+    }
+
+    /*
+     * Starts the block on a new thread, with an interpreter of
+     * its own. The scopes it closes over are captured, so they
+     * were shared when they were created and both threads can
+     * use them from here on.
+     */
+    @Override
+    public Object visitSpawnExpr(Expr.Spawn expr) {
+        return LoxTask.start(child(), new LoxFunction(expr.body, environment));
+    }
+
     @Override
     public Object visitLiteralExpr(Expr.Literal expr) {
         return expr.value;
@@ -178,14 +826,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
-        Object right = evaluate(expr.right);
+        Object right = operand(expr.right);
 
         switch (expr.operator.type) {
             case BANG:
-                return !isTruthy(right);
+                return !isTruthy(box(right, unboxed));
             case MINUS:
                 checkNumberOperand(expr.operator, right);
-                return -(double) right;
+                return boxed(-number(right, unboxed));
         }
 
         return null;
@@ -193,8 +841,10 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
+        Object left = operand(expr.left);
+        double leftNumber = unboxed;
+        Object right = operand(expr.right);
+        double rightNumber = unboxed;
         /*
          * Note that here every binary expression is
          * evaluated in *left to right* order so any side
@@ -205,55 +855,190 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
          */
         switch (expr.operator.type) {
             case PLUS:
-                if (left instanceof Double && right instanceof Double)
-                    return (double) left + (double) right;
+                if (isNumber(left) && isNumber(right))
+                    return boxed(number(left, leftNumber) + number(right, rightNumber));
                 /*
                  * If either of the operands is String
                  * we convert both to string and concatenate them
                  */
-                if (left instanceof String || right instanceof String)
-                    return stringify(left) + stringify(right);
+                if (left instanceof String || right instanceof String) {
+                    String text = stringify(box(left, leftNumber)) + stringify(box(right, rightNumber));
+                    allocate(STRING_BYTES + text.length());
+                    return text;
+                }
                 throw new LoxError.RuntimeError(
                         expr.operator,
                         "Either operands must be string or both numbers.");
             case MINUS:
                 checkNumberOperand(expr.operator, left, right);
-                return (double) left - (double) right;
+                return boxed(number(left, leftNumber) - number(right, rightNumber));
 
             case STAR:
                 checkNumberOperand(expr.operator, left, right);
-                return (double) left * (double) right;
+                return boxed(number(left, leftNumber) * number(right, rightNumber));
 
             case SLASH:
                 checkNumberOperand(expr.operator, left, right);
-                return (double) left / (double) right;
+                return boxed(number(left, leftNumber) / number(right, rightNumber));
 
             case GREATER:
                 checkNumberOperand(expr.operator, left, right);
-                return (double) left > (double) right;
+                return number(left, leftNumber) > number(right, rightNumber);
 
             case GREATER_EQUAL:
                 checkNumberOperand(expr.operator, left, right);
-                return (double) left >= (double) right;
+                return number(left, leftNumber) >= number(right, rightNumber);
 
             case LESS:
                 checkNumberOperand(expr.operator, left, right);
-                return (double) left < (double) right;
+                return number(left, leftNumber) < number(right, rightNumber);
 
             case LESS_EQUAL:
                 checkNumberOperand(expr.operator, left, right);
-                return (double) left <= (double) right;
+                return number(left, leftNumber) <= number(right, rightNumber);
 
             case BANG_EQUAL:
-                return !isEqual(left, right);
+                return !isEqual(box(left, leftNumber), box(right, rightNumber));
 
             case EQUAL_EQUAL:
-                return isEqual(left, right);
+                return isEqual(box(left, leftNumber), box(right, rightNumber));
         }
 
         return null;
     }
 
+    /*
+     * Evaluates the operand of a unary or binary operator. When
+     * the operand reads an element of a numeric array it isn't
+     * boxed, we return UNBOXED and leave the element itself in
+     * `unboxed` for number() to pick up, so `a[i] * b[i]` only
+     * boxes its result.
+     */
+    private Object operand(Expr expr) {
+        if (!(expr instanceof Expr.Index))
+            return evaluate(expr);
+
+        Expr.Index index = (Expr.Index) expr;
+        Object object = evaluate(index.object);
+        Object key = evaluate(index.index);
+        if (object instanceof LoxArray && ((LoxArray) object).isNumeric()) {
+            LoxArray array = (LoxArray) object;
+            unboxed = array.getNumber(checkIndex(index.bracket, key, array.size()));
+            return UNBOXED;
+        }
+        return index(index.bracket, object, key);
+    }
+
+    private boolean isNumber(Object operand) {
+        return operand == UNBOXED || operand instanceof Double;
+    }
+
+    private double number(Object operand, double unboxedValue) {
+        return operand == UNBOXED ? unboxedValue : (double) operand;
+    }
+
+    private Object box(Object operand, double unboxedValue) {
+        return operand == UNBOXED ? boxed(unboxedValue) : operand;
+    }
+
+    // Every arithmetic result ends up boxed here, see Stats
+    private static Object boxed(double value) {
+        if (Stats.ENABLED)
+            Stats.NUMBERS_BOXED.increment();
+        return value;
+    }
+
+    @Override
+    public Object visitArrayExpr(Expr.Array expr) {
+        LoxArray array = new LoxArray(expr.elements.size());
+        for (Expr element : expr.elements) {
+            array.add(evaluate(element));
+        }
+        return array;
+    }
+
+    @Override
+    public Object visitMapExpr(Expr.Map expr) {
+        LoxMap map = new LoxMap();
+        for (int i = 0; i < expr.keys.size(); i++) {
+            Object key = evaluate(expr.keys.get(i));
+            map.put(key, evaluate(expr.values.get(i)));
+        }
+        return map;
+    }
+
+    @Override
+    public Object visitIndexExpr(Expr.Index expr) {
+        Object object = evaluate(expr.object);
+        Object key = evaluate(expr.index);
+        return index(expr.bracket, object, key);
+    }
+
+    @Override
+    public Object visitIndexSetExpr(Expr.IndexSet expr) {
+        Object object = evaluate(expr.object);
+        Object key = evaluate(expr.index);
+        Object value = evaluate(expr.value);
+
+        if (object instanceof LoxMap) {
+            ((LoxMap) object).put(key, value);
+            return value;
+        }
+        if (object instanceof PersistentVector || object instanceof PersistentMap) {
+            throw new LoxError.RuntimeError(expr.bracket,
+                    "Persistent collections can't be changed in place, use 'assoc' instead.");
+        }
+        if (!(object instanceof LoxArray)) {
+            throw new LoxError.RuntimeError(expr.bracket, "Can only assign to elements of arrays and maps.");
+        }
+        LoxArray array = (LoxArray) object;
+        array.set(checkIndex(expr.bracket, key, array.size()), value);
+        return value;
+    }
+
+    private Object index(Token bracket, Object object, Object key) {
+        if (object instanceof LoxArray) {
+            LoxArray array = (LoxArray) object;
+            return array.get(checkIndex(bracket, key, array.size()));
+        }
+        if (object instanceof LoxMap) {
+            Object value = ((LoxMap) object).get(key, LoxMap.NOT_FOUND);
+            if (value == LoxMap.NOT_FOUND) {
+                throw new LoxError.RuntimeError(bracket, "Undefined key '" + stringify(key) + "'.");
+            }
+            return value;
+        }
+        if (object instanceof PersistentVector) {
+            PersistentVector vector = (PersistentVector) object;
+            return vector.get(checkIndex(bracket, key, vector.size()));
+        }
+        if (object instanceof PersistentMap) {
+            Object value = ((PersistentMap) object).get(key, PersistentMap.NOT_FOUND);
+            if (value == PersistentMap.NOT_FOUND) {
+                throw new LoxError.RuntimeError(bracket, "Undefined key '" + stringify(key) + "'.");
+            }
+            return value;
+        }
+        throw new LoxError.RuntimeError(bracket, "Can only index arrays, vectors and maps.");
+    }
+
+    // Checks that the key is a whole number within the bounds of a sequence
+    static int checkIndex(Token bracket, Object key, int size) {
+        if (!(key instanceof Double)) {
+            throw new LoxError.RuntimeError(bracket, "Array index must be a number.");
+        }
+        double value = (double) key;
+        int index = (int) value;
+        if (index != value) {
+            throw new LoxError.RuntimeError(bracket, "Array index must be a whole number.");
+        }
+        if (index < 0 || index >= size) {
+            throw new LoxError.RuntimeError(bracket,
+                    "Array index " + index + " out of bounds for length " + size + ".");
+        }
+        return index;
+    }
+
     @Override
     public Object visitConditionalExpr(Expr.Conditional expr) {
         Object left = evaluate(expr.left);
@@ -280,21 +1065,21 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
             Object newValue = null;
             if (expr.operator.type == TokenType.PLUS_PLUS) {
-                newValue = (Double) value + 1;
+                newValue = boxed((Double) value + 1);
             }
             if (expr.operator.type == TokenType.MINUS_MINUS) {
-                newValue = (Double) value - 1;
+                newValue = boxed((Double) value - 1);
             }
             this.environment.assign(expr.name, newValue);
 
             return newValue;
         }
-        this.environment.memstack.add(expr);
+        this.environment.defer(expr);
         return this.environment.fetch(expr.name);
     }
 
     // To convert all Java objects to appropriate Lox strings
-    private String stringify(Object obj) {
+    static String stringify(Object obj) {
         if (obj == null)
             return "nil";
 
@@ -307,6 +1092,22 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return obj.toString();
     }
 
+    /*
+     * An array or map is only written out while it isn't already
+     * being written out further up on the same thread, so one
+     * that holds itself, directly or deeper down, prints as a
+     * placeholder there instead of recursing until the stack
+     * runs out. Returns false for such a repeat, otherwise the
+     * container has to be let go of with leave() once written.
+     */
+    static boolean enter(Object container) {
+        return PRINTING.get().add(container);
+    }
+
+    static void leave(Object container) {
+        PRINTING.get().remove(container);
+    }
+
     /*
      * This function is used to define values in Lox
      * which are considered true and which are false
@@ -325,7 +1126,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     // Custom comparison for Lox based on their truthy values
-    private boolean isEqual(Object obj1, Object obj2) {
+    static boolean isEqual(Object obj1, Object obj2) {
         if (obj1 == null && obj2 == null)
             return true;
         if (obj1 == null)
@@ -336,7 +1137,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     // Checks whether all operands are number types (double)
     private void checkNumberOperand(Token operator, Object right) {
-        if (right instanceof Double)
+        if (isNumber(right))
             return;
         throw new LoxError.RuntimeError(
                 operator,
@@ -344,18 +1145,81 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     private void checkNumberOperand(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double)
+        if (isNumber(left) && isNumber(right))
             return;
         throw new LoxError.RuntimeError(
                 operator,
                 "Expected operands to be numbers");
     }
 
+    private final PrintStream out;
     /*
      * This is our global namespace environment containing all
      * global variables purposefully declared as an interpreter
      * field so that the global environment stays in memory as
-     * long as the interpreter stays alive.
+     * long as the interpreter stays alive. The builtins are in
+     * the shared environment it is nested in.
      */
-    private Environment environment = new Environment();
+    final Globals globals;
+    private Environment environment;
+    /*
+     * The modules the script being run imports, by path, and the
+     * global scope of every module that has run in this context.
+     */
+    Map<Path, Module> modules = Map.of();
+    private final Map<Module, Environment> instances = new HashMap<>();
+    /*
+     * What the run's budget is charged with, see Meter, and how
+     * much fuel is left of what it last gave us. No budget means
+     * fuel that never runs out.
+     */
+    private Meter meter = null;
+    private long fuel = Long.MAX_VALUE;
+    private long granted = 0;
+
+    // Rough sizes of a string besides its characters, and of a scope
+    private static final long STRING_BYTES = 40;
+    private static final long ENVIRONMENT_BYTES = 160;
+
+    // Stands in for the place of an error in top level code
+    private static final Token TOP_LEVEL = new Token(TokenType.EOF, "", null, 0);
+
+    /*
+     * The line of the statement being executed, and with the
+     * run being profiled the Lox calls in progress. The profiler
+     * reads both from its own thread, see Profiler.
+     */
+    boolean profiling = false;
+    int line = 0;
+    Profiler.Frame top = null;
+
+    // Loops shorter than this aren't worth running in parallel
+    private static final int MIN_PARALLEL_ITERATIONS = 64;
+
+    /*
+     * Frames of blocks that have finished executing, kept
+     * around to be reset and reused by the next block.
+     */
+    private final Deque<Environment> frames = new ArrayDeque<>();
+
+    // Inline cache hits and misses of all property sites
+    long cacheHits = 0;
+    long cacheMisses = 0;
+
+    // Used to find the receiver of a `super` call
+    private static final Token THIS = new Token(TokenType.THIS, "this", null, 0);
+
+    // Containers being turned into strings on each thread, see enter()
+    private static final ThreadLocal<Set<Object>> PRINTING = ThreadLocal
+            .withInitial(() -> Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    // Marks an operand whose value was left in `unboxed`
+    private static final Object UNBOXED = new Object();
+    private double unboxed;
+
+    // Value of the return statement being executed
+    private Object returnValue = null;
+    // Tail call left by a return statement for invoke() to make
+    private LoxFunction tailFunction = null;
+    private List<Object> tailArguments = null;
 }
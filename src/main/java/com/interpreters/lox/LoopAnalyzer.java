@@ -0,0 +1,535 @@
+package com.interpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Finds the for loops of a program whose iterations don't
+ * depend on each other, so that they can run in parallel
+ * without anyone being able to tell, and plans how (see
+ * ParallelPlan). It runs after the Resolver, and only when
+ * the engine was asked for it.
+ *
+ * A loop qualifies when
+ * - its header is `let i = start; i < bound; i++` (or `<=`,
+ *   `++i`, `i = i + 1`) and the bound can't change while the
+ *   loop runs,
+ * - the only variables from outside the body it assigns to
+ *   are reductions, a single `x = x + e`, `x = x * e`,
+ *   `x = min(x, e)` or `x = max(x, e)` per variable that isn't
+ *   in a nested loop, and it reads those nowhere else,
+ * - and it has no effect anyone could see the order of: no
+ *   print, no calls other than to pure builtins, no writes to
+ *   arrays, maps or properties, no spawn, and no way out of the
+ *   loop other than finishing an iteration or `continue`.
+ *
+ * Everything else stays sequential, and the report says why.
+ * Some of this can only be checked when the loop starts, like
+ * whether `sqrt` still is the builtin, those checks are left
+ * to the plan.
+ *
+ * One walk does both jobs. Outside of a loop that is being
+ * checked (`loop` is null) it looks for for loops, inside one
+ * every node either passes or rejects the loop by throwing.
+ */
+final class LoopAnalyzer implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+    // Plans every loop in the program that qualifies, returns the report
+    List<String> analyze(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+        return report;
+    }
+
+    private void check(Stmt.Var counter, Stmt.While loop) {
+        this.loop = loop;
+        this.counter = counter.name;
+        scopes.clear();
+        scopes.push(new HashSet<>());
+        nested.clear();
+        reads.clear();
+        reductions.clear();
+        natives.clear();
+        try {
+            Expr bound = bound(loop.condition);
+            if (!isIncrement(loop.increment))
+                throw new Rejection("it doesn't count '" + this.counter.lexeme + "' up by one");
+            loop.body.accept(this);
+            for (String name : reductions.keySet()) {
+                if (reads.contains(name))
+                    throw new Rejection("it reads '" + name + "' besides reducing into it");
+            }
+
+            reads.clear();
+            bound.accept(this);
+            if (reads.contains(this.counter.lexeme) || !disjoint(reads, reductions.keySet()))
+                throw new Rejection("its bound changes as it runs");
+
+            List<Token> names = new ArrayList<>();
+            List<Token> operators = new ArrayList<>();
+            for (Map.Entry<String, Token[]> reduction : reductions.entrySet()) {
+                names.add(reduction.getValue()[0]);
+                operators.add(reduction.getValue()[1]);
+            }
+            loop.plan = new ParallelPlan(this.counter, bound, isInclusive(loop.condition), names, operators,
+                    new ArrayList<>(natives), loop.body);
+            report.add("[line " + loop.keyword.line + "] Runs in parallel" + describe(names, operators) + ".");
+        } catch (Rejection rejection) {
+            report.add("[line " + loop.keyword.line + "] Stays sequential, " + rejection.getMessage() + ".");
+        } finally {
+            this.loop = null;
+            this.counter = null;
+        }
+    }
+
+    // The bound of `i < bound` or `i <= bound`
+    private Expr bound(Expr condition) {
+        if (condition instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) condition;
+            if ((binary.operator.type == TokenType.LESS || binary.operator.type == TokenType.LESS_EQUAL)
+                    && isCounter(binary.left))
+                return binary.right;
+        }
+        throw new Rejection("its condition isn't '" + counter.lexeme + " < bound' or '" + counter.lexeme
+                + " <= bound'");
+    }
+
+    private static boolean isInclusive(Expr condition) {
+        return ((Expr.Binary) condition).operator.type == TokenType.LESS_EQUAL;
+    }
+
+    // `i++`, `++i` or `i = i + 1`
+    private boolean isIncrement(Stmt increment) {
+        Expr expr = ((Stmt.Expression) increment).expression;
+        if (expr instanceof Expr.PrePost) {
+            Expr.PrePost step = (Expr.PrePost) expr;
+            return step.name.lexeme.equals(counter.lexeme) && step.operator.type == TokenType.PLUS_PLUS;
+        }
+        if (expr instanceof Expr.Assign && ((Expr.Assign) expr).name.lexeme.equals(counter.lexeme)
+                && ((Expr.Assign) expr).value instanceof Expr.Binary) {
+            Expr.Binary sum = (Expr.Binary) ((Expr.Assign) expr).value;
+            return sum.operator.type == TokenType.PLUS
+                    && (isCounter(sum.left) && isOne(sum.right) || isOne(sum.left) && isCounter(sum.right));
+        }
+        return false;
+    }
+
+    private boolean isCounter(Expr expr) {
+        return expr instanceof Expr.Variable && ((Expr.Variable) expr).name.lexeme.equals(counter.lexeme);
+    }
+
+    private static boolean isOne(Expr expr) {
+        return expr instanceof Expr.Literal && Double.valueOf(1).equals(((Expr.Literal) expr).value);
+    }
+
+    private static boolean disjoint(Set<String> a, Set<String> b) {
+        for (String name : a) {
+            if (b.contains(name))
+                return false;
+        }
+        return true;
+    }
+
+    private static String describe(List<Token> names, List<Token> operators) {
+        if (names.isEmpty())
+            return "";
+        StringBuilder text = new StringBuilder(", reducing");
+        for (int i = 0; i < names.size(); i++) {
+            text.append(i == 0 ? " " : ", ").append(names.get(i).lexeme)
+                    .append(" with ").append(operators.get(i).lexeme);
+        }
+        return text.toString();
+    }
+
+    // Declared in the body, so every iteration has its own
+    private boolean isLocal(String name) {
+        for (Set<String> scope : scopes) {
+            if (scope.contains(name))
+                return true;
+        }
+        return false;
+    }
+
+    /*
+     * `x = x + e`, `x = e * x`, `x = min(x, e)` and the like,
+     * as a statement of its own. Returns the `e` or null if the
+     * assignment isn't one of those.
+     */
+    private Expr reduction(Expr.Assign assign) {
+        String name = assign.name.lexeme;
+        if (assign.value instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) assign.value;
+            if (binary.operator.type != TokenType.PLUS && binary.operator.type != TokenType.STAR)
+                return null;
+            Expr operand = other(name, binary.left, binary.right);
+            if (operand != null) {
+                reduce(assign.name, binary.operator);
+                localize(assign, binary.left, binary.right);
+            }
+            return operand;
+        }
+        if (assign.value instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call) assign.value;
+            if (!(call.callee instanceof Expr.Variable) || call.arguments.size() != 2)
+                return null;
+            Token function = ((Expr.Variable) call.callee).name;
+            if (!function.lexeme.equals("min") && !function.lexeme.equals("max") || isLocal(function.lexeme))
+                return null;
+            Expr operand = other(name, call.arguments.get(0), call.arguments.get(1));
+            if (operand != null) {
+                reduce(assign.name, function);
+                localize(assign, call.arguments.get(0), call.arguments.get(1));
+                natives.add(function);
+            }
+            return operand;
+        }
+        return null;
+    }
+
+    // Of two operands, the one that isn't the variable `name`
+    private static Expr other(String name, Expr left, Expr right) {
+        if (left instanceof Expr.Variable && ((Expr.Variable) left).name.lexeme.equals(name))
+            return right;
+        if (right instanceof Expr.Variable && ((Expr.Variable) right).name.lexeme.equals(name))
+            return left;
+        return null;
+    }
+
+    /*
+     * Every thread reduces into a copy of its own in the scope
+     * around the body, so the reduction can't go straight to
+     * the global of that name even if that is what it reduces.
+     */
+    private static void localize(Expr.Assign assign, Expr left, Expr right) {
+        assign.global = false;
+        for (Expr operand : List.of(left, right)) {
+            if (operand instanceof Expr.Variable && ((Expr.Variable) operand).name.lexeme.equals(assign.name.lexeme))
+                ((Expr.Variable) operand).global = false;
+        }
+    }
+
+    private void reduce(Token name, Token operator) {
+        if (!nested.isEmpty())
+            throw new Rejection("it updates '" + name.lexeme + "' in a loop inside it");
+        if (reductions.containsKey(name.lexeme))
+            throw new Rejection("it updates '" + name.lexeme + "' more than once");
+        reductions.put(name.lexeme, new Token[] { name, operator });
+    }
+
+    private void assigns(Token name) {
+        if (isLocal(name.lexeme))
+            return;
+        if (name.lexeme.equals(counter.lexeme))
+            throw new Rejection("it changes '" + name.lexeme + "'");
+        throw new Rejection("it assigns to '" + name.lexeme + "', which is declared outside of it");
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        if (loop == null) {
+            if (stmt.increment != null)
+                report.add("[line " + stmt.keyword.line + "] Stays sequential, it doesn't declare its counter.");
+            stmt.body.accept(this);
+            return null;
+        }
+        stmt.condition.accept(this);
+        nested.push(stmt);
+        scopes.push(new HashSet<>());
+        stmt.body.accept(this);
+        if (stmt.increment != null)
+            stmt.increment.accept(this);
+        scopes.pop();
+        nested.pop();
+        return null;
+    }
+
+    /*
+     * A for loop that declares its counter is desugared into a
+     * block of just the declaration and the loop.
+     */
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (loop == null && stmt.statements.size() == 2 && stmt.statements.get(0) instanceof Stmt.Var
+                && stmt.statements.get(1) instanceof Stmt.While
+                && ((Stmt.While) stmt.statements.get(1)).increment != null) {
+            Stmt.While candidate = (Stmt.While) stmt.statements.get(1);
+            check((Stmt.Var) stmt.statements.get(0), candidate);
+            // A loop inside a parallel one already runs in parallel with the rest
+            if (candidate.plan == null)
+                candidate.body.accept(this);
+            return null;
+        }
+
+        if (loop != null)
+            scopes.push(new HashSet<>());
+        for (Stmt statement : stmt.statements) {
+            statement.accept(this);
+        }
+        if (loop != null)
+            scopes.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        if (loop == null)
+            return null;
+        if (stmt.expression instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) stmt.expression;
+            if (!isLocal(assign.name.lexeme) && !assign.name.lexeme.equals(counter.lexeme)) {
+                Expr operand = reduction(assign);
+                if (operand != null) {
+                    operand.accept(this);
+                    return null;
+                }
+            }
+        }
+        stmt.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        if (loop != null)
+            stmt.condition.accept(this);
+        stmt.thenBranch.accept(this);
+        if (stmt.elsebranch != null)
+            stmt.elsebranch.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        if (loop != null)
+            throw new Rejection("it prints");
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (loop == null)
+            return null;
+        if (stmt.initializer != null)
+            stmt.initializer.accept(this);
+        scopes.peek().add(stmt.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitJumpStmt(Stmt.Jump stmt) {
+        if (loop == null)
+            return null;
+        if (stmt.keyword.type == TokenType.RETURN)
+            throw new Rejection("it can return");
+        if (stmt.target == loop && stmt.keyword.type == TokenType.BREAK)
+            throw new Rejection("it can break out early");
+        if (stmt.target != loop && !nested.contains(stmt.target))
+            throw new Rejection("it can jump to a loop around it");
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        if (loop != null)
+            throw new Rejection("it declares a function");
+        for (Stmt statement : stmt.body) {
+            statement.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        if (loop != null)
+            throw new Rejection("it declares a class");
+        for (Stmt.Function method : stmt.methods) {
+            method.accept(this);
+        }
+        return null;
+    }
+
+    // Imports are only ever at the top level, outside of any loop
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitParallelStmt(Stmt.Parallel stmt) {
+        if (loop != null)
+            throw new Rejection("it has a parallel loop in it");
+        stmt.body.accept(this);
+        return null;
+    }
+
+    // Expressions are only walked inside a loop being checked
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        assigns(expr.name);
+        expr.value.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitConditionalExpr(Expr.Conditional expr) {
+        expr.left.accept(this);
+        expr.mid.accept(this);
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        expr.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitPrePostExpr(Expr.PrePost expr) {
+        assigns(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (!isLocal(expr.name.lexeme))
+            reads.add(expr.name.lexeme);
+        return null;
+    }
+
+    /*
+     * Calls are fine as long as they are to a builtin that has
+     * no effects, which the plan checks again before the loop
+     * runs, as the program can have put something else under
+     * that name by then.
+     */
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (!(expr.callee instanceof Expr.Variable))
+            throw new Rejection("it calls a method");
+        Token name = ((Expr.Variable) expr.callee).name;
+        Object builtin = Builtins.ENVIRONMENT.lookup(name.lexeme);
+        if (isLocal(name.lexeme) || !(builtin instanceof LoxNative) || !((LoxNative) builtin).pure)
+            throw new Rejection("it calls '" + name.lexeme + "', which isn't a pure builtin");
+        natives.add(name);
+        for (Expr argument : expr.arguments) {
+            argument.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        for (Expr element : expr.elements) {
+            element.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitMapExpr(Expr.Map expr) {
+        for (int i = 0; i < expr.keys.size(); i++) {
+            expr.keys.get(i).accept(this);
+            expr.values.get(i).accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        expr.object.accept(this);
+        expr.index.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+        throw new Rejection("it writes into an array or map");
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        expr.object.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        throw new Rejection("it sets a property");
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitSpawnExpr(Expr.Spawn expr) {
+        throw new Rejection("it spawns a task");
+    }
+
+    /*
+     * Why a loop can't run in parallel. Thrown from wherever in
+     * the body that was found and caught by check(), it never
+     * gets out of the analyzer so it needs no stack trace.
+     */
+    private static final class Rejection extends RuntimeException {
+        Rejection(String reason) {
+            super(reason, null, false, false);
+        }
+    }
+
+    private final List<String> report = new ArrayList<>();
+
+    // The loop being checked and its counter, null while looking for one
+    private Stmt.While loop = null;
+    private Token counter = null;
+    // Names declared in the body, innermost scope first
+    private final Deque<Set<String>> scopes = new ArrayDeque<>();
+    // Loops inside the body that the walk is in
+    private final Deque<Stmt.While> nested = new ArrayDeque<>();
+    // Variables from outside the body that it reads
+    private final Set<String> reads = new HashSet<>();
+    // Each reduced variable with its name and operator token
+    private final Map<String, Token[]> reductions = new LinkedHashMap<>();
+    // The builtins the body calls, to check again when it runs
+    private final Set<Token> natives = new LinkedHashSet<>();
+}
@@ -2,89 +2,248 @@ package com.interpreters.lox;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.List;
 
 public class Lox {
     public static void main(String[] args) throws IOException {
         System.out.println("Welcome to Jlox. For documentation refer to https://github.com/RougherO/JLox/docs");
-        if (args.length > 1) {
-            System.out.println("Usage: Lox [file]");
+        /*
+         * --auto-parallel runs the for loops that can be run in
+         * parallel that way, and reports on every for loop.
+         * --profile samples the script while it runs, prints its
+         * hottest lines at the end and writes the stacks it was
+         * in to profile.folded, or the file given with
+         * --profile=FILE, for a flame graph. --stats turns on the
+         * interpreter's counters and prints them at the end, which
+         * has to happen before anything loads Stats.
+         * --server=SOCKET runs scripts for LoxClient instead, until
+         * it has had no requests for --idle=SECONDS, see LoxServer.
+         * --restore=FILE starts from the globals in a snapshot and
+         * --snapshot=FILE writes the globals to one at the end,
+         * see Snapshot.
+         * --stream runs each statement of the file, or of standard
+         * input for -, as soon as it has been read, see
+         * StatementStream.
+         * --batch runs every script the arguments after it name,
+         * --jobs=N of them at a time, or with --check only looks
+         * for syntax errors in them, see Batch.
+         */
+        int first = 0;
+        for (; first < args.length && args[first].startsWith("--"); first++) {
+            String option = args[first];
+            if (option.equals("--auto-parallel")) {
+                engine = engine.autoParallel(true);
+                autoParallel = true;
+            } else if (option.equals("--profile") || option.startsWith("--profile=")) {
+                profiler = new Profiler(Profiler.DEFAULT_INTERVAL);
+                profile = Paths.get(option.equals("--profile") ? "profile.folded" : option.substring(10));
+            } else if (option.startsWith("--server=")) {
+                server = Paths.get(option.substring(9));
+            } else if (option.startsWith("--idle=")) {
+                idle = Duration.ofSeconds(count(option.substring(7)));
+            } else if (option.startsWith("--snapshot=")) {
+                snapshot = Paths.get(option.substring(11));
+            } else if (option.startsWith("--restore=")) {
+                restore = Paths.get(option.substring(10));
+            } else if (option.equals("--stream")) {
+                stream = true;
+            } else if (option.equals("--batch")) {
+                batch = true;
+            } else if (option.equals("--check")) {
+                check = true;
+            } else if (option.startsWith("--jobs=")) {
+                jobs = count(option.substring(7));
+            } else if (option.equals("--stats")) {
+                System.setProperty("lox.stats", "true");
+                stats = true;
+            } else {
+                break;
+            }
+        }
+        if (idle.isNegative() || server != null && (args.length > first || batch || stream)
+                || (batch ? args.length == first || profiler != null || jobs < 1 || stream
+                : args.length - first > 1 || args.length > first && args[first].startsWith("--") || check
+                        || stream && (args.length == first || profiler != null || autoParallel))) {
+            System.out.println("Usage: Lox [--auto-parallel] [--profile[=FILE]] [--stats] [--restore=FILE]"
+                    + " [--snapshot=FILE] [file]");
+            System.out.println("       Lox --stream [--stats] [--restore=FILE] [--snapshot=FILE] (file | -)");
+            System.out.println("       Lox --batch [--check] [--jobs=N] [--auto-parallel] [--stats]"
+                    + " (file | directory | glob | @list)...");
+            System.out.println("       Lox --server=SOCKET [--idle=SECONDS]");
             System.exit(ExitCode.INCORRECT_CMD_USAGE.exitCode);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        } else if (stream) {
+            runStream(args[first]);
+        } else if (batch) {
+            runBatch(Arrays.asList(args).subList(first, args.length));
+        } else if (server != null) {
+            new LoxServer(server, idle).serve();
+        } else if (args.length - first == 1) {
+            runFile(args[first]);
         } else {
             runPrompt();
         }
     }
 
+    // The number given to an option, -1 if it isn't one, which is never a valid one
+    private static int count(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        LoxContext context = engine.newContext();
+        restore(context);
+        String source = new String(bytes, Charset.defaultCharset());
+        List<Diagnostic> errors = run(context, source, Paths.get(path));
+        report(errors);
+        reportProfile(source);
+        reportStats();
+        if (errors.isEmpty())
+            snapshot(context);
+
+        if (!errors.isEmpty())
+            System.exit(exitCode(errors));
+    }
 
-        if (hasError)
-            System.exit(ExitCode.INCORRECT_CODE_ERR.exitCode);
-        if (hasRuntimeError)
-            System.exit(ExitCode.INTERNAL_ERR.exitCode);
+    private static void runStream(String path) throws IOException {
+        LoxContext context = engine.newContext();
+        restore(context);
+        List<Diagnostic> errors;
+        Path file = path.equals("-") ? null : Paths.get(path);
+        try (Reader source = file == null ? new InputStreamReader(System.in, Charset.defaultCharset())
+                : Files.newBufferedReader(file, Charset.defaultCharset())) {
+            errors = context.stream(source, file);
+        }
+        report(errors);
+        reportStats();
+        if (errors.isEmpty())
+            snapshot(context);
+
+        if (!errors.isEmpty())
+            System.exit(exitCode(errors));
+    }
+
+    private static void runBatch(List<String> targets) throws IOException {
+        int code;
+        try {
+            code = new Batch(engine, check, jobs).run(targets, System.out, System.err);
+        } catch (InterruptedException e) {
+            code = ExitCode.INTERNAL_ERR.exitCode;
+        }
+        reportStats();
+        System.exit(code);
+    }
+
+    // What running a file that reported these errors exits with
+    static int exitCode(List<Diagnostic> errors) {
+        if (errors.isEmpty())
+            return 0;
+        if (errors.get(0).kind == Diagnostic.Kind.SYNTAX)
+            return ExitCode.INCORRECT_CODE_ERR.exitCode;
+        return ExitCode.INTERNAL_ERR.exitCode;
     }
 
     private static void runPrompt() throws IOException {
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
+        // One context for the whole session, so definitions carry over
+        LoxContext context = engine.newContext();
+        restore(context);
 
         while (true) {
             System.out.print("=> ");
             String line = reader.readLine();
             if (line == null)
                 break; // readLine receives null on encountering EOF(Ctrl + D)
-            run(line);
-            hasError = false;
+            report(run(context, line, null));
         }
+        reportProfile(null);
+        reportStats();
+        snapshot(context);
     }
 
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-
-        if (hasError)
-            return;
-
-        Parser parser = new Parser(tokens);
-        List<Stmt> statments = parser.parse();
+    // Runs the source of `file`, or of the prompt if that is null
+    private static List<Diagnostic> run(LoxContext context, String source, Path file) {
+        PreparedScript script = engine.prepare(source, file);
+        for (String line : script.loopReport()) {
+            System.err.println(line);
+        }
+        return profiler == null ? context.execute(script) : context.profile(script, profiler);
+    }
 
-        if (hasError)
+    private static void restore(LoxContext context) throws IOException {
+        if (restore == null)
             return;
+        try (InputStream in = Files.newInputStream(restore)) {
+            context.restore(in);
+        } catch (IOException e) {
+            System.err.println("Can't restore " + restore + ": " + e.getMessage());
+            System.exit(ExitCode.IO_ERR.exitCode);
+        }
+    }
 
-        Interpreter interpreter = new Interpreter();
-        interpreter.interprete(statments);
-
-        if (hasError)
+    private static void snapshot(LoxContext context) throws IOException {
+        if (snapshot == null)
             return;
+        try (OutputStream out = Files.newOutputStream(snapshot)) {
+            int globals = context.snapshot(out);
+            System.err.println(globals + " globals written to " + snapshot);
+        } catch (IllegalArgumentException e) {
+            Files.deleteIfExists(snapshot);
+            System.err.println(e.getMessage());
+            System.exit(ExitCode.INTERNAL_ERR.exitCode);
+        }
     }
 
-    public static void error(Token token, String message) {
-        hasError = true;
-        if (token.type == TokenType.EOF)
-            report(token.line, "at end", message);
-        else
-            report(token.line, "at '" + token.lexeme + "' ", message);
+    private static void report(List<Diagnostic> errors) {
+        for (Diagnostic error : errors) {
+            System.err.println(error);
+        }
     }
 
-    public static void runtimeError(Token token, String message) {
-        hasRuntimeError = true;
-        if (token.type == TokenType.EOF)
-            report(token.line, "at end", message);
-        else
-            report(token.line, "at '" + token.lexeme + "' ", message);
+    private static void reportProfile(String source) throws IOException {
+        if (profiler == null)
+            return;
+        profiler.report(System.err, source);
+        profiler.writeFolded(profile);
+        System.err.println("Stacks written to " + profile);
     }
 
-    private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error " + where + ": " + message);
+    private static void reportStats() {
+        if (stats)
+            Stats.report(System.err);
     }
 
-    private static boolean hasError = false;
-    private static boolean hasRuntimeError = false;
+    private static LoxEngine engine = new LoxEngine();
+    private static boolean autoParallel = false;
+    // Set with --profile, null otherwise
+    private static Profiler profiler = null;
+    private static Path profile = null;
+    private static boolean stats = false;
+    // Set with --server, null otherwise
+    private static Path server = null;
+    private static Duration idle = LoxServer.DEFAULT_IDLE;
+    // Set with --snapshot and --restore, null otherwise
+    private static Path snapshot = null;
+    private static Path restore = null;
+    // Set with --stream
+    private static boolean stream = false;
+    // Set with --batch, --check and --jobs
+    private static boolean batch = false;
+    private static boolean check = false;
+    private static int jobs = Runtime.getRuntime().availableProcessors();
 }
@@ -0,0 +1,97 @@
+package com.interpreters.lox;
+
+import java.util.Arrays;
+
+/*
+ * The runtime value of an array. As long as every element is
+ * a number they are kept unboxed in a double[], which is both
+ * far smaller than an array of Double objects and lets numeric
+ * code read elements without boxing them. The first time a
+ * non-number is stored the elements are boxed once into an
+ * Object[], which is used from then on.
+ *
+ * Both grow by doubling, so pushing n elements costs O(n).
+ */
+final class LoxArray {
+    LoxArray(int capacity) {
+        numbers = new double[Math.max(capacity, MIN_CAPACITY)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isNumeric() {
+        return objects == null;
+    }
+
+    // Only valid while the array is numeric
+    double getNumber(int index) {
+        return numbers[index];
+    }
+
+    Object get(int index) {
+        if (objects == null)
+            return numbers[index];
+        return objects[index];
+    }
+
+    void set(int index, Object value) {
+        if (objects == null) {
+            if (value instanceof Double) {
+                numbers[index] = (double) value;
+                return;
+            }
+            box();
+        }
+        objects[index] = value;
+    }
+
+    void add(Object value) {
+        if (objects == null) {
+            if (value instanceof Double) {
+                if (size == numbers.length)
+                    numbers = Arrays.copyOf(numbers, size * 2);
+                numbers[size++] = (double) value;
+                return;
+            }
+            box();
+        }
+        if (size == objects.length)
+            objects = Arrays.copyOf(objects, size * 2);
+        objects[size++] = value;
+    }
+
+    // Moves the elements over to boxed storage for good
+    private void box() {
+        objects = new Object[numbers.length];
+        for (int i = 0; i < size; i++) {
+            objects[i] = numbers[i];
+        }
+        numbers = null;
+    }
+
+    // An array holding itself shows up as [...] inside itself
+    @Override
+    public String toString() {
+        if (!Interpreter.enter(this))
+            return "[...]";
+        try {
+            StringBuilder builder = new StringBuilder("[");
+            for (int i = 0; i < size; i++) {
+                if (i > 0)
+                    builder.append(", ");
+                builder.append(Interpreter.stringify(get(i)));
+            }
+            return builder.append("]").toString();
+        } finally {
+            Interpreter.leave(this);
+        }
+    }
+
+    private static final int MIN_CAPACITY = 8;
+
+    private double[] numbers;
+    private Object[] objects = null;
+    private int size = 0;
+}
@@ -0,0 +1,14 @@
+package com.interpreters.lox;
+
+import java.util.List;
+
+/*
+ * Anything that can be called from Lox code with the
+ * `callee(arguments)` syntax. The number of arguments
+ * is checked against the arity before the call is made.
+ */
+interface LoxCallable {
+    int arity();
+
+    Object call(Interpreter interpreter, List<Object> arguments);
+}
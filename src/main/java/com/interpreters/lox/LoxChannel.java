@@ -0,0 +1,47 @@
+package com.interpreters.lox;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+
+/*
+ * A bounded queue for tasks to hand values to each other.
+ * Sending to a full channel waits for room and receiving from
+ * an empty one waits for a value. A channel of capacity 0 has
+ * no room at all, every send waits for a receive to take it.
+ *
+ * Java's queues can't hold null, so nil travels as NIL.
+ */
+final class LoxChannel {
+    LoxChannel(int capacity) {
+        this.queue = capacity == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(capacity);
+    }
+
+    void send(Object value) {
+        try {
+            queue.put(value == null ? NIL : value);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LoxError.RuntimeError(null, "Interrupted while sending on a channel.");
+        }
+    }
+
+    Object receive() {
+        try {
+            Object value = queue.take();
+            return value == NIL ? null : value;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LoxError.RuntimeError(null, "Interrupted while receiving from a channel.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+
+    private static final Object NIL = new Object();
+
+    private final BlockingQueue<Object> queue;
+}
@@ -0,0 +1,86 @@
+package com.interpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The runtime value of a class declaration. Calling a class
+ * creates a new instance and runs its `init` method on it,
+ * if it has one.
+ */
+class LoxClass implements LoxCallable {
+    LoxClass(String name, LoxClass superclass) {
+        this.name = name;
+        this.superclass = superclass;
+    }
+
+    void addMethod(LoxFunction method) {
+        index.put(method.declaration.name.lexeme, methods.size());
+        methods.add(method);
+    }
+
+    LoxFunction findMethod(String name) {
+        int location = locate(name);
+        if (location < 0)
+            return null;
+        return methodAt(location);
+    }
+
+    /*
+     * Where the method is found, counting how many superclasses
+     * up it is declared and which of that class' methods it is.
+     * As the hierarchy of a class never changes the location is
+     * the same for all its instances, which lets inline caches
+     * hold on to it rather than to the method itself.
+     */
+    int locate(String name) {
+        int depth = 0;
+        for (LoxClass klass = this; klass != null; klass = klass.superclass) {
+            Integer position = klass.index.get(name);
+            if (position != null)
+                return depth << 16 | position;
+            ++depth;
+        }
+        return -1;
+    }
+
+    LoxFunction methodAt(int location) {
+        LoxClass klass = this;
+        for (int depth = location >>> 16; depth > 0; --depth) {
+            klass = klass.superclass;
+        }
+        return klass.methods.get(location & 0xFFFF);
+    }
+
+    @Override
+    public int arity() {
+        LoxFunction initializer = findMethod("init");
+        if (initializer == null)
+            return 0;
+        return initializer.arity();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        LoxInstance instance = new LoxInstance(this);
+        LoxFunction initializer = findMethod("init");
+        if (initializer != null) {
+            initializer.bind(instance).call(interpreter, arguments);
+        }
+        return instance;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    final String name;
+    final LoxClass superclass;
+    // Root shape every new instance of the class starts with
+    final Shape shape = new Shape();
+    private final List<LoxFunction> methods = new ArrayList<>();
+    private final Map<String, Integer> index = new HashMap<>();
+}
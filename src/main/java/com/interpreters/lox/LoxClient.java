@@ -0,0 +1,89 @@
+package com.interpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+
+/*
+ * Runs a script on a server started with `Lox --server=SOCKET`,
+ * printing what it prints and exiting with its exit code, just
+ * as if it had been run with `Lox file`. A script given as `-`
+ * is read from standard input and sent along as source, any
+ * other is sent as an absolute path for the server to read.
+ *
+ * It only loads this class and the JDK's socket classes, none
+ * of the interpreter, so the JVM it runs in starts up about as
+ * fast as any can.
+ */
+public class LoxClient {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: LoxClient socket (file | -) [--auto-parallel]");
+            System.exit(ExitCode.INCORRECT_CMD_USAGE.exitCode);
+        }
+
+        SocketChannel server;
+        try {
+            server = SocketChannel.open(UnixDomainSocketAddress.of(args[0]));
+        } catch (IOException e) {
+            System.err.println("No server is listening on " + args[0] + ", start one with Lox --server=" + args[0]);
+            System.exit(ExitCode.IO_ERR.exitCode);
+            return;
+        }
+
+        try (SocketChannel channel = server) {
+            DataOutputStream request = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)));
+            if (args[1].equals("-")) {
+                byte[] source = System.in.readAllBytes();
+                request.writeByte(LoxServer.SOURCE);
+                request.writeUTF(Paths.get("").toAbsolutePath().toString());
+                request.writeInt(source.length);
+                request.write(source);
+            } else {
+                request.writeByte(LoxServer.FILE);
+                request.writeUTF(Paths.get(args[1]).toAbsolutePath().toString());
+            }
+            request.writeInt(args.length - 2);
+            for (int i = 2; i < args.length; i++) {
+                request.writeUTF(args[i]);
+            }
+            request.flush();
+
+            System.exit(relay(new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)))));
+        }
+    }
+
+    // Prints the frames of the response as they come, returning the exit code
+    private static int relay(DataInputStream response) throws IOException {
+        byte[] buffer = new byte[8192];
+        try {
+            while (true) {
+                byte kind = response.readByte();
+                int length = response.readInt();
+                if (kind == LoxServer.EXIT) {
+                    System.out.flush();
+                    System.err.flush();
+                    return length;
+                }
+                PrintStream stream = kind == LoxServer.STDOUT ? System.out : System.err;
+                if (buffer.length < length)
+                    buffer = new byte[length];
+                response.readFully(buffer, 0, length);
+                stream.write(buffer, 0, length);
+                stream.flush();
+            }
+        } catch (EOFException e) {
+            System.err.println("The server closed the connection before the script was done.");
+            return ExitCode.INTERNAL_ERR.exitCode;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.interpreters.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.List;
+
+/*
+ * A place to run Lox code in: a global environment with the
+ * builtins defined in it, and a stream that print writes to.
+ * Globals defined by one call to eval() are still there for
+ * the next, which is how the REPL keeps what was typed before.
+ *
+ * Nothing in a context is shared with other contexts, so
+ * contexts on different threads never interfere with each
+ * other. A single context however is not meant to be used
+ * by more than one thread at a time.
+ */
+public final class LoxContext {
+    LoxContext(PrintStream out, boolean autoParallel) {
+        this.interpreter = new Interpreter(out);
+        this.autoParallel = autoParallel;
+    }
+
+    /*
+     * Runs the source and returns the errors it reported, empty
+     * if there were none. Either all errors are syntax errors and
+     * none of the code ran, or there is a single runtime error
+     * that stopped it.
+     */
+    public List<Diagnostic> eval(String source) {
+        return execute(new PreparedScript(source, autoParallel));
+    }
+
+    // Runs the source within the budget, returning errors just like eval()
+    public List<Diagnostic> eval(String source, Budget budget) {
+        return execute(new PreparedScript(source, autoParallel), budget);
+    }
+
+    // Runs a prepared script, returning errors just like eval()
+    public List<Diagnostic> execute(PreparedScript script) {
+        return execute(script, Budget.UNLIMITED);
+    }
+
+    /*
+     * Runs a prepared script within the budget. Going over it is
+     * a runtime error like any other, the context stays usable.
+     */
+    public List<Diagnostic> execute(PreparedScript script, Budget budget) {
+        if (!script.errors().isEmpty())
+            return script.errors();
+        return run(script, budget == Budget.UNLIMITED ? null : budget.start());
+    }
+
+    /*
+     * Runs a prepared script like execute() does, with the
+     * profiler sampling it the whole time, see Profiler.
+     */
+    List<Diagnostic> profile(PreparedScript script, Profiler profiler) {
+        if (!script.errors().isEmpty())
+            return script.errors();
+        interpreter.profiling = true;
+        profiler.start(interpreter);
+        try {
+            return run(script, null);
+        } finally {
+            profiler.stop();
+            interpreter.profiling = false;
+        }
+    }
+
+    /*
+     * Runs the source a top level statement at a time, each as
+     * soon as it has been read, see StatementStream. Returns the
+     * runtime error that stopped it or the syntax errors it ran
+     * into, which the statements before them have run ahead of.
+     */
+    List<Diagnostic> stream(Reader source, Path file) throws IOException {
+        Events.Execute event = new Events.Execute();
+        event.begin();
+        StatementStream statements = new StatementStream(source, file);
+        interpreter.modules = statements.modules;
+        try {
+            for (Stmt statement = statements.take(); statement != null; statement = statements.take()) {
+                event.statements++;
+                Diagnostic error = interpreter.interprete(List.of(statement), null);
+                if (error != null) {
+                    event.failed = true;
+                    return List.of(error);
+                }
+            }
+            event.failed = !statements.errors().isEmpty();
+            return statements.errors();
+        } finally {
+            statements.close();
+            event.commit();
+        }
+    }
+
+    private List<Diagnostic> run(PreparedScript script, Meter meter) {
+        Events.Execute event = new Events.Execute();
+        event.begin();
+        interpreter.modules = script.modules;
+        Diagnostic error = interpreter.interprete(script.statements, meter);
+        event.statements = script.statements.size();
+        event.failed = error != null;
+        event.commit();
+        return error == null ? List.of() : List.of(error);
+    }
+
+    // The value of a global, or null if it isn't defined
+    public Object get(String name) {
+        return interpreter.globals.lookup(name);
+    }
+
+    /*
+     * Defines a global for the code run in this context, or
+     * replaces it. Java numbers of any type become Lox numbers,
+     * strings and booleans are taken as they are.
+     */
+    public void set(String name, Object value) {
+        if (value instanceof Number) {
+            value = ((Number) value).doubleValue();
+        } else if (value != null && !(value instanceof String) && !(value instanceof Boolean)) {
+            throw new IllegalArgumentException("Can't pass a " + value.getClass().getName() + " to Lox.");
+        }
+        interpreter.globals.define(name, value);
+    }
+
+    /*
+     * Writes the globals holding data to the stream, for another
+     * context to start with them, and returns how many there
+     * were. Globals holding functions and classes are left out,
+     * see Snapshot for what can be written.
+     */
+    public int snapshot(OutputStream out) throws IOException {
+        return Snapshot.save(interpreter.globals, out);
+    }
+
+    // Defines the globals of a snapshot, returning how many there were
+    public int restore(InputStream in) throws IOException {
+        return Snapshot.restore(interpreter.globals, in);
+    }
+
+    private final Interpreter interpreter;
+    // Whether code passed to eval() is prepared with automatic parallelization
+    private final boolean autoParallel;
+}
@@ -0,0 +1,78 @@
+package com.interpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/*
+ * The entry point for running Lox from other Java code. The
+ * engine holds nothing but its settings, everything a run can change,
+ * from its globals to the errors it reports and where its
+ * output goes, lives in the LoxContext it runs in. So one
+ * engine can be shared by any number of threads, each of
+ * them running scripts in contexts of their own.
+ */
+public final class LoxEngine {
+    public LoxEngine() {
+        this(false);
+    }
+
+    private LoxEngine(boolean autoParallel) {
+        this.autoParallel = autoParallel;
+    }
+
+    /*
+     * An engine that prepares scripts with automatic parallelization
+     * on or off. With it on, for loops whose iterations are found
+     * to be independent run in parallel, with exactly the results
+     * they would have had otherwise, see LoopAnalyzer.
+     */
+    public LoxEngine autoParallel(boolean enabled) {
+        return new LoxEngine(enabled);
+    }
+
+    // A context that prints to standard output
+    public LoxContext newContext() {
+        return newContext(System.out);
+    }
+
+    public LoxContext newContext(PrintStream out) {
+        return new LoxContext(out, autoParallel);
+    }
+
+    // A context with the bindings already set as globals
+    public LoxContext newContext(PrintStream out, Map<String, ?> bindings) {
+        LoxContext context = new LoxContext(out, autoParallel);
+        for (Map.Entry<String, ?> binding : bindings.entrySet()) {
+            context.set(binding.getKey(), binding.getValue());
+        }
+        return context;
+    }
+
+    /*
+     * Scans, parses and resolves the source once, so that it can
+     * be run in as many contexts as needed without doing that
+     * again each time.
+     */
+    public PreparedScript prepare(String source) {
+        return new PreparedScript(source, autoParallel);
+    }
+
+    /*
+     * Prepares the script in the file, along with every module
+     * it imports, which are relative to the file's directory.
+     */
+    public PreparedScript prepare(Path file) throws IOException {
+        return prepare(new String(Files.readAllBytes(file), Charset.defaultCharset()), file);
+    }
+
+    // The source of the file, already read
+    PreparedScript prepare(String source, Path file) {
+        return new PreparedScript(source, file, autoParallel);
+    }
+
+    private final boolean autoParallel;
+}
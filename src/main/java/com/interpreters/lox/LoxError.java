@@ -1,29 +1,46 @@
 package com.interpreters.lox;
 
+/*
+ * Lox errors are only ever reported through their token and
+ * message, the Java stack trace behind them is never looked
+ * at. Filling it in means walking the whole visitor recursion
+ * up to the point of the error, which for deeply nested code
+ * costs far more than everything else involved in the throw,
+ * so all Lox errors are created without one.
+ */
 public abstract class LoxError extends Error {
+    LoxError(Token token, String message) {
+        super(message, null, false, false);
+        this.token = token;
+        this.message = message;
+    }
+
     public static class ScannerError extends LoxError {
         ScannerError(Token token, String message) {
-            this.token = token;
-            this.message = message;
+            super(token, message);
         }
     }
 
     public static class ParserError extends LoxError {
         ParserError(Token token, String message) {
-            this.token = token;
-            this.message = message;
+            super(token, message);
         }
     }
 
     public static class RuntimeError extends LoxError {
         RuntimeError(Token token, String message) {
-            this.token = token;
-            this.message = message;
+            super(token, message);
+            if (Stats.ENABLED)
+                Stats.RUNTIME_ERRORS.increment();
         }
     }
 
-    public static void panic(LoxError err) {
-        Lox.error(err.token, err.message);
+    // The error as a plain value, once it is done unwinding
+    Diagnostic toDiagnostic() {
+        Diagnostic.Kind kind = this instanceof RuntimeError
+                ? Diagnostic.Kind.RUNTIME
+                : Diagnostic.Kind.SYNTAX;
+        return new Diagnostic(kind, token, message);
     }
 
     public Token token;
@@ -0,0 +1,56 @@
+package com.interpreters.lox;
+
+import java.util.List;
+
+/*
+ * The runtime value of a function declaration. Besides the
+ * declaration itself it holds on to the environment the
+ * declaration was executed in, so that the body can keep
+ * using the variables around it even after that scope has
+ * been left (a closure).
+ *
+ * Methods also know the class they were declared in, and
+ * once bound to an instance they carry it as the receiver
+ * which the call makes available as `this`.
+ */
+class LoxFunction implements LoxCallable {
+    LoxFunction(Stmt.Function declaration, Environment closure) {
+        this(declaration, closure, null, null);
+    }
+
+    LoxFunction(Stmt.Function declaration, Environment closure, LoxClass holder, LoxInstance receiver) {
+        this.declaration = declaration;
+        this.closure = closure;
+        this.holder = holder;
+        this.receiver = receiver;
+        this.initializer = holder != null && declaration.name.lexeme.equals("init");
+    }
+
+    LoxFunction bind(LoxInstance instance) {
+        return new LoxFunction(declaration, closure, holder, instance);
+    }
+
+    @Override
+    public int arity() {
+        return declaration.params.size();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return interpreter.invoke(this, arguments);
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + declaration.name.lexeme + ">";
+    }
+
+    final Stmt.Function declaration;
+    final Environment closure;
+    // The class a method is declared in, null for functions
+    final LoxClass holder;
+    // The instance `this` refers to in a bound method
+    final LoxInstance receiver;
+    // Initializers always return the receiver
+    final boolean initializer;
+}
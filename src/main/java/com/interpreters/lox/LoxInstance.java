@@ -0,0 +1,33 @@
+package com.interpreters.lox;
+
+import java.util.Arrays;
+
+/*
+ * An instance is its shape plus an array with the value of
+ * each field, in the slots the shape assigns them.
+ */
+final class LoxInstance {
+    LoxInstance(LoxClass klass) {
+        this.klass = klass;
+        this.shape = klass.shape;
+    }
+
+    // Moves to a shape with one more field, making room for it
+    void grow(Shape next) {
+        shape = next;
+        if (fields.length < next.size()) {
+            fields = Arrays.copyOf(fields, Math.max(next.size(), fields.length * 2));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return klass.name + " instance";
+    }
+
+    final LoxClass klass;
+    Shape shape;
+    Object[] fields = new Object[INITIAL_FIELDS];
+
+    private static final int INITIAL_FIELDS = 4;
+}
@@ -0,0 +1,286 @@
+package com.interpreters.lox;
+
+import java.util.function.BiConsumer;
+
+/*
+ * The runtime value of a map literal, a mutable hash map that
+ * remembers the order its keys were added in.
+ *
+ * Entries are appended to an array of keys and values, side by
+ * side so that finding one also brings in the other. An open
+ * addressing table of longs holds, for each hash, the hash in
+ * the upper half and the position of its entry (plus one, so
+ * that 0 means empty) in the lower one. Collisions probe the
+ * next slot over. As the hashes are in the table most probes
+ * never look at a key that doesn't match, and keeping the
+ * entries out of the table keeps it small enough to probe
+ * quickly and makes iterating in insertion order free.
+ *
+ * Number keys aren't kept as Double objects: their entry holds
+ * the NUMBER marker as key and the number itself in a double[]
+ * alongside, and lookups by number compare the raw doubles.
+ * String keys are compared by reference before their contents.
+ * Either way keys match exactly when Interpreter.isEqual says
+ * they are equal, so -0 and 0 are different keys while all NaNs
+ * are the same one.
+ *
+ * Removing a key leaves its entry marked DELETED and its table
+ * slot marked as a tombstone, both of which are dropped the
+ * next time the arrays are rebuilt.
+ */
+final class LoxMap {
+    LoxMap() {
+        table = new long[MIN_TABLE];
+        allocate(usable(MIN_TABLE));
+    }
+
+    int size() {
+        return size;
+    }
+
+    // The value of the key, or `notFound` if there is none
+    Object get(Object key, Object notFound) {
+        int slot = find(key);
+        return slot < 0 ? notFound : entries[2 * entry(slot) + 1];
+    }
+
+    Object get(double key, Object notFound) {
+        int slot = findNumber(key, hashNumber(key));
+        return slot < 0 ? notFound : entries[2 * entry(slot) + 1];
+    }
+
+    void put(Object key, Object value) {
+        if (key instanceof Double) {
+            put((double) key, value);
+            return;
+        }
+        int slot = find(key);
+        if (slot >= 0) {
+            entries[2 * entry(slot) + 1] = value;
+            return;
+        }
+        key = key == null ? NIL : key;
+        add(hash(key), key, 0, value);
+    }
+
+    void put(double key, Object value) {
+        int hash = hashNumber(key);
+        int slot = findNumber(key, hash);
+        if (slot >= 0) {
+            entries[2 * entry(slot) + 1] = value;
+            return;
+        }
+        add(hash, NUMBER, key, value);
+    }
+
+    // Returns whether the key was there to remove
+    boolean remove(Object key) {
+        int slot = find(key);
+        if (slot < 0)
+            return false;
+
+        int entry = entry(slot);
+        table[slot] = TOMBSTONE;
+        entries[2 * entry] = DELETED;
+        entries[2 * entry + 1] = null;
+        --size;
+        return true;
+    }
+
+    void forEach(BiConsumer<Object, Object> action) {
+        for (int entry = 0; entry < used; entry++) {
+            if (entries[2 * entry] != DELETED)
+                action.accept(keyAt(entry), entries[2 * entry + 1]);
+        }
+    }
+
+    // Table slot of the key, -1 if it isn't in the map
+    private int find(Object key) {
+        if (key instanceof Double) {
+            double number = (double) key;
+            return findNumber(number, hashNumber(number));
+        }
+        if (key instanceof String)
+            return findString((String) key);
+        key = key == null ? NIL : key;
+
+        int hash = hash(key);
+        int mask = table.length - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            long stored = table[slot];
+            if (stored == 0)
+                return -1;
+            if ((int) (stored >>> 32) == hash && (int) stored > 0) {
+                Object other = entries[2 * ((int) stored - 1)];
+                if (other != NUMBER && Interpreter.isEqual(key, other))
+                    return slot;
+            }
+        }
+    }
+
+    private int findString(String key) {
+        int hash = mix(key.hashCode());
+        int mask = table.length - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            long stored = table[slot];
+            if (stored == 0)
+                return -1;
+            if ((int) (stored >>> 32) == hash && (int) stored > 0) {
+                Object other = entries[2 * ((int) stored - 1)];
+                if (other == key || (other instanceof String && key.equals(other)))
+                    return slot;
+            }
+        }
+    }
+
+    private int findNumber(double key, int hash) {
+        long bits = Double.doubleToLongBits(key);
+        int mask = table.length - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            long stored = table[slot];
+            if (stored == 0)
+                return -1;
+            if ((int) (stored >>> 32) == hash && (int) stored > 0) {
+                int entry = (int) stored - 1;
+                if (entries[2 * entry] == NUMBER && Double.doubleToLongBits(numbers[entry]) == bits)
+                    return slot;
+            }
+        }
+    }
+
+    private void add(int hash, Object key, double number, Object value) {
+        if (used == numbers.length)
+            rebuild();
+
+        int entry = used++;
+        entries[2 * entry] = key;
+        entries[2 * entry + 1] = value;
+        numbers[entry] = number;
+        ++size;
+        insert(hash, entry);
+    }
+
+    // The key isn't in the map, so the first free slot will do
+    private void insert(int hash, int entry) {
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != 0 && table[slot] != TOMBSTONE) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = (long) hash << 32 | (entry + 1);
+    }
+
+    /*
+     * Drops deleted entries and, if the map is still more than
+     * half full after that, doubles it. The table is sized so
+     * that it's at most 2/3 full, which keeps probe sequences
+     * short, and is rebuilt from scratch which clears out the
+     * tombstones. Hashes aren't kept with the entries, so they
+     * are computed again, which for strings is just a field read.
+     */
+    private void rebuild() {
+        Object[] oldEntries = entries;
+        double[] oldNumbers = numbers;
+        int oldUsed = used;
+
+        int tableSize = table.length;
+        if (size >= usable(tableSize) / 2)
+            tableSize *= 2;
+        table = new long[tableSize];
+        allocate(usable(tableSize));
+
+        int entry = 0;
+        for (int old = 0; old < oldUsed; old++) {
+            Object key = oldEntries[2 * old];
+            if (key == DELETED)
+                continue;
+            entries[2 * entry] = key;
+            entries[2 * entry + 1] = oldEntries[2 * old + 1];
+            numbers[entry] = oldNumbers[old];
+            insert(key == NUMBER ? hashNumber(oldNumbers[old]) : hash(key), entry);
+            ++entry;
+        }
+        used = entry;
+    }
+
+    private void allocate(int capacity) {
+        entries = new Object[2 * capacity];
+        numbers = new double[capacity];
+    }
+
+    private int entry(int slot) {
+        return (int) table[slot] - 1;
+    }
+
+    private Object keyAt(int entry) {
+        Object key = entries[2 * entry];
+        if (key == NUMBER)
+            return numbers[entry];
+        return key == NIL ? null : key;
+    }
+
+    private static int usable(int tableSize) {
+        return tableSize * 2 / 3;
+    }
+
+    private static int hash(Object key) {
+        return mix(key.hashCode());
+    }
+
+    // The same hash Double.hashCode() gives, without the Double
+    private static int hashNumber(double key) {
+        return mix(Double.hashCode(key));
+    }
+
+    /*
+     * Whole numbers hash to values that only differ in their
+     * high bits, while the table is indexed by the low ones,
+     * so the bits are mixed (the finalizer of MurmurHash3).
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    // A map holding itself shows up as {...} inside itself
+    @Override
+    public String toString() {
+        if (!Interpreter.enter(this))
+            return "{...}";
+        try {
+            StringBuilder builder = new StringBuilder("{");
+            forEach((key, value) -> {
+                if (builder.length() > 1)
+                    builder.append(", ");
+                builder.append(Interpreter.stringify(key)).append(": ").append(Interpreter.stringify(value));
+            });
+            return builder.append("}").toString();
+        } finally {
+            Interpreter.leave(this);
+        }
+    }
+
+    static final Object NOT_FOUND = new Object();
+
+    private static final int MIN_TABLE = 8;
+    // Table slot of a removed entry, probing has to go on past it
+    private static final long TOMBSTONE = 0xFFFFFFFFL;
+
+    // Markers in `keys`
+    private static final Object NUMBER = new Object();
+    private static final Object NIL = new Object();
+    private static final Object DELETED = new Object();
+
+    // Hash and position plus one of each entry, 0 for an empty slot
+    private long[] table;
+    // Key and value of each entry, one after the other
+    private Object[] entries;
+    private double[] numbers;
+    // Entries appended so far, including deleted ones
+    private int used = 0;
+    private int size = 0;
+}
@@ -0,0 +1,140 @@
+package com.interpreters.lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * A function implemented in Java rather than Lox. Natives
+ * don't know where they were called from, so the errors
+ * they raise carry no token and the interpreter fills in
+ * the call site before reporting them.
+ *
+ * Most natives take at most three arguments, so instead of
+ * the List every LoxCallable takes they are called through
+ * one of call0() to call3(), whichever matches their arity.
+ * The interpreter evaluates the arguments straight into that
+ * call and skips the List altogether. Natives are written as
+ * lambdas of the matching shape and wrapped by of().
+ */
+abstract class LoxNative implements LoxCallable {
+    private LoxNative(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    interface Nullary {
+        Object call();
+    }
+
+    interface Unary {
+        Object call(Object a);
+    }
+
+    interface Binary {
+        Object call(Object a, Object b);
+    }
+
+    interface Ternary {
+        Object call(Object a, Object b, Object c);
+    }
+
+    static LoxNative of(String name, Nullary body) {
+        return new LoxNative(name, 0) {
+            @Override
+            Object call0() {
+                return body.call();
+            }
+        };
+    }
+
+    static LoxNative of(String name, Unary body) {
+        return new LoxNative(name, 1) {
+            @Override
+            Object call1(Object a) {
+                return body.call(a);
+            }
+        };
+    }
+
+    static LoxNative of(String name, Binary body) {
+        return new LoxNative(name, 2) {
+            @Override
+            Object call2(Object a, Object b) {
+                return body.call(a, b);
+            }
+        };
+    }
+
+    static LoxNative of(String name, Ternary body) {
+        return new LoxNative(name, 3) {
+            @Override
+            Object call3(Object a, Object b, Object c) {
+                return body.call(a, b, c);
+            }
+        };
+    }
+
+    /*
+     * Only the one matching the arity is overridden. The others
+     * go the long way round, through call(), which turns being
+     * called with the wrong number of arguments into the same
+     * error a Lox function gives.
+     */
+    Object call0() {
+        return call(null, List.of());
+    }
+
+    Object call1(Object a) {
+        return call(null, Arrays.asList(a));
+    }
+
+    Object call2(Object a, Object b) {
+        return call(null, Arrays.asList(a, b));
+    }
+
+    Object call3(Object a, Object b, Object c) {
+        return call(null, Arrays.asList(a, b, c));
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        if (arguments.size() != arity)
+            throw new LoxError.RuntimeError(null,
+                    "Expected " + arity + " arguments but got " + arguments.size() + ".");
+        switch (arity) {
+            case 0:
+                return call0();
+            case 1:
+                return call1(arguments.get(0));
+            case 2:
+                return call2(arguments.get(0), arguments.get(1));
+            default:
+                return call3(arguments.get(0), arguments.get(1), arguments.get(2));
+        }
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn " + name + ">";
+    }
+
+    /*
+     * Marks the native as pure: it changes nothing, reads nothing
+     * that can change while it runs and gives back the same for
+     * the same arguments, so calls to it can run in any order and
+     * on any thread. Only set while the builtins are registered.
+     */
+    LoxNative pure() {
+        this.pure = true;
+        return this;
+    }
+
+    final String name;
+    private final int arity;
+    boolean pure = false;
+}
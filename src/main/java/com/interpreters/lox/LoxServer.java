@@ -0,0 +1,256 @@
+package com.interpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Runs scripts for LoxClient in a JVM that stays up, so a run
+ * pays for neither starting a JVM nor a cold JIT, only for
+ * scanning, parsing and running the script. For thousands of
+ * short scripts that is most of the time they would take.
+ *
+ * The server listens on a Unix domain socket. Every connection
+ * carries one request: a script, either a path or its source,
+ * and the options to run it with. What the script prints comes
+ * back as it goes, stdout and stderr each in frames of their
+ * own, followed by the exit code `Lox file` would have exited
+ * with. Each request runs on a virtual thread in a context of
+ * its own, so requests running at the same time share nothing
+ * but the JVM.
+ *
+ * Once no request has been running for the idle time the
+ * server stops and removes its socket.
+ *
+ * A request is
+ *   byte   FILE or SOURCE
+ *   UTF    the absolute path, for FILE
+ *   UTF    the client's working directory, for SOURCE
+ *   int    length and bytes of the source, for SOURCE
+ *   int    number of options, then each as UTF
+ * and the response a sequence of frames, each
+ *   byte   STDOUT, STDERR or EXIT
+ *   int    length and bytes of the output, or the exit code
+ * the connection closing after EXIT.
+ */
+final class LoxServer {
+    LoxServer(Path socket, Duration idle) {
+        this.socket = socket;
+        this.idleNanos = idle.toNanos();
+    }
+
+    /*
+     * Serves requests until the server has been idle for long
+     * enough. A socket left behind by a server that is gone is
+     * replaced, one some server still listens on is an error.
+     */
+    void serve() throws IOException {
+        if (Files.exists(socket)) {
+            if (listening(socket))
+                throw new IOException("A server is already listening on " + socket + ".");
+            Files.delete(socket);
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            lastActive = System.nanoTime();
+            Thread.ofVirtual().start(() -> closeWhenIdle(server));
+            while (true) {
+                SocketChannel channel;
+                try {
+                    channel = server.accept();
+                } catch (AsynchronousCloseException e) {
+                    break;
+                }
+                active.incrementAndGet();
+                Thread.ofVirtual().start(() -> {
+                    try (channel) {
+                        handle(channel);
+                    } catch (IOException e) {
+                        // The client went away, there is no one left to tell
+                    } finally {
+                        lastActive = System.nanoTime();
+                        active.decrementAndGet();
+                    }
+                });
+            }
+        } finally {
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    private static boolean listening(Path socket) {
+        try (SocketChannel probe = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            return probe.isConnected();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void closeWhenIdle(ServerSocketChannel server) {
+        try {
+            while (true) {
+                long idle = System.nanoTime() - lastActive;
+                if (active.get() == 0 && idle >= idleNanos) {
+                    server.close();
+                    return;
+                }
+                Thread.sleep(Duration.ofNanos(Math.max(idleNanos - idle, MIN_CHECK)));
+            }
+        } catch (IOException | InterruptedException e) {
+            // Nothing to do but let the server run
+        }
+    }
+
+    private void handle(SocketChannel channel) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        DataOutputStream response = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel)));
+        PrintStream out = new PrintStream(new BufferedOutputStream(new Frames(response, STDOUT), BUFFER));
+        PrintStream err = new PrintStream(new BufferedOutputStream(new Frames(response, STDERR), BUFFER));
+
+        int code;
+        try {
+            code = run(in, out, err);
+        } catch (StackOverflowError e) {
+            err.println("Stack overflow.");
+            code = ExitCode.INTERNAL_ERR.exitCode;
+        }
+        out.flush();
+        err.flush();
+        synchronized (response) {
+            response.writeByte(EXIT);
+            response.writeInt(code);
+            response.flush();
+        }
+    }
+
+    // Reads a request and runs it like `Lox [options] file` would, returning the exit code
+    private int run(DataInputStream in, PrintStream out, PrintStream err) throws IOException {
+        byte kind = in.readByte();
+        String source = null;
+        Path file;
+        if (kind == FILE) {
+            file = Paths.get(in.readUTF());
+        } else {
+            // Imports are relative to the directory of the file, for source the client's directory
+            file = Paths.get(in.readUTF(), "-");
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            source = new String(bytes, Charset.defaultCharset());
+        }
+        List<String> options = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            options.add(in.readUTF());
+        }
+        // Only once the whole request is in, anything going wrong from here on is the script's
+        if (kind == FILE) {
+            try {
+                source = new String(Files.readAllBytes(file), Charset.defaultCharset());
+            } catch (NoSuchFileException e) {
+                err.println("No such file: " + e.getFile());
+                return ExitCode.IO_ERR.exitCode;
+            } catch (IOException e) {
+                err.println("Can't read " + file + ".");
+                return ExitCode.IO_ERR.exitCode;
+            }
+        }
+
+        LoxEngine engine = ENGINE;
+        for (String option : options) {
+            if (!option.equals("--auto-parallel")) {
+                err.println("Unknown option " + option + ", the server only takes --auto-parallel.");
+                return ExitCode.INCORRECT_CMD_USAGE.exitCode;
+            }
+            engine = engine.autoParallel(true);
+        }
+
+        PreparedScript script = engine.prepare(source, file);
+        for (String line : script.loopReport()) {
+            err.println(line);
+        }
+        List<Diagnostic> errors = engine.newContext(out).execute(script);
+        // What the script printed comes before its error, as it would on a terminal
+        out.flush();
+        for (Diagnostic error : errors) {
+            err.println(error);
+        }
+        return Lox.exitCode(errors);
+    }
+
+    /*
+     * One of the response's streams. Every write becomes a frame,
+     * and the buffer in front of it makes that one per few
+     * kilobytes. Both streams of a response write to the same
+     * connection, so frames are written whole.
+     */
+    private static final class Frames extends OutputStream {
+        Frames(DataOutputStream response, byte stream) {
+            this.response = response;
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            synchronized (response) {
+                response.writeByte(stream);
+                response.writeInt(length);
+                response.write(bytes, offset, length);
+                response.flush();
+            }
+        }
+
+        private final DataOutputStream response;
+        private final byte stream;
+    }
+
+    // Kinds of requests
+    static final byte FILE = 1;
+    static final byte SOURCE = 2;
+
+    // Kinds of response frames
+    static final byte STDOUT = 1;
+    static final byte STDERR = 2;
+    static final byte EXIT = 3;
+
+    // Stop after five minutes without requests unless told otherwise
+    static final Duration DEFAULT_IDLE = Duration.ofMinutes(5);
+
+    // Output is sent once this much of it has piled up, or the script is done
+    private static final int BUFFER = 8192;
+
+    // Don't wake up more often than this to look for idleness
+    private static final long MIN_CHECK = 10_000_000;
+
+    // Engines keep nothing but settings, so every request can share one
+    private static final LoxEngine ENGINE = new LoxEngine();
+
+    private final Path socket;
+    private final long idleNanos;
+    private final AtomicInteger active = new AtomicInteger();
+    private volatile long lastActive;
+}
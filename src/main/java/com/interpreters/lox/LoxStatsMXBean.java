@@ -0,0 +1,21 @@
+package com.interpreters.lox;
+
+/*
+ * The interpreter's counters over JMX, registered under the name
+ * com.interpreters.lox:type=Stats when they are on. They are the
+ * totals of every run in the JVM since it started, or since the
+ * last reset().
+ */
+public interface LoxStatsMXBean {
+    long getStatementsExecuted();
+
+    long getEnvironmentsCreated();
+
+    long getScopeChainHops();
+
+    long getNumbersBoxed();
+
+    long getRuntimeErrors();
+
+    void reset();
+}
@@ -0,0 +1,71 @@
+package com.interpreters.lox;
+
+import java.util.List;
+
+/*
+ * The runtime value of a `spawn` expression: the spawned block
+ * running on a virtual thread of its own. Blocking in a task,
+ * on a channel or on another task, only parks the virtual
+ * thread, so thousands of tasks waiting at once cost little
+ * more than their stacks.
+ *
+ * Every task runs in an interpreter of its own, so the state
+ * of a run (frames, pending returns and tail calls) is never
+ * shared. What is shared are the scopes the block closes over,
+ * which were made safe to share when they were created.
+ */
+final class LoxTask {
+    private LoxTask() {
+    }
+
+    static LoxTask start(Interpreter interpreter, LoxFunction body) {
+        LoxTask task = new LoxTask();
+        task.thread = Thread.ofVirtual().unstarted(() -> task.run(interpreter, body));
+        // Entered before it starts, so the run never looks over while the task is just starting
+        interpreter.enter(task.thread);
+        task.thread.start();
+        return task;
+    }
+
+    private void run(Interpreter interpreter, LoxFunction body) {
+        try {
+            result = interpreter.invoke(body, List.of());
+        } catch (LoxError.RuntimeError error) {
+            // The run's budget can run out outside of any call or loop
+            if (error.token == null)
+                error.token = body.declaration.name;
+            this.error = error.toDiagnostic();
+        } catch (StackOverflowError error) {
+            this.error = new Diagnostic(Diagnostic.Kind.RUNTIME, body.declaration.name, "Stack overflow.");
+        } finally {
+            interpreter.leave();
+        }
+    }
+
+    /*
+     * Waits for the task to finish and returns what its block
+     * returned. A task that failed fails the join as well, with
+     * the error it stopped on.
+     */
+    Object join() {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LoxError.RuntimeError(null, "Interrupted while waiting for a task.");
+        }
+        if (error != null)
+            throw new LoxError.RuntimeError(null, "Task failed at line " + error.line() + ": " + error.message);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "<task>";
+    }
+
+    private Thread thread;
+    // Only read after join(), which makes them visible
+    private Object result;
+    private Diagnostic error;
+}
@@ -0,0 +1,115 @@
+package com.interpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * What one run with a Budget has used so far, shared by every
+ * interpreter working for the run.
+ *
+ * Steps aren't added up here one by one. An interpreter is given
+ * a few at a time (its fuel), counts them down on its own and
+ * only comes back here once it runs out, so the hot path costs a
+ * single decrement of a field. That is also when the deadline
+ * is checked, every thousand or so steps, which takes no longer
+ * than a loop iteration or two however the script spends them.
+ * An interpreter without a budget simply gets as many steps as
+ * a long holds and never comes back.
+ *
+ * A thread waiting in a native (receive, send, join, sleep)
+ * takes no steps at all, so it would never find out about the
+ * deadline. With a time budget an alarm goes off at the deadline
+ * instead and interrupts every thread working for the run right
+ * then, which makes the native give up. The error it gives up
+ * with is then reported as the run being out of time. Threads
+ * that leave the run after the alarm have their interrupt
+ * cleared, the caller's thread included, so it doesn't carry
+ * over to whatever the thread does next.
+ */
+final class Meter {
+    Meter(Budget budget, long start) {
+        this.budget = budget;
+        this.deadline = budget.nanos == Long.MAX_VALUE ? Long.MAX_VALUE : start + budget.nanos;
+        this.alarm = deadline == Long.MAX_VALUE ? null
+                : ALARMS.schedule(this::expire, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /*
+     * Charges the steps an interpreter was given last time and
+     * gives it the next few, or raises an error if the run is
+     * over any of its limits.
+     */
+    long refuel(long used) {
+        long total = steps.addAndGet(used);
+        if (total >= budget.steps)
+            throw new LoxError.RuntimeError(null, "Ran out of its budget of " + budget.steps + " steps.");
+        if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0)
+            throw overtime();
+        return Math.min(INTERVAL, budget.steps - total);
+    }
+
+    // The error of a run that went past its deadline
+    LoxError.RuntimeError overtime() {
+        return new LoxError.RuntimeError(null, "Ran out of its budget of " + budget.nanos / 1000000 + " ms of time.");
+    }
+
+    // Whether the alarm went off, so a native that was cut short was cut short by it
+    boolean expired() {
+        return expired;
+    }
+
+    // The thread works for the run until it leaves it, a thread can enter more than once
+    synchronized void enter(Thread thread) {
+        threads.merge(thread, 1, Integer::sum);
+    }
+
+    synchronized void leave() {
+        Thread thread = Thread.currentThread();
+        if (threads.merge(thread, -1, Integer::sum) == 0)
+            threads.remove(thread);
+        if (expired)
+            Thread.interrupted();
+        // Nothing is left for the alarm to stop, let it go rather than hold on to the run
+        else if (threads.isEmpty() && alarm != null)
+            alarm.cancel(false);
+    }
+
+    private synchronized void expire() {
+        expired = true;
+        for (Thread thread : threads.keySet()) {
+            thread.interrupt();
+        }
+    }
+
+    void allocate(long size) {
+        if (bytes.addAndGet(size) > budget.bytes)
+            throw new LoxError.RuntimeError(null, "Ran out of its budget of " + budget.bytes + " bytes of memory.");
+    }
+
+    // Steps an interpreter takes between checks
+    private static final long INTERVAL = 1024;
+
+    // One daemon thread sets off the alarms of every run
+    private static final ScheduledThreadPoolExecutor ALARMS = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "lox-deadlines");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        ALARMS.setRemoveOnCancelPolicy(true);
+    }
+
+    private final Budget budget;
+    private final long deadline;
+    private final ScheduledFuture<?> alarm;
+    // Threads working for the run, with how many times each entered it
+    private final Map<Thread, Integer> threads = new HashMap<>();
+    private volatile boolean expired = false;
+    private final AtomicLong steps = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+}
@@ -0,0 +1,52 @@
+package com.interpreters.lox;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * A file some script imports, scanned, parsed and resolved. The
+ * ModuleLoader keeps modules around for as long as their file
+ * stays the same, so a module is only ever prepared once however
+ * many scripts import it. Like a PreparedScript it never changes
+ * after that and is shared by everything that runs it.
+ *
+ * Running a module is another matter. Every context runs it
+ * once, the first time it is imported there, in a global scope
+ * of its own: its globals are its own, not the importer's. What
+ * an import brings into the importer are the names declared at
+ * the top of the module, but not the ones it imported itself.
+ */
+final class Module {
+    Module(Path path, byte[] digest, List<Stmt> statements, List<Diagnostic> errors) {
+        this.path = path;
+        this.digest = digest;
+        this.statements = statements;
+        this.errors = errors;
+
+        List<Stmt.Import> imports = new ArrayList<>();
+        List<Token> exports = new ArrayList<>();
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Import)
+                imports.add((Stmt.Import) statement);
+            else if (statement instanceof Stmt.Var)
+                exports.add(((Stmt.Var) statement).name);
+            else if (statement instanceof Stmt.Function)
+                exports.add(((Stmt.Function) statement).name);
+            else if (statement instanceof Stmt.Class)
+                exports.add(((Stmt.Class) statement).name);
+        }
+        this.imports = Collections.unmodifiableList(imports);
+        this.exports = Collections.unmodifiableList(exports);
+    }
+
+    final Path path;
+    // Of the file's contents when it was read, to tell whether it has changed since
+    final byte[] digest;
+    final List<Stmt> statements;
+    // Errors found preparing it, the module is never run if there are any
+    final List<Diagnostic> errors;
+    final List<Stmt.Import> imports;
+    final List<Token> exports;
+}
@@ -0,0 +1,172 @@
+package com.interpreters.lox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/*
+ * Finds every module a program imports, directly or through
+ * other modules, and prepares them before any of the program
+ * runs. Imports can only be at the top level of a file, so
+ * what a module imports is known as soon as it is parsed and
+ * the whole graph can be loaded up front.
+ *
+ * The graph is loaded a level at a time: all the modules the
+ * last level imports that aren't loaded yet are read, scanned,
+ * parsed and resolved in parallel on the ForkJoin pool, then
+ * come the ones they import, and so on. Modules that import
+ * each other, directly or not, can't be run in any order, so
+ * a cycle is an error, reported at the import that closes it.
+ *
+ * Prepared modules are kept in a cache shared by every engine
+ * in the JVM, by path. A cached module is used as long as the
+ * digest of its file is the same as when it was prepared, so a
+ * module imported by many others, or by many runs, is only
+ * scanned and parsed once. Modification times would save
+ * reading the file, but they are too coarse to notice a file
+ * rewritten right after it was read, and reading it is cheap
+ * next to parsing it.
+ */
+final class ModuleLoader {
+    private ModuleLoader() {
+    }
+
+    /*
+     * Loads the modules the program imports, the program being
+     * the contents of `file`, or null for source that doesn't
+     * come from a file, whose imports are relative to the
+     * working directory. Errors in any of them are reported
+     * like the program's own.
+     */
+    static Map<Path, Module> load(List<Stmt> program, Path file, Diagnostics diagnostics) {
+        Path directory = file == null ? Paths.get("").toAbsolutePath() : file.toAbsolutePath().getParent();
+        List<Stmt.Import> roots = imports(program, directory);
+        if (roots.isEmpty())
+            return Map.of();
+
+        Map<Path, Module> modules = new HashMap<>();
+        List<Stmt.Import> pending = roots;
+        while (!pending.isEmpty()) {
+            // The first import of every module that isn't loaded yet
+            Map<Path, Stmt.Import> wanted = new LinkedHashMap<>();
+            for (Stmt.Import stmt : pending) {
+                if (!modules.containsKey(stmt.path))
+                    wanted.putIfAbsent(stmt.path, stmt);
+            }
+            Map<Path, Module> loaded = wanted.keySet().parallelStream()
+                    .collect(Collectors.toConcurrentMap(path -> path, ModuleLoader::module));
+
+            pending = new ArrayList<>();
+            for (Map.Entry<Path, Stmt.Import> entry : wanted.entrySet()) {
+                Module module = loaded.get(entry.getKey());
+                if (module == MISSING) {
+                    Token name = entry.getValue().file;
+                    diagnostics.report(new Diagnostic(Diagnostic.Kind.SYNTAX, name,
+                            "Can't read module '" + name.literal + "'."));
+                    continue;
+                }
+                modules.put(entry.getKey(), module);
+                for (Diagnostic error : module.errors) {
+                    diagnostics.report(error);
+                }
+                pending.addAll(module.imports);
+            }
+        }
+
+        if (!diagnostics.hasErrors()) {
+            Set<Path> done = new HashSet<>();
+            for (Stmt.Import stmt : roots) {
+                if (findCycle(stmt, modules, new ArrayList<>(), done, diagnostics))
+                    break;
+            }
+        }
+        return modules;
+    }
+
+    // The imports of a file's statements, each resolved against its directory
+    private static List<Stmt.Import> imports(List<Stmt> statements, Path directory) {
+        List<Stmt.Import> imports = new ArrayList<>();
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Import) {
+                Stmt.Import stmt = (Stmt.Import) statement;
+                stmt.path = directory.resolve((String) stmt.file.literal).normalize();
+                imports.add(stmt);
+            }
+        }
+        return imports;
+    }
+
+    // The module in the file, from the cache if the file hasn't changed, MISSING if it can't be read
+    private static Module module(Path path) {
+        try {
+            byte[] bytes = Files.readAllBytes(path);
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            Module cached = CACHE.get(path);
+            if (cached != null && Arrays.equals(cached.digest, digest))
+                return cached;
+
+            String source = new String(bytes, Charset.defaultCharset());
+            Diagnostics diagnostics = new Diagnostics();
+            List<Stmt> statements = PreparedScript.compile(source, path.toString(), diagnostics);
+            if (!diagnostics.hasErrors())
+                imports(statements, path.getParent());
+            Module module = new Module(path, digest, statements, diagnostics.list());
+            CACHE.put(path, module);
+            return module;
+        } catch (IOException e) {
+            return MISSING;
+        } catch (NoSuchAlgorithmException e) {
+            // Every JDK has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * Walks the imports depth first, `stack` holding the modules
+     * on the way to this one. Importing one of those again is a
+     * cycle, which is reported along with how it goes round.
+     */
+    private static boolean findCycle(Stmt.Import stmt, Map<Path, Module> modules, List<Path> stack, Set<Path> done,
+            Diagnostics diagnostics) {
+        int at = stack.indexOf(stmt.path);
+        if (at >= 0) {
+            StringBuilder cycle = new StringBuilder();
+            for (Path path : stack.subList(at, stack.size())) {
+                cycle.append(path.getFileName()).append(" -> ");
+            }
+            cycle.append(stmt.path.getFileName());
+            diagnostics.report(new Diagnostic(Diagnostic.Kind.SYNTAX, stmt.file, "Import cycle: " + cycle + "."));
+            return true;
+        }
+        if (done.contains(stmt.path))
+            return false;
+
+        stack.add(stmt.path);
+        for (Stmt.Import next : modules.get(stmt.path).imports) {
+            if (findCycle(next, modules, stack, done, diagnostics))
+                return true;
+        }
+        stack.remove(stack.size() - 1);
+        done.add(stmt.path);
+        return false;
+    }
+
+    // Stands in for a module whose file couldn't be read
+    private static final Module MISSING = new Module(null, null, List.of(), List.of());
+
+    private static final Map<Path, Module> CACHE = new ConcurrentHashMap<>();
+}
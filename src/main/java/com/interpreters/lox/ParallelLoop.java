@@ -0,0 +1,165 @@
+package com.interpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * Runs part of the range of a `parallel for` on the ForkJoin
+ * pool. A part that is too big is split in half and the halves
+ * run as tasks of their own, which idle threads of the pool
+ * steal. A small enough part runs its iterations one after the
+ * other in an interpreter of its own, and gives back the values
+ * its copies of the reduced variables ended up with.
+ *
+ * How the range is split only depends on its size, never on the
+ * number of threads, and partial results are always combined in
+ * the same order. So a loop reduces to exactly the same number
+ * however many cores it runs on, even with floating point.
+ */
+final class ParallelLoop extends RecursiveTask<double[]> {
+    ParallelLoop(Interpreter parent, Stmt.Parallel loop, Environment enclosing, long start, long end) {
+        this(parent, loop, enclosing, start, end, Math.max(1, (end - start) / PARTS), new Failure());
+    }
+
+    private ParallelLoop(Interpreter parent, Stmt.Parallel loop, Environment enclosing, long start, long end,
+            long grain, Failure failure) {
+        this.parent = parent;
+        this.loop = loop;
+        this.enclosing = enclosing;
+        this.start = start;
+        this.end = end;
+        this.grain = grain;
+        this.failure = failure;
+    }
+
+    @Override
+    protected double[] compute() {
+        if (end - start > grain) {
+            long middle = start + (end - start) / 2;
+            ParallelLoop left = new ParallelLoop(parent, loop, enclosing, start, middle, grain, failure);
+            ParallelLoop right = new ParallelLoop(parent, loop, enclosing, middle, end, grain, failure);
+            right.fork();
+            double[] values = left.compute();
+            double[] others = right.join();
+            if (values == null || others == null)
+                return null;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = combine(loop.operators.get(i), values[i], others[i]);
+            }
+            return values;
+        }
+
+        try {
+            return run();
+        } catch (LoxError.RuntimeError error) {
+            failure.record(start, error);
+            return null;
+        } catch (StackOverflowError error) {
+            failure.record(start, new LoxError.RuntimeError(loop.keyword, "Stack overflow."));
+            return null;
+        }
+    }
+
+    private double[] run() {
+        List<Token> reductions = loop.reductions;
+        Environment own = new Environment(enclosing);
+        if (loop.captured)
+            own.share();
+        for (int i = 0; i < reductions.size(); i++) {
+            own.define(reductions.get(i), identity(loop.operators.get(i)));
+        }
+
+        Interpreter interpreter = parent.child();
+        Environment frame = new Environment(own);
+        interpreter.enter(Thread.currentThread());
+        try {
+            for (long i = start; i < end && !failure.failed; i++) {
+                if (loop.captured)
+                    frame = new Environment(own).share();
+                else
+                    frame.reset(own);
+                frame.define(loop.variable, (double) i);
+                interpreter.runIteration(loop.body, frame);
+            }
+        } finally {
+            interpreter.leave();
+        }
+
+        double[] values = new double[reductions.size()];
+        for (int i = 0; i < values.length; i++) {
+            Object value = own.lookup(reductions.get(i).lexeme);
+            if (!(value instanceof Double))
+                throw new LoxError.RuntimeError(reductions.get(i), "Reduced variable must stay a number.");
+            values[i] = (double) value;
+        }
+        return values;
+    }
+
+    /*
+     * The value a thread's copy of a reduced variable starts at.
+     * For a sum that is -0.0 rather than 0, as -0.0 + x is x for
+     * every x, -0.0 included.
+     */
+    static double identity(Token operator) {
+        switch (operator.lexeme) {
+            case "+":
+                return -0.0;
+            case "*":
+                return 1;
+            case "min":
+                return Double.POSITIVE_INFINITY;
+            default:
+                return Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    static double combine(Token operator, double a, double b) {
+        switch (operator.lexeme) {
+            case "+":
+                return a + b;
+            case "*":
+                return a * b;
+            case "min":
+                return Math.min(a, b);
+            default:
+                return Math.max(a, b);
+        }
+    }
+
+    // The error of the loop, if it has failed
+    LoxError.RuntimeError error() {
+        return failure.error;
+    }
+
+    /*
+     * The first error, by position in the range, that any part
+     * of the loop stopped on. The other parts stop at their next
+     * iteration once one has failed.
+     */
+    private static final class Failure {
+        synchronized void record(long at, LoxError.RuntimeError error) {
+            if (this.error == null || at < this.at) {
+                this.error = error;
+                this.at = at;
+            }
+            failed = true;
+        }
+
+        volatile boolean failed = false;
+        // Only read once all parts are done
+        private LoxError.RuntimeError error;
+        private long at;
+    }
+
+    // Roughly how many parts the range is split into
+    private static final long PARTS = 256;
+
+    private final Interpreter parent;
+    private final Stmt.Parallel loop;
+    private final Environment enclosing;
+    private final long start;
+    private final long end;
+    // Parts no bigger than this run instead of being split
+    private final long grain;
+    private final Failure failure;
+}
@@ -0,0 +1,175 @@
+package com.interpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * How to run a for loop the LoopAnalyzer found to have no
+ * dependences between its iterations on the ForkJoin pool,
+ * so that it ends exactly as it would have run one iteration
+ * after the other. It is kept on the loop's node and shared by
+ * every run of it.
+ *
+ * Unlike an explicit `parallel for`, which may combine the
+ * parts of a sum in any grouping, the program never asked for
+ * this, so not even the last bit of a floating point sum may
+ * change. So the iterations run in parallel but the reductions
+ * don't: every iteration starts its copies of the reduced
+ * variables at the identity of their operator, what the copies
+ * end up at is its contribution, and the contributions are
+ * folded into the variables in order afterwards. With those
+ * identities `x op contribution` is exactly what the iteration
+ * would have made of x. The range is done in blocks, so the
+ * contributions waiting to be folded take little memory.
+ *
+ * If an iteration fails, every one before it still runs, their
+ * contributions and whatever the failing one had reduced so
+ * far are folded in, and then its error is raised. That leaves
+ * the variables just like the sequential loop would have.
+ */
+final class ParallelPlan {
+    ParallelPlan(Token counter, Expr bound, boolean inclusive, List<Token> reductions, List<Token> operators,
+            List<Token> natives, Stmt body) {
+        this.counter = counter;
+        this.bound = bound;
+        this.inclusive = inclusive;
+        this.reductions = reductions;
+        this.operators = operators;
+        this.natives = natives;
+        this.body = body;
+    }
+
+    /*
+     * Runs `count` iterations from `start`, starting from and
+     * storing back to `values`, the reduced variables' values.
+     * The body only reads the scopes around the loop and calls
+     * nothing that could write them, so unlike a `parallel for`
+     * it doesn't need them shared.
+     */
+    void run(Interpreter parent, Environment enclosing, long start, long count, double[] values) {
+        long end = start + count;
+        Failure failure = new Failure();
+        double[][] contributions = new double[reductions.size()][(int) Math.min(count, BLOCK)];
+        for (long from = start; from < end; from += BLOCK) {
+            long to = Math.min(end, from + BLOCK);
+            Part part = new Part(parent, enclosing, from, to, from, Math.max(1, (to - from) / PARTS), contributions,
+                    failure);
+            if (ForkJoinTask.inForkJoinPool())
+                part.invoke();
+            else
+                ForkJoinPool.commonPool().invoke(part);
+
+            long last = Math.min(to - 1, failure.at);
+            for (int r = 0; r < values.length; r++) {
+                Token operator = operators.get(r);
+                double value = values[r];
+                for (long i = from; i <= last; i++) {
+                    value = ParallelLoop.combine(operator, value, contributions[r][(int) (i - from)]);
+                }
+                values[r] = value;
+            }
+            if (failure.error != null)
+                throw failure.error;
+        }
+    }
+
+    /*
+     * Runs the iterations in [start, end) of the block that
+     * begins at `base`, splitting them in halves for idle
+     * threads to steal while there are more than `grain`.
+     */
+    private final class Part extends RecursiveAction {
+        Part(Interpreter parent, Environment enclosing, long start, long end, long base, long grain,
+                double[][] contributions, Failure failure) {
+            this.parent = parent;
+            this.enclosing = enclosing;
+            this.start = start;
+            this.end = end;
+            this.base = base;
+            this.grain = grain;
+            this.contributions = contributions;
+            this.failure = failure;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > grain) {
+                long middle = start + (end - start) / 2;
+                invokeAll(new Part(parent, enclosing, start, middle, base, grain, contributions, failure),
+                        new Part(parent, enclosing, middle, end, base, grain, contributions, failure));
+                return;
+            }
+
+            Interpreter interpreter = parent.child();
+            Environment own = new Environment(enclosing);
+            for (int r = 0; r < reductions.size(); r++) {
+                own.define(reductions.get(r), null);
+            }
+            // Nothing in the body can capture the frame, see LoopAnalyzer
+            Environment frame = new Environment(own);
+            for (long i = start; i < end && i < failure.at; i++) {
+                for (int r = 0; r < reductions.size(); r++) {
+                    own.assign(reductions.get(r), ParallelLoop.identity(operators.get(r)));
+                }
+                frame.reset(own);
+                frame.define(counter, (double) i);
+                try {
+                    interpreter.runIteration(body, frame);
+                } catch (LoxError.RuntimeError error) {
+                    contribute(own, i);
+                    failure.record(i, error);
+                    return;
+                }
+                contribute(own, i);
+            }
+        }
+
+        private void contribute(Environment own, long i) {
+            for (int r = 0; r < reductions.size(); r++) {
+                contributions[r][(int) (i - base)] = (double) own.lookup(reductions.get(r).lexeme);
+            }
+        }
+
+        private final Interpreter parent;
+        private final Environment enclosing;
+        private final long start;
+        private final long end;
+        private final long base;
+        private final long grain;
+        private final double[][] contributions;
+        private final Failure failure;
+    }
+
+    // The earliest iteration that failed, and its error
+    private static final class Failure {
+        synchronized void record(long i, LoxError.RuntimeError error) {
+            if (i < at) {
+                at = i;
+                this.error = error;
+            }
+        }
+
+        // Iterations from here on don't need to run anymore
+        volatile long at = Long.MAX_VALUE;
+        // Only read once all parts of the block are done
+        LoxError.RuntimeError error;
+    }
+
+    // Iterations whose contributions are folded in at a time
+    private static final long BLOCK = 1 << 14;
+
+    // Roughly how many parts a block is split into
+    private static final long PARTS = 64;
+
+    final Token counter;
+    // The loop runs while `counter < bound`, or `<=` if inclusive
+    final Expr bound;
+    final boolean inclusive;
+    final List<Token> reductions;
+    final List<Token> operators;
+    // Builtins the loop calls, which have to still be the builtins when it runs
+    final List<Token> natives;
+    private final Stmt body;
+}
@@ -2,19 +2,28 @@
  * Lox grammar till what has been implemented
  *
  * program      -> declaration* EOF ;
- * declaration  -> varDecl | statement ;
+ * declaration  -> classDecl | funDecl | varDecl | statement ;
+ * classDecl    -> "class" IDENTIFIER ( "<" IDENTIFIER )? "{" function* "}" ;
+ * funDecl      -> "fun" function ;
+ * function     -> IDENTIFIER "(" parameters? ")" block ;
+ * parameters   -> IDENTIFIER ( "," IDENTIFIER )* ;
  * varDecl      -> "let" IDENTIFIER ( "=" expression )? ";" ;
  * label        -> IDENTIFIER ":" ;
- * statement    -> exprStmt | ifStmt | ( label? forStmt | whileStmt ) | block | printStmt | jumpStmt ) ;
+ * statement    -> exprStmt | ifStmt | ( label? ( forStmt | whileStmt ) ) | parallelStmt | block | printStmt
+ *                 | jumpStmt | returnStmt ;
  * forStmt      -> "for" "(" ( varDecl | exprStmt ) expression? ";" expression? ")" statement ;
+ * parallelStmt -> "parallel" "for" "(" "let" IDENTIFIER "=" expression ";" IDENTIFIER "<" expression ";"
+ *                 IDENTIFIER "++" ")" ( "reduce" "(" reduction ( "," reduction )* ")" )? statement ;
+ * reduction    -> ( "+" | "*" | "min" | "max" ) ":" IDENTIFIER ;
  * whileStmt    -> "while" "(" expression ")" statement ;
  * ifStmt       -> "if" "(" expression ")" statement ( "else" statement )? ;
  * exprStmt     -> expression ";" ;
  * printStmt    -> "print" "(" expression ")" ";" ;
  * block        -> "{" declaration* "}" ;
- * jumpStmt     -> ( "break" | "continue" ) ";" ;
+ * jumpStmt     -> ( "break" | "continue" ) IDENTIFIER? ";" ;
+ * returnStmt   -> "return" expression? ";" ;
  * expression   -> assignment ;
- * assignment   -> IDENTIFIER "=" assignment | conditional ;
+ * assignment   -> ( IDENTIFIER | call "[" expression "]" | call "." IDENTIFIER ) "=" assignment | conditional ;
  * conditional  -> logical_or ( "?" expression ":" conditional )? ; (*)  
  * logical_or   -> logical_and ( "or" logical_and )* ;
  * logical_and  -> equality ( "and" equality )* ;
@@ -23,10 +32,14 @@
  * term         -> factor ( ( "-" | "+" ) factor )* ;
  * factor       -> unary ( ( "/" | "*" ) unary )*;
  * unary        -> ( "-" | "!" ) unary | postfix ;
- * postfix      -> IDENTIFIER ( "++" | "--" )? | primary 
+ * postfix      -> IDENTIFIER ( "++" | "--" ) | call
  *                 // Error production 
- *                 | primary ( "++" | "--" ) ;
- * primary      -> NUMBER | STRING | "true" | "false" | "nil" | "(" expression ")" | prefix
+ *                 | call ( "++" | "--" ) ;
+ * call         -> primary ( "(" arguments? ")" | "[" expression "]" | "." IDENTIFIER )* ;
+ * arguments    -> expression ( "," expression )* ;
+ * entries      -> expression ":" expression ( "," expression ":" expression )* ;
+ * primary      -> NUMBER | STRING | "true" | "false" | "nil" | "(" expression ")" | prefix | IDENTIFIER | label
+ *                 | "[" arguments? "]" | "{" entries? "}" | "this" | "super" "." IDENTIFIER | "spawn" block
  *                 // Error production
  *                 | ( "!=" | "==" ) equality
  *                 | ( ">" | ">=" | "<" | "<=" ) comparison
@@ -43,33 +56,143 @@ package com.interpreters.lox;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Supplier;
 
 public class Parser {
-    Parser(List<Token> tokens) {
+    Parser(List<Token> tokens, Diagnostics diagnostics) {
+        this(new Supplier<Token>() {
+            // The EOF at the end over and over once there is nothing after it
+            @Override
+            public Token get() {
+                return tokens.get(Math.min(index++, tokens.size() - 1));
+            }
+
+            private int index = 0;
+        }, diagnostics);
+    }
+
+    /*
+     * Parses the tokens as they come from the scanner, which
+     * with next() lets a statement run before the rest of the
+     * source has even been read. The parser only ever holds on
+     * to the token it is looking at and the one before it.
+     */
+    Parser(Scanner scanner, Diagnostics diagnostics) {
+        this(scanner::next, diagnostics);
+    }
+
+    private Parser(Supplier<Token> tokens, Diagnostics diagnostics) {
         this.tokens = tokens;
+        this.diagnostics = diagnostics;
     }
 
     public List<Stmt> parse() {
         List<Stmt> statements = new ArrayList<>();
         try {
-            while (!isAtEnd()) {
-                statements.add(declaration());
+            for (Stmt statement = next(); statement != null; statement = next()) {
+                statements.add(statement);
             }
         } catch (LoxError.ParserError error) {
-            LoxError.panic(error);
+            diagnostics.report(error);
             return null;
         }
 
         return statements;
     }
 
+    // The next top level statement, null at the end of the tokens
+    Stmt next() {
+        if (isAtEnd())
+            return null;
+        return match(TokenType.IMPORT) ? importDeclaration() : declaration();
+    }
+
+    /*
+     * Imports are only parsed at the top level of a file, so
+     * the modules a program needs can all be found, and loaded,
+     * before any of it runs.
+     */
+    private Stmt importDeclaration() {
+        Token keyword = peekPrev();
+        if (!match(TokenType.STRING))
+            throw new LoxError.ParserError(peek(), "Expected the module's path after import.");
+        Token file = peekPrev();
+        if (!match(TokenType.SEMICOLON))
+            throw new LoxError.ParserError(peek(), "Expected ';' after import.");
+        return at(keyword.line, new Stmt.Import(keyword, file));
+    }
+
     private Stmt declaration() {
+        if (match(TokenType.IMPORT))
+            throw new LoxError.ParserError(peekPrev(), "Imports can only be at the top level of a file.");
+        int line = peek().line;
+        if (match(TokenType.CLASS))
+            return at(line, classDeclaration());
+        if (match(TokenType.FUN))
+            return at(line, function());
         if (match(TokenType.LET))
-            return varDeclaration();
+            return at(line, varDeclaration());
 
         return statement();
     }
 
+    // Notes the line a statement starts on, which is what the profiler reports
+    private static Stmt at(int line, Stmt stmt) {
+        stmt.line = line;
+        return stmt;
+    }
+
+    private Stmt classDeclaration() {
+        if (!match(TokenType.IDENTIFIER))
+            throw new LoxError.ParserError(peek(), "Expected class name.");
+        Token name = peekPrev();
+
+        Expr.Variable superclass = null;
+        if (match(TokenType.LESS)) {
+            if (!match(TokenType.IDENTIFIER))
+                throw new LoxError.ParserError(peek(), "Expected superclass name.");
+            superclass = new Expr.Variable(peekPrev());
+        }
+
+        if (!match(TokenType.LEFT_BRACE))
+            throw new LoxError.ParserError(peek(), "Expected '{' before class body.");
+        List<Stmt.Function> methods = new ArrayList<>();
+        while (!isAtEnd() && peek().type != TokenType.RIGHT_BRACE) {
+            methods.add(function());
+        }
+        if (!match(TokenType.RIGHT_BRACE))
+            throw new LoxError.ParserError(peek(), "Expected '}' after class body.");
+
+        return new Stmt.Class(name, superclass, methods);
+    }
+
+    private Stmt.Function function() {
+        if (!match(TokenType.IDENTIFIER))
+            throw new LoxError.ParserError(peek(), "Expected function name.");
+        Token name = peekPrev();
+
+        if (!match(TokenType.LEFT_PAREN))
+            throw new LoxError.ParserError(peek(), "Expected '(' after function name.");
+        List<Token> params = new ArrayList<>();
+        if (peek().type != TokenType.RIGHT_PAREN) {
+            do {
+                if (params.size() >= MAX_ARGUMENTS)
+                    throw new LoxError.ParserError(peek(), "Can't have more than " + MAX_ARGUMENTS + " parameters.");
+                if (!match(TokenType.IDENTIFIER))
+                    throw new LoxError.ParserError(peek(), "Expected parameter name.");
+                params.add(peekPrev());
+            } while (match(TokenType.COMMA));
+        }
+        if (!match(TokenType.RIGHT_PAREN))
+            throw new LoxError.ParserError(peek(), "Expected ')' after parameters.");
+
+        if (!match(TokenType.LEFT_BRACE))
+            throw new LoxError.ParserError(peek(), "Expected '{' before function body.");
+        List<Stmt> body = blockStatements();
+
+        return new Stmt.Function(name, params, body);
+    }
+
     private Stmt varDeclaration() {
         if (!match(TokenType.IDENTIFIER))
             throw new LoxError.ParserError(peek(), "Expected an identifier.");
@@ -86,14 +209,31 @@ public class Parser {
     }
 
     private Stmt statement() {
-        Token label = null;
+        return at(peek().line, unmarkedStatement());
+    }
+
+    private Stmt unmarkedStatement() {
         if (match(TokenType.LABEL)) {
-            label = peekPrev();
+            Token label = peekPrev();
+            if (!match(TokenType.COLON)) {
+                throw new LoxError.ParserError(peek(), "Expected ':' after label.");
+            }
+            if (match(TokenType.FOR))
+                return forStatement(label);
+            if (match(TokenType.WHILE))
+                return whileStatement(label);
+            throw new LoxError.ParserError(peek(), "Expected a loop after label '" + label.lexeme + "'.");
         }
         if (match(TokenType.FOR))
-            return forStatement(label);
+            return forStatement(null);
         if (match(TokenType.WHILE))
-            return whileStatement(label);
+            return whileStatement(null);
+        if (match(TokenType.PARALLEL))
+            return parallelStatement();
+        if (match(TokenType.BREAK, TokenType.CONTINUE))
+            return jumpStatement();
+        if (match(TokenType.RETURN))
+            return returnStatement();
         if (match(TokenType.IF))
             return ifStatement();
         if (match(TokenType.PRINT))
@@ -139,6 +279,7 @@ public class Parser {
     }
 
     private Stmt forStatement(Token label) {
+        Token keyword = peekPrev();
         if (!match(TokenType.LEFT_PAREN)) {
             throw new LoxError.ParserError(peek(), "Expected '(' after while.");
         }
@@ -146,9 +287,9 @@ public class Parser {
         Stmt initializer = null;
         if (!match(TokenType.SEMICOLON)) {
             if (match(TokenType.LET))
-                initializer = varDeclaration();
+                initializer = at(keyword.line, varDeclaration());
             else
-                initializer = expressionStatement();
+                initializer = at(keyword.line, expressionStatement());
         }
 
         Expr condition = null;
@@ -169,16 +310,21 @@ public class Parser {
 
         Stmt body = statement();
 
-        // For loop Desugaring -> Converting for loop to a simple while loop
+        /*
+         * For loop Desugaring -> Converting for loop to a simple while loop
+         *
+         * The increment is kept apart from the body rather than
+         * appended to it in a block, as a `continue` skips the
+         * rest of the body but must still run the increment.
+         */
+        Stmt step = null;
         if (increment != null) {
-            body = new Stmt.Block(Arrays.asList(
-                    body,
-                    new Stmt.Expression(increment)));
+            step = at(keyword.line, new Stmt.Expression(increment));
         }
 
         if (condition == null)
             condition = new Expr.Literal(true);
-        body = new Stmt.While(label, condition, body);
+        body = at(keyword.line, new Stmt.While(keyword, label, condition, body, step));
 
         if (initializer != null) {
             body = new Stmt.Block(Arrays.asList(
@@ -189,7 +335,72 @@ public class Parser {
         return body;
     }
 
+    /*
+     * A parallel loop always counts one variable up by one over
+     * a range, so its header must have exactly the shape of such
+     * a for loop. That is what lets the range be split up front
+     * instead of finding out the iterations one at a time.
+     */
+    private Stmt parallelStatement() {
+        Token keyword = peekPrev();
+        if (!match(TokenType.FOR))
+            throw new LoxError.ParserError(peek(), "Expected 'for' after 'parallel'.");
+        if (!match(TokenType.LEFT_PAREN))
+            throw new LoxError.ParserError(peek(), "Expected '(' after for.");
+        if (!match(TokenType.LET) || !match(TokenType.IDENTIFIER))
+            throw new LoxError.ParserError(peek(), "Expected 'let' and the loop variable.");
+        Token variable = peekPrev();
+        if (!match(TokenType.EQUAL))
+            throw new LoxError.ParserError(peek(), "Expected '=' after the loop variable.");
+        Expr start = expression();
+        if (!match(TokenType.SEMICOLON))
+            throw new LoxError.ParserError(peek(), "Expected ';' after the start of the range.");
+
+        expectVariable(variable);
+        if (!match(TokenType.LESS))
+            throw new LoxError.ParserError(peek(), "Expected '<', a parallel loop counts up to before its end.");
+        Expr end = expression();
+        if (!match(TokenType.SEMICOLON))
+            throw new LoxError.ParserError(peek(), "Expected ';' after loop condition.");
+
+        expectVariable(variable);
+        if (!match(TokenType.PLUS_PLUS))
+            throw new LoxError.ParserError(peek(), "Expected '++', a parallel loop counts up by one.");
+        if (!match(TokenType.RIGHT_PAREN))
+            throw new LoxError.ParserError(peek(), "Expected ')' after for clauses.");
+
+        List<Token> operators = new ArrayList<>();
+        List<Token> reductions = new ArrayList<>();
+        if (match(TokenType.REDUCE)) {
+            if (!match(TokenType.LEFT_PAREN))
+                throw new LoxError.ParserError(peek(), "Expected '(' after 'reduce'.");
+            do {
+                // `max:` is scanned as a label
+                if (!match(TokenType.PLUS, TokenType.STAR, TokenType.LABEL, TokenType.IDENTIFIER)
+                        || !REDUCTIONS.contains(peekPrev().lexeme))
+                    throw new LoxError.ParserError(peek(), "Expected '+', '*', 'min' or 'max' to reduce with.");
+                operators.add(peekPrev());
+                if (!match(TokenType.COLON))
+                    throw new LoxError.ParserError(peek(), "Expected ':' after reduction operator.");
+                if (!match(TokenType.IDENTIFIER))
+                    throw new LoxError.ParserError(peek(), "Expected the variable to reduce into.");
+                reductions.add(peekPrev());
+            } while (match(TokenType.COMMA));
+            if (!match(TokenType.RIGHT_PAREN))
+                throw new LoxError.ParserError(peek(), "Expected ')' after reductions.");
+        }
+
+        Stmt body = statement();
+        return new Stmt.Parallel(keyword, variable, start, end, operators, reductions, body);
+    }
+
+    private void expectVariable(Token variable) {
+        if (!match(TokenType.IDENTIFIER) || !peekPrev().lexeme.equals(variable.lexeme))
+            throw new LoxError.ParserError(peek(), "Expected loop variable '" + variable.lexeme + "'.");
+    }
+
     private Stmt whileStatement(Token label) {
+        Token keyword = peekPrev();
         if (!match(TokenType.LEFT_PAREN)) {
             throw new LoxError.ParserError(peek(), "Expected '(' after while.");
         }
@@ -199,10 +410,40 @@ public class Parser {
         }
         Stmt body = statement();
 
-        return new Stmt.While(label, condition, body);
+        return new Stmt.While(keyword, label, condition, body, null);
+    }
+
+    private Stmt jumpStatement() {
+        Token keyword = peekPrev();
+        Token label = null;
+        if (match(TokenType.IDENTIFIER)) {
+            label = peekPrev();
+        }
+        if (!match(TokenType.SEMICOLON)) {
+            throw new LoxError.ParserError(peek(), "Expected ';' after '" + keyword.lexeme + "'.");
+        }
+
+        return new Stmt.Jump(keyword, label, null);
+    }
+
+    private Stmt returnStatement() {
+        Token keyword = peekPrev();
+        Expr value = null;
+        if (peek().type != TokenType.SEMICOLON) {
+            value = expression();
+        }
+        if (!match(TokenType.SEMICOLON)) {
+            throw new LoxError.ParserError(peek(), "Expected ';' after return value.");
+        }
+
+        return new Stmt.Jump(keyword, null, value);
     }
 
     private Stmt block() {
+        return new Stmt.Block(blockStatements());
+    }
+
+    private List<Stmt> blockStatements() {
         List<Stmt> statements = new ArrayList<>();
 
         while (!isAtEnd() && !match(TokenType.RIGHT_BRACE)) {
@@ -213,7 +454,7 @@ public class Parser {
             throw new LoxError.ParserError(peekPrev(), "Expected '}' after block.");
         }
 
-        return new Stmt.Block(statements);
+        return statements;
     }
 
     private Stmt printStatement() {
@@ -290,6 +531,14 @@ public class Parser {
                 Token name = ((Expr.Variable) expr).name;
                 return new Expr.Assign(name, value);
             }
+            if (expr instanceof Expr.Index) {
+                Expr.Index index = (Expr.Index) expr;
+                return new Expr.IndexSet(index.object, index.bracket, index.index, value);
+            }
+            if (expr instanceof Expr.Get) {
+                Expr.Get get = (Expr.Get) expr;
+                return new Expr.Set(get.object, get.name, value);
+            }
 
             throw new LoxError.RuntimeError(operator, "Invalid assignment target.");
         }
@@ -400,25 +649,65 @@ public class Parser {
         return postfix();
     }
 
+    /*
+     * Only a plain variable can be the target of a postfix
+     * operator, so we parse the operand as a call and then
+     * check what we got.
+     */
     private Expr postfix() {
-        if (match(TokenType.IDENTIFIER)) {
-            Token name = peekPrev();
-            if (match(TokenType.PLUS_PLUS, TokenType.MINUS_MINUS)) {
-                Token operator = peekPrev();
+        Expr expr = call();
+
+        if (match(TokenType.PLUS_PLUS, TokenType.MINUS_MINUS)) {
+            Token operator = peekPrev();
+            if (expr instanceof Expr.Variable) {
+                Token name = ((Expr.Variable) expr).name;
                 return new Expr.PrePost(name, operator, true);
             }
-
-            return new Expr.Variable(name);
+            throw new LoxError.ParserError(operator, "Invalid postfix target.");
         }
 
+        return expr;
+    }
+
+    private Expr call() {
         Expr expr = primary();
-        if (peek().type == TokenType.PLUS_PLUS || peek().type == TokenType.MINUS_MINUS) {
-            throw new LoxError.ParserError(peekPrev(), "Invalid postfix target.");
+
+        while (true) {
+            if (match(TokenType.LEFT_PAREN)) {
+                expr = finishCall(expr);
+            } else if (match(TokenType.LEFT_SQ_BRACE)) {
+                Token bracket = peekPrev();
+                Expr index = expression();
+                if (!match(TokenType.RIGHT_SQ_BRACE))
+                    throw new LoxError.ParserError(peek(), "Expected ']' after index.");
+                expr = new Expr.Index(expr, bracket, index);
+            } else if (match(TokenType.DOT)) {
+                if (!match(TokenType.IDENTIFIER))
+                    throw new LoxError.ParserError(peek(), "Expected property name after '.'.");
+                expr = new Expr.Get(expr, peekPrev());
+            } else {
+                break;
+            }
         }
 
         return expr;
     }
 
+    private Expr finishCall(Expr callee) {
+        List<Expr> arguments = new ArrayList<>();
+        if (peek().type != TokenType.RIGHT_PAREN) {
+            do {
+                if (arguments.size() >= MAX_ARGUMENTS)
+                    throw new LoxError.ParserError(peek(), "Can't have more than " + MAX_ARGUMENTS + " arguments.");
+                arguments.add(expression());
+            } while (match(TokenType.COMMA));
+        }
+        if (!match(TokenType.RIGHT_PAREN))
+            throw new LoxError.ParserError(peek(), "Expected ')' after arguments.");
+
+        return new Expr.Call(callee, peekPrev(), arguments);
+    }
+
     private Expr primary() {
         if (match(TokenType.FALSE))
             return new Expr.Literal(false);
@@ -428,8 +717,27 @@ public class Parser {
             return new Expr.Literal(null);
         if (match(TokenType.NUMBER, TokenType.STRING))
             return new Expr.Literal(peekPrev().literal);
+        if (match(TokenType.IDENTIFIER))
+            return new Expr.Variable(peekPrev());
+        if (match(TokenType.THIS))
+            return new Expr.This(peekPrev());
+        if (match(TokenType.SUPER)) {
+            Token keyword = peekPrev();
+            if (!match(TokenType.DOT))
+                throw new LoxError.ParserError(peek(), "Expected '.' after 'super'.");
+            if (!match(TokenType.IDENTIFIER))
+                throw new LoxError.ParserError(peek(), "Expected superclass method name.");
+            return new Expr.Super(keyword, peekPrev());
+        }
         if (match(TokenType.PLUS_PLUS, TokenType.MINUS_MINUS))
             return prefix();
+        /*
+         * An identifier immediately followed by a ':' is scanned
+         * as a label, which can also happen in the middle branch
+         * of a conditional like `flag ? yes: no`.
+         */
+        if (match(TokenType.LABEL))
+            return new Expr.Variable(peekPrev());
         if (match(TokenType.LEFT_PAREN)) {
             Expr expr = expression();
             if (!match(TokenType.RIGHT_PAREN)) {
@@ -437,6 +745,12 @@ public class Parser {
             }
             return new Expr.Grouping(expr);
         }
+        if (match(TokenType.LEFT_SQ_BRACE))
+            return array();
+        if (match(TokenType.LEFT_BRACE))
+            return map();
+        if (match(TokenType.SPAWN))
+            return spawn();
 
         // Error handling
         if (match(
@@ -450,6 +764,58 @@ public class Parser {
         throw new LoxError.ParserError(peek(), "Expected expression here.");
     }
 
+    private Expr array() {
+        Token bracket = peekPrev();
+        List<Expr> elements = new ArrayList<>();
+        if (peek().type != TokenType.RIGHT_SQ_BRACE) {
+            do {
+                elements.add(expression());
+            } while (match(TokenType.COMMA));
+        }
+        if (!match(TokenType.RIGHT_SQ_BRACE))
+            throw new LoxError.ParserError(peek(), "Expected ']' after array elements.");
+
+        return new Expr.Array(bracket, elements);
+    }
+
+    /*
+     * A '{' can only start a map here, where an expression is
+     * expected. At the start of a statement it is a block, as
+     * statements are matched before we ever get to expressions.
+     */
+    private Expr map() {
+        Token brace = peekPrev();
+        List<Expr> keys = new ArrayList<>();
+        List<Expr> values = new ArrayList<>();
+        if (peek().type != TokenType.RIGHT_BRACE) {
+            do {
+                keys.add(expression());
+                if (!match(TokenType.COLON))
+                    throw new LoxError.ParserError(peek(), "Expected ':' after map key.");
+                values.add(expression());
+            } while (match(TokenType.COMMA));
+        }
+        if (!match(TokenType.RIGHT_BRACE))
+            throw new LoxError.ParserError(peek(), "Expected '}' after map entries.");
+
+        return new Expr.Map(brace, keys, values);
+    }
+
+    /*
+     * The spawned block runs as the body of a function without
+     * parameters, so `return` gives the value join() waits for
+     * and the block closes over its surroundings like any other
+     * function does.
+     */
+    private Expr spawn() {
+        Token keyword = peekPrev();
+        if (!match(TokenType.LEFT_BRACE))
+            throw new LoxError.ParserError(peek(), "Expected '{' after 'spawn'.");
+        List<Stmt> body = blockStatements();
+
+        return new Expr.Spawn(keyword, new Stmt.Function(keyword, new ArrayList<>(), body));
+    }
+
     private Expr prefix() {
         Token operator = peekPrev();
         if (!match(TokenType.IDENTIFIER))
@@ -461,15 +827,29 @@ public class Parser {
     }
 
     private Token consume() {
-        return tokens.get(current++);
+        previous = peek();
+        next = null;
+        return previous;
     }
 
+    /*
+     * Tokens are only asked for once they are looked at, so a
+     * statement is complete as soon as its last token is in, not
+     * the one after it, which a stream may not have read yet.
+     */
     private Token peek() {
-        return tokens.get(current);
+        if (next == null)
+            next = tokens.get();
+        return next;
     }
 
     private Token peekPrev() {
-        return tokens.get(current - 1);
+        return previous;
+    }
+
+    // The last token taken, or the one at the start if there is none yet, for errors that stop the parser outright
+    Token reached() {
+        return previous != null ? previous : peek();
     }
 
     private boolean match(TokenType... types) {
@@ -486,6 +866,12 @@ public class Parser {
         return peek().type == TokenType.EOF;
     }
 
-    private final List<Token> tokens;
-    private int current = 0;
+    private static final int MAX_ARGUMENTS = 255;
+    private static final List<String> REDUCTIONS = List.of("+", "*", "min", "max");
+
+    private final Supplier<Token> tokens;
+    private final Diagnostics diagnostics;
+    // The token being looked at, null until it is, and the one consumed last
+    private Token next = null;
+    private Token previous = null;
 }
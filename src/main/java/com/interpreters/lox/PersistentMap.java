@@ -0,0 +1,450 @@
+package com.interpreters.lox;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/*
+ * An immutable hash map, a hash array mapped trie. Like the
+ * PersistentVector, "changing" one returns a new map sharing
+ * everything but the changed path with the old one.
+ *
+ * The hash of a key, read 5 bits at a time, is its path down
+ * the trie. A node only stores the children that exist and a
+ * 32-bit bitmap of which ones those are, so a child is found
+ * by counting the bits below its own. A slot either holds a
+ * key and its value, or a null key and the node for all keys
+ * that share the hash bits so far. Keys whose hashes are equal
+ * all the way down end up together in a collision node.
+ *
+ * Keys are compared with Interpreter.isEqual, so they match
+ * exactly when `==` would say they are equal.
+ */
+final class PersistentMap {
+    private PersistentMap(int count, Node root) {
+        this.count = count;
+        this.root = root;
+    }
+
+    int size() {
+        return count;
+    }
+
+    // The value of the key, or `notFound` if there is none
+    Object get(Object key, Object notFound) {
+        key = wrap(key);
+        return root.find(0, hash(key), key, notFound);
+    }
+
+    PersistentMap assoc(Object key, Object value) {
+        key = wrap(key);
+        Box added = new Box();
+        Node newRoot = root.assoc(null, 0, hash(key), key, value, added);
+        if (newRoot == root)
+            return this;
+        return new PersistentMap(added.value ? count + 1 : count, newRoot);
+    }
+
+    PersistentMap dissoc(Object key) {
+        key = wrap(key);
+        Box removed = new Box();
+        Node newRoot = root.without(null, 0, hash(key), key, removed);
+        if (!removed.value)
+            return this;
+        return new PersistentMap(count - 1, newRoot == null ? EMPTY_NODE : newRoot);
+    }
+
+    void forEach(BiConsumer<Object, Object> action) {
+        root.forEach(action);
+    }
+
+    Transient asTransient() {
+        return new Transient(this);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof PersistentMap))
+            return false;
+        PersistentMap map = (PersistentMap) other;
+        if (map.count != count)
+            return false;
+        boolean[] equal = { true };
+        forEach((key, value) -> {
+            if (equal[0] && !Interpreter.isEqual(value, map.get(key, NOT_FOUND)))
+                equal[0] = false;
+        });
+        return equal[0];
+    }
+
+    @Override
+    public int hashCode() {
+        int[] hash = { 0 };
+        forEach((key, value) -> hash[0] += hash(wrap(key)) ^ (value == null ? 0 : value.hashCode()));
+        return hash[0];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        forEach((key, value) -> {
+            if (builder.length() > 1)
+                builder.append(", ");
+            builder.append(Interpreter.stringify(key)).append(": ").append(Interpreter.stringify(value));
+        });
+        return builder.append("}").toString();
+    }
+
+    /*
+     * A map that is changed in place, for bulk loads. Like the
+     * vector's transient it copies shared nodes the first time
+     * it changes them and can't be used once made persistent.
+     */
+    static final class Transient {
+        private Transient(PersistentMap map) {
+            this.count = map.count;
+            this.root = map.root;
+            this.edit = new Object();
+        }
+
+        int size() {
+            return count;
+        }
+
+        Object get(Object key, Object notFound) {
+            ensureEditable();
+            key = wrap(key);
+            return root.find(0, hash(key), key, notFound);
+        }
+
+        Transient assoc(Object key, Object value) {
+            ensureEditable();
+            key = wrap(key);
+            Box added = new Box();
+            root = root.assoc(edit, 0, hash(key), key, value, added);
+            if (added.value)
+                ++count;
+            return this;
+        }
+
+        Transient dissoc(Object key) {
+            ensureEditable();
+            key = wrap(key);
+            Box removed = new Box();
+            Node newRoot = root.without(edit, 0, hash(key), key, removed);
+            if (removed.value) {
+                root = newRoot == null ? EMPTY_NODE : newRoot;
+                --count;
+            }
+            return this;
+        }
+
+        PersistentMap persistent() {
+            ensureEditable();
+            edit = null;
+            return new PersistentMap(count, root);
+        }
+
+        @Override
+        public String toString() {
+            return "<transient map>";
+        }
+
+        private void ensureEditable() {
+            if (edit == null)
+                throw new LoxError.RuntimeError(null, "Transient used after it was made persistent.");
+        }
+
+        private int count;
+        private Node root;
+        private Object edit;
+    }
+
+    /*
+     * Node operations take the edit token of the transient
+     * doing them, or null for persistent updates. They return
+     * the node itself when nothing changed, which is how the
+     * callers know not to copy anything above it either. Nodes
+     * a transient changed in place are returned as they are
+     * too, so whether an entry was added or removed is passed
+     * back separately in a Box.
+     */
+    private abstract static class Node {
+        abstract Object find(int shift, int hash, Object key, Object notFound);
+
+        abstract Node assoc(Object edit, int shift, int hash, Object key, Object value, Box added);
+
+        // The node without the key, null if that leaves it empty
+        abstract Node without(Object edit, int shift, int hash, Object key, Box removed);
+
+        abstract void forEach(BiConsumer<Object, Object> action);
+    }
+
+    private static final class BitmapNode extends Node {
+        BitmapNode(Object edit, int bitmap, Object[] array) {
+            this.edit = edit;
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key, Object notFound) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0)
+                return notFound;
+            int index = index(bit);
+            Object slotKey = array[2 * index];
+            Object slotValue = array[2 * index + 1];
+            if (slotKey == null)
+                return ((Node) slotValue).find(shift + BITS, hash, key, notFound);
+            if (Interpreter.isEqual(key, slotKey))
+                return slotValue;
+            return notFound;
+        }
+
+        @Override
+        Node assoc(Object edit, int shift, int hash, Object key, Object value, Box added) {
+            int bit = bit(hash, shift);
+            int index = index(bit);
+            if ((bitmap & bit) != 0) {
+                Object slotKey = array[2 * index];
+                Object slotValue = array[2 * index + 1];
+                if (slotKey == null) {
+                    Node child = ((Node) slotValue).assoc(edit, shift + BITS, hash, key, value, added);
+                    if (child == slotValue)
+                        return this;
+                    return set(edit, 2 * index + 1, child);
+                }
+                if (Interpreter.isEqual(key, slotKey)) {
+                    if (slotValue == value)
+                        return this;
+                    return set(edit, 2 * index + 1, value);
+                }
+                // Two keys share the slot, push both a level down
+                added.value = true;
+                Node child = pair(edit, shift + BITS, slotKey, slotValue, hash, key, value);
+                BitmapNode node = editable(edit);
+                node.array[2 * index] = null;
+                node.array[2 * index + 1] = child;
+                return node;
+            }
+
+            added.value = true;
+            int entries = Integer.bitCount(bitmap);
+            if (edit != null && this.edit == edit && 2 * entries < array.length) {
+                // Owned by the transient and there's room left
+                System.arraycopy(array, 2 * index, array, 2 * (index + 1), 2 * (entries - index));
+                array[2 * index] = key;
+                array[2 * index + 1] = value;
+                bitmap |= bit;
+                return this;
+            }
+            // Transients leave some room for the next entries
+            int capacity = edit == null ? entries + 1 : Math.min(entries + 4, WIDTH);
+            Object[] newArray = new Object[2 * capacity];
+            System.arraycopy(array, 0, newArray, 0, 2 * index);
+            newArray[2 * index] = key;
+            newArray[2 * index + 1] = value;
+            System.arraycopy(array, 2 * index, newArray, 2 * (index + 1), 2 * (entries - index));
+            return new BitmapNode(edit, bitmap | bit, newArray);
+        }
+
+        @Override
+        Node without(Object edit, int shift, int hash, Object key, Box removed) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0)
+                return this;
+            int index = index(bit);
+            Object slotKey = array[2 * index];
+            Object slotValue = array[2 * index + 1];
+            if (slotKey == null) {
+                Node child = ((Node) slotValue).without(edit, shift + BITS, hash, key, removed);
+                if (child == slotValue)
+                    return this;
+                if (child != null)
+                    return set(edit, 2 * index + 1, child);
+            } else if (!Interpreter.isEqual(key, slotKey)) {
+                return this;
+            } else {
+                removed.value = true;
+            }
+
+            if (bitmap == bit)
+                return null;
+            int entries = Integer.bitCount(bitmap);
+            if (edit != null && this.edit == edit) {
+                System.arraycopy(array, 2 * (index + 1), array, 2 * index, 2 * (entries - index - 1));
+                array[2 * entries - 2] = null;
+                array[2 * entries - 1] = null;
+                bitmap ^= bit;
+                return this;
+            }
+            Object[] newArray = new Object[2 * (entries - 1)];
+            System.arraycopy(array, 0, newArray, 0, 2 * index);
+            System.arraycopy(array, 2 * (index + 1), newArray, 2 * index, 2 * (entries - index - 1));
+            return new BitmapNode(edit, bitmap ^ bit, newArray);
+        }
+
+        @Override
+        void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i] != null)
+                    action.accept(unwrap(array[i]), array[i + 1]);
+                else if (array[i + 1] != null)
+                    ((Node) array[i + 1]).forEach(action);
+            }
+        }
+
+        private Node set(Object edit, int i, Object value) {
+            BitmapNode node = editable(edit);
+            node.array[i] = value;
+            return node;
+        }
+
+        private BitmapNode editable(Object edit) {
+            if (edit != null && this.edit == edit)
+                return this;
+            return new BitmapNode(edit, bitmap, array.clone());
+        }
+
+        // Position of the child among the ones that exist
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private final Object edit;
+        private int bitmap;
+        // Key and value of each child, one after the other
+        private final Object[] array;
+    }
+
+    private static final class CollisionNode extends Node {
+        CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key, Object notFound) {
+            int index = indexOf(key);
+            if (index < 0)
+                return notFound;
+            return array[index + 1];
+        }
+
+        /*
+         * Collisions are rare enough that we don't bother
+         * changing these in place, even for transients.
+         */
+        @Override
+        Node assoc(Object edit, int shift, int hash, Object key, Object value, Box added) {
+            if (hash != this.hash) {
+                // A key that only shares part of the hash, so nest us
+                BitmapNode node = new BitmapNode(edit, bit(this.hash, shift), new Object[] { null, this });
+                return node.assoc(edit, shift, hash, key, value, added);
+            }
+            int index = indexOf(key);
+            if (index >= 0) {
+                if (array[index + 1] == value)
+                    return this;
+                Object[] newArray = array.clone();
+                newArray[index + 1] = value;
+                return new CollisionNode(hash, newArray);
+            }
+            added.value = true;
+            Object[] newArray = Arrays.copyOf(array, array.length + 2);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            return new CollisionNode(hash, newArray);
+        }
+
+        @Override
+        Node without(Object edit, int shift, int hash, Object key, Box removed) {
+            int index = indexOf(key);
+            if (index < 0)
+                return this;
+            removed.value = true;
+            if (array.length == 2)
+                return null;
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, index);
+            System.arraycopy(array, index + 2, newArray, index, array.length - index - 2);
+            return new CollisionNode(hash, newArray);
+        }
+
+        @Override
+        void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                action.accept(unwrap(array[i]), array[i + 1]);
+            }
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (Interpreter.isEqual(key, array[i]))
+                    return i;
+            }
+            return -1;
+        }
+
+        private final int hash;
+        private final Object[] array;
+    }
+
+    // A node holding the two entries, nested as deep as their hashes agree
+    private static Node pair(Object edit, int shift, Object key1, Object value1, int hash2, Object key2,
+            Object value2) {
+        int hash1 = hash(key1);
+        if (hash1 == hash2)
+            return new CollisionNode(hash1, new Object[] { key1, value1, key2, value2 });
+        Box added = new Box();
+        return EMPTY_NODE
+                .assoc(edit, shift, hash1, key1, value1, added)
+                .assoc(edit, shift, hash2, key2, value2, added);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    /*
+     * Lox numbers that are whole hash to values differing only
+     * in their high bits, while the trie looks at the low ones
+     * first. Mixing the bits (the finalizer of MurmurHash3)
+     * spreads them over the whole trie.
+     */
+    private static int hash(Object key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    // A null key marks a child node, so nil keys are stored as NIL
+    private static Object wrap(Object key) {
+        return key == null ? NIL : key;
+    }
+
+    private static Object unwrap(Object key) {
+        return key == NIL ? null : key;
+    }
+
+    // Whether an entry was added or removed, rather than a value replaced
+    private static final class Box {
+        boolean value = false;
+    }
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final Object NIL = new Object();
+    static final Object NOT_FOUND = new Object();
+    private static final Node EMPTY_NODE = new BitmapNode(null, 0, new Object[0]);
+    static final PersistentMap EMPTY = new PersistentMap(0, EMPTY_NODE);
+
+    private final int count;
+    private final Node root;
+}
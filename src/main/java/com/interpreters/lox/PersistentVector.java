@@ -0,0 +1,395 @@
+package com.interpreters.lox;
+
+import java.util.Arrays;
+
+/*
+ * An immutable vector. "Changing" one returns a new vector
+ * that shares all but the changed path with the old one, so
+ * both stay valid and neither had to be copied as a whole.
+ *
+ * The elements live in a tree of 32-wide nodes: the index of
+ * an element, read 5 bits at a time from the top, is the path
+ * down to the leaf holding it. So a lookup or update touches
+ * log32(n) nodes, which is at most 7 for any vector that fits
+ * in memory. The last (up to) 32 elements are kept out of the
+ * tree in `tail`, which makes appending and popping mostly
+ * a copy of that one small array.
+ *
+ * Nodes carry the edit token of the Transient that created
+ * them. A transient may change its own nodes in place as
+ * nobody else can see them yet, anything else is copied.
+ */
+final class PersistentVector {
+    private PersistentVector(int count, int shift, Node root, Object[] tail) {
+        this.count = count;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    int size() {
+        return count;
+    }
+
+    Object get(int index) {
+        return arrayFor(index)[index & MASK];
+    }
+
+    // Setting the index one past the end appends
+    PersistentVector assoc(int index, Object value) {
+        if (index == count)
+            return conj(value);
+        if (index >= tailOffset()) {
+            Object[] newTail = tail.clone();
+            newTail[index & MASK] = value;
+            return new PersistentVector(count, shift, root, newTail);
+        }
+        return new PersistentVector(count, shift, doAssoc(shift, root, index, value), tail);
+    }
+
+    PersistentVector conj(Object value) {
+        if (count - tailOffset() < WIDTH) {
+            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = value;
+            return new PersistentVector(count + 1, shift, root, newTail);
+        }
+
+        // The tail is full, it moves into the tree and a new one starts
+        Node tailNode = new Node(null, tail);
+        int newShift = shift;
+        Node newRoot;
+        if ((count >>> BITS) > (1 << shift)) {
+            // No room left under the root, the tree grows a level
+            newRoot = new Node(null, new Object[WIDTH]);
+            newRoot.array[0] = root;
+            newRoot.array[1] = newPath(null, shift, tailNode);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(count, shift, root, tailNode);
+        }
+        return new PersistentVector(count + 1, newShift, newRoot, new Object[] { value });
+    }
+
+    // Drops the last element, which must exist
+    PersistentVector pop() {
+        if (count == 1)
+            return EMPTY;
+        if (count - tailOffset() > 1) {
+            return new PersistentVector(count - 1, shift, root, Arrays.copyOf(tail, tail.length - 1));
+        }
+
+        // The tail is emptied, the last leaf of the tree takes its place
+        Object[] newTail = arrayFor(count - 2);
+        Node newRoot = popTail(count, shift, root);
+        int newShift = shift;
+        if (newRoot == null)
+            newRoot = EMPTY_NODE;
+        if (shift > BITS && newRoot.array[1] == null) {
+            newRoot = (Node) newRoot.array[0];
+            newShift -= BITS;
+        }
+        return new PersistentVector(count - 1, newShift, newRoot, newTail);
+    }
+
+    Transient asTransient() {
+        return new Transient(this);
+    }
+
+    // Index of the first element that is in the tail
+    private int tailOffset() {
+        return tailOffset(count);
+    }
+
+    private static int tailOffset(int count) {
+        if (count < WIDTH)
+            return 0;
+        return ((count - 1) >>> BITS) << BITS;
+    }
+
+    private Object[] arrayFor(int index) {
+        if (index >= tailOffset())
+            return tail;
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Node) node.array[(index >>> level) & MASK];
+        }
+        return node.array;
+    }
+
+    private static Node doAssoc(int level, Node node, int index, Object value) {
+        Node copy = new Node(null, node.array.clone());
+        if (level == 0) {
+            copy.array[index & MASK] = value;
+        } else {
+            int child = (index >>> level) & MASK;
+            copy.array[child] = doAssoc(level - BITS, (Node) node.array[child], index, value);
+        }
+        return copy;
+    }
+
+    private static Node pushTail(int count, int level, Node parent, Node tailNode) {
+        int child = ((count - 1) >>> level) & MASK;
+        Node copy = new Node(null, parent.array.clone());
+        copy.array[child] = level == BITS
+                ? tailNode
+                : parent.array[child] != null
+                        ? pushTail(count, level - BITS, (Node) parent.array[child], tailNode)
+                        : newPath(null, level - BITS, tailNode);
+        return copy;
+    }
+
+    private static Node popTail(int count, int level, Node node) {
+        int child = ((count - 2) >>> level) & MASK;
+        if (level > BITS) {
+            Node newChild = popTail(count, level - BITS, (Node) node.array[child]);
+            if (newChild == null && child == 0)
+                return null;
+            Node copy = new Node(null, node.array.clone());
+            copy.array[child] = newChild;
+            return copy;
+        }
+        if (child == 0)
+            return null;
+        Node copy = new Node(null, node.array.clone());
+        copy.array[child] = null;
+        return copy;
+    }
+
+    // A chain of single-child nodes from `level` down to the leaf
+    private static Node newPath(Object edit, int level, Node node) {
+        if (level == 0)
+            return node;
+        Node path = new Node(edit, new Object[WIDTH]);
+        path.array[0] = newPath(edit, level - BITS, node);
+        return path;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof PersistentVector))
+            return false;
+        PersistentVector vector = (PersistentVector) other;
+        if (vector.count != count)
+            return false;
+        for (int i = 0; i < count; i++) {
+            if (!Interpreter.isEqual(get(i), vector.get(i)))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = 0; i < count; i++) {
+            Object element = get(i);
+            hash = 31 * hash + (element == null ? 0 : element.hashCode());
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                builder.append(", ");
+            builder.append(Interpreter.stringify(get(i)));
+        }
+        return builder.append("]").toString();
+    }
+
+    /*
+     * A vector that is changed in place, for building one up
+     * with many changes without paying for a copy each time.
+     * It starts off sharing everything with the vector it was
+     * made from, copying nodes the first time it touches them.
+     * Once turned back into a vector it can't be used anymore.
+     */
+    static final class Transient {
+        private Transient(PersistentVector vector) {
+            this.count = vector.count;
+            this.shift = vector.shift;
+            this.edit = new Object();
+            this.root = new Node(edit, vector.root.array.clone());
+            this.tail = Arrays.copyOf(vector.tail, WIDTH);
+        }
+
+        int size() {
+            return count;
+        }
+
+        Object get(int index) {
+            ensureEditable();
+            if (index >= tailOffset(count))
+                return tail[index & MASK];
+            Node node = root;
+            for (int level = shift; level > 0; level -= BITS) {
+                node = (Node) node.array[(index >>> level) & MASK];
+            }
+            return node.array[index & MASK];
+        }
+
+        Transient assoc(int index, Object value) {
+            ensureEditable();
+            if (index == count)
+                return conj(value);
+            if (index >= tailOffset(count)) {
+                tail[index & MASK] = value;
+                return this;
+            }
+            root = doAssoc(shift, root, index, value);
+            return this;
+        }
+
+        Transient conj(Object value) {
+            ensureEditable();
+            if (count - tailOffset(count) < WIDTH) {
+                tail[count & MASK] = value;
+                ++count;
+                return this;
+            }
+
+            Node tailNode = new Node(edit, tail);
+            tail = new Object[WIDTH];
+            tail[0] = value;
+            if ((count >>> BITS) > (1 << shift)) {
+                Node newRoot = new Node(edit, new Object[WIDTH]);
+                newRoot.array[0] = root;
+                newRoot.array[1] = newPath(edit, shift, tailNode);
+                root = newRoot;
+                shift += BITS;
+            } else {
+                root = pushTail(shift, root, tailNode);
+            }
+            ++count;
+            return this;
+        }
+
+        Transient pop() {
+            ensureEditable();
+            if (count == 1) {
+                count = 0;
+                return this;
+            }
+            if (((count - 1) & MASK) > 0) {
+                // The last element is not the only one in the tail
+                tail[(count - 1) & MASK] = null;
+                --count;
+                return this;
+            }
+
+            // The leaf may still be shared, so the new tail is a copy
+            Object[] newTail = Arrays.copyOf(leafFor(count - 2), WIDTH);
+            Node newRoot = popTail(shift, root);
+            if (newRoot == null)
+                newRoot = new Node(edit, new Object[WIDTH]);
+            if (shift > BITS && newRoot.array[1] == null) {
+                newRoot = editable((Node) newRoot.array[0]);
+                shift -= BITS;
+            }
+            root = newRoot;
+            tail = newTail;
+            --count;
+            return this;
+        }
+
+        PersistentVector persistent() {
+            ensureEditable();
+            edit = null;
+            return new PersistentVector(count, shift, root, Arrays.copyOf(tail, count - tailOffset(count)));
+        }
+
+        private Object[] leafFor(int index) {
+            Node node = root;
+            for (int level = shift; level > 0; level -= BITS) {
+                node = (Node) node.array[(index >>> level) & MASK];
+            }
+            return node.array;
+        }
+
+        private Node doAssoc(int level, Node node, int index, Object value) {
+            Node own = editable(node);
+            if (level == 0) {
+                own.array[index & MASK] = value;
+            } else {
+                int child = (index >>> level) & MASK;
+                own.array[child] = doAssoc(level - BITS, (Node) own.array[child], index, value);
+            }
+            return own;
+        }
+
+        private Node pushTail(int level, Node parent, Node tailNode) {
+            Node own = editable(parent);
+            int child = ((count - 1) >>> level) & MASK;
+            own.array[child] = level == BITS
+                    ? tailNode
+                    : own.array[child] != null
+                            ? pushTail(level - BITS, (Node) own.array[child], tailNode)
+                            : newPath(edit, level - BITS, tailNode);
+            return own;
+        }
+
+        private Node popTail(int level, Node node) {
+            Node own = editable(node);
+            int child = ((count - 2) >>> level) & MASK;
+            if (level > BITS) {
+                Node newChild = popTail(level - BITS, (Node) own.array[child]);
+                if (newChild == null && child == 0)
+                    return null;
+                own.array[child] = newChild;
+                return own;
+            }
+            if (child == 0)
+                return null;
+            own.array[child] = null;
+            return own;
+        }
+
+        private Node editable(Node node) {
+            if (node.edit == edit)
+                return node;
+            return new Node(edit, node.array.clone());
+        }
+
+        @Override
+        public String toString() {
+            return "<transient vector>";
+        }
+
+        private void ensureEditable() {
+            if (edit == null)
+                throw new LoxError.RuntimeError(null, "Transient used after it was made persistent.");
+        }
+
+        private int count;
+        private int shift;
+        private Node root;
+        private Object[] tail;
+        // Marks the nodes this transient owns, null once it is done
+        private Object edit;
+    }
+
+    private static final class Node {
+        Node(Object edit, Object[] array) {
+            this.edit = edit;
+            this.array = array;
+        }
+
+        final Object edit;
+        final Object[] array;
+    }
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final Node EMPTY_NODE = new Node(null, new Object[WIDTH]);
+    static final PersistentVector EMPTY = new PersistentVector(0, BITS, EMPTY_NODE, new Object[0]);
+
+    private final int count;
+    // How far to shift an index to get the root's child, 5 per level
+    private final int shift;
+    private final Node root;
+    private final Object[] tail;
+}
@@ -0,0 +1,97 @@
+package com.interpreters.lox;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A program that has been scanned, parsed and resolved once,
+ * ready to be run any number of times. Running it does none
+ * of that work again, LoxContext.execute() goes straight to
+ * interpreting the statements.
+ *
+ * Nothing in the tree changes once the resolver (and with
+ * automatic parallelization, the LoopAnalyzer) is done with
+ * it, except for the inline caches of property accesses and
+ * the natives bound to call sites. Both of those are swapped
+ * for complete, immutable objects rather than changed in place,
+ * so the worst another thread can see is an older one, which
+ * just costs it a cache miss. So a prepared script can be run
+ * by any number of threads at once, each in its own context.
+ *
+ * A script with syntax errors is still prepared, it keeps the
+ * errors and running it returns them without running anything.
+ */
+public final class PreparedScript {
+    PreparedScript(String source, boolean autoParallel) {
+        this(source, null, autoParallel);
+    }
+
+    /*
+     * The source of `file`, whose imports are relative to the
+     * file's directory. Every module it imports is loaded along
+     * with it, see ModuleLoader, and errors in any of them are
+     * the script's errors. Without a file imports are relative
+     * to the working directory.
+     */
+    PreparedScript(String source, Path file, boolean autoParallel) {
+        Diagnostics diagnostics = new Diagnostics();
+        List<Stmt> statements = compile(source, null, diagnostics);
+        this.modules = diagnostics.hasErrors() ? Map.of() : ModuleLoader.load(statements, file, diagnostics);
+        this.statements = diagnostics.hasErrors() ? List.of() : Collections.unmodifiableList(statements);
+        this.errors = diagnostics.list();
+        this.loops = autoParallel ? new LoopAnalyzer().analyze(this.statements) : List.of();
+    }
+
+    // Scans, parses and resolves the source of a script, or of a module in `file`
+    static List<Stmt> compile(String source, String file, Diagnostics diagnostics) {
+        Events.Scan scan = new Events.Scan();
+        scan.begin();
+        List<Token> tokens = new Scanner(source, file, diagnostics).scanTokens();
+        scan.characters = source.length();
+        // A scanner error leaves no tokens to count
+        if (!diagnostics.hasErrors())
+            scan.tokens = tokens.size();
+        scan.commit();
+        if (diagnostics.hasErrors())
+            return List.of();
+
+        Events.Parse parse = new Events.Parse();
+        parse.begin();
+        parse.tokens = tokens.size();
+        try {
+            List<Stmt> statements = new Parser(tokens, diagnostics).parse();
+            if (diagnostics.hasErrors())
+                return List.of();
+            parse.statements = statements.size();
+
+            new Resolver(diagnostics).resolve(statements);
+            if (diagnostics.hasErrors())
+                return List.of();
+            return statements;
+        } finally {
+            parse.commit();
+        }
+    }
+
+    // The syntax errors found while preparing it, empty if there were none
+    public List<Diagnostic> errors() {
+        return errors;
+    }
+
+    /*
+     * With automatic parallelization on, a line for every for
+     * loop saying whether it runs in parallel, and if not why.
+     * Empty otherwise.
+     */
+    public List<String> loopReport() {
+        return loops;
+    }
+
+    final List<Stmt> statements;
+    // Every module it imports, directly or not, by path
+    final Map<Path, Module> modules;
+    private final List<Diagnostic> errors;
+    private final List<String> loops;
+}
@@ -0,0 +1,179 @@
+package com.interpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * A sampling profiler for Lox code. Profiling Java with Java
+ * tools shows nothing but accept() and visit*() frames, so
+ * this one looks at what the interpreter is doing in Lox terms:
+ * the line of the statement it is executing and the Lox calls
+ * it is in the middle of.
+ *
+ * While a run is being profiled the interpreter keeps a stack
+ * of Frames, one per Lox call, and notes the line of every
+ * statement it executes. A thread of our own wakes up every
+ * interval and reads both. It reads them without any locking,
+ * so a sample may be a statement or a call behind, which is
+ * noise a sampling profiler has anyway, and in return running
+ * the script costs a field write per statement and a small
+ * allocation per call. Tasks the script spawns and the threads
+ * of its parallel loops aren't sampled, their time shows up on
+ * the line that waits for them.
+ *
+ * Samples add up over every run profiled with the same
+ * profiler, which is what the REPL does.
+ */
+final class Profiler {
+    Profiler(long intervalNanos) {
+        this.intervalNanos = intervalNanos;
+    }
+
+    // A Lox call in progress, the line is where its caller was when it made it
+    static final class Frame {
+        Frame(String name, int line, Frame caller) {
+            this.name = name;
+            this.line = line;
+            this.caller = caller;
+        }
+
+        final String name;
+        final int line;
+        final Frame caller;
+    }
+
+    // Samples the interpreter until stop() is called
+    void start(Interpreter interpreter) {
+        running = true;
+        sampler = new Thread(() -> {
+            while (running) {
+                LockSupport.parkNanos(intervalNanos);
+                if (running)
+                    sample(interpreter);
+            }
+        }, "lox-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    void stop() {
+        running = false;
+        LockSupport.unpark(sampler);
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Counts the line being executed as a hit of its own, and
+     * every line on the stack, the line itself included, as a
+     * hit in total. A recursive function's line is counted
+     * once per sample however deep the recursion.
+     */
+    private void sample(Interpreter interpreter) {
+        int line = interpreter.line;
+        Frame top = interpreter.top;
+        samples++;
+        count(self, line);
+
+        Set<Integer> seen = new HashSet<>();
+        List<String> stack = new ArrayList<>();
+        seen.add(line);
+        count(total, line);
+        for (Frame frame = top; frame != null; frame = frame.caller) {
+            stack.add(frame.name + ":" + line);
+            line = frame.line;
+            if (seen.add(line))
+                count(total, line);
+        }
+        stack.add(SCRIPT + ":" + line);
+
+        StringBuilder folded = new StringBuilder();
+        for (int i = stack.size() - 1; i >= 0; i--) {
+            folded.append(stack.get(i));
+            if (i > 0)
+                folded.append(';');
+        }
+        stacks.merge(folded.toString(), 1L, Long::sum);
+    }
+
+    private static void count(Map<Integer, long[]> hits, int line) {
+        hits.computeIfAbsent(line, key -> new long[1])[0]++;
+    }
+
+    /*
+     * Prints the lines that were hit most, with the share of
+     * samples they were executing in (self) and were on the
+     * stack in (total). With the source the text of each line
+     * is shown next to it.
+     */
+    void report(PrintStream out, String source) {
+        String[] lines = source == null ? new String[0] : source.split("\n", -1);
+        out.println("Profile: " + samples + " samples, one every " + intervalNanos / 1000 + " us");
+        if (samples == 0)
+            return;
+        out.println("  line    self   total");
+
+        List<Integer> hot = new ArrayList<>(total.keySet());
+        hot.sort(Comparator.comparingLong((Integer line) -> hits(self, line))
+                .thenComparingLong(line -> hits(total, line)).reversed());
+        for (Integer line : hot.subList(0, Math.min(REPORTED_LINES, hot.size()))) {
+            String text = line >= 1 && line <= lines.length ? lines[line - 1].trim() : "";
+            out.printf("%6d  %5.1f%%  %5.1f%%  %s%n", line, percent(self, line), percent(total, line), text);
+        }
+    }
+
+    private static long hits(Map<Integer, long[]> hits, Integer line) {
+        long[] count = hits.get(line);
+        return count == null ? 0 : count[0];
+    }
+
+    private double percent(Map<Integer, long[]> hits, Integer line) {
+        return 100.0 * hits(hits, line) / samples;
+    }
+
+    /*
+     * Writes every stack sampled, one per line with how many
+     * times it was, in the folded format flame graph tools take.
+     * Frames are `function:line`, the outermost being the script.
+     */
+    void writeFolded(Path path) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path))) {
+            for (Map.Entry<String, Long> stack : stacks.entrySet()) {
+                writer.println(stack.getKey() + " " + stack.getValue());
+            }
+        }
+    }
+
+    // Sample every millisecond unless told otherwise
+    static final long DEFAULT_INTERVAL = 1000000;
+
+    // How many of the hottest lines report() shows
+    private static final int REPORTED_LINES = 20;
+
+    // Name of the outermost frame, the script's top level code
+    private static final String SCRIPT = "<script>";
+
+    private final long intervalNanos;
+    private volatile boolean running = false;
+    private Thread sampler;
+
+    // Only touched by the sampler, and read once it has stopped
+    private long samples = 0;
+    private final Map<Integer, long[]> self = new HashMap<>();
+    private final Map<Integer, long[]> total = new HashMap<>();
+    private final Map<String, Long> stacks = new HashMap<>();
+}
@@ -0,0 +1,487 @@
+package com.interpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * The resolver is a static pass that walks the syntax tree
+ * once, after parsing and before interpreting, and records
+ * facts about the program on the tree nodes themselves so
+ * the interpreter doesn't have to rediscover them every
+ * time a node is executed.
+ *
+ * Right now we work out which blocks actually need a scope
+ * of their own, which scopes can be captured by a closure,
+ * which loop each break/continue jumps to and which calls
+ * are tail calls (initializers have none, as they always
+ * return `this` rather than what their returns say). A block that declares nothing can never put
+ * anything in its environment, so creating one for it (which
+ * for a loop body means once per iteration) is pure overhead.
+ *
+ * Expressions are walked to find the blocks of `spawn`
+ * expressions, which are function bodies like any other, and
+ * to mark the variables and assignments that are global. A
+ * name no scope around it declares, by the time it runs or
+ * later, can only be found in the global scope, so the
+ * interpreter goes straight there for it (see Globals).
+ */
+class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+    Resolver(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    void resolve(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            resolve(statement);
+        }
+    }
+
+    private void resolve(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void resolve(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void resolveAll(List<Expr> exprs) {
+        for (Expr expr : exprs) {
+            resolve(expr);
+        }
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        loops.push(stmt);
+        resolve(stmt.body);
+        if (stmt.increment != null) {
+            resolve(stmt.increment);
+        }
+        loops.pop();
+        return null;
+    }
+
+    /*
+     * Labels are only ever used by jumps, so we match them up
+     * here once instead of looking them up while running.
+     * An unlabelled jump belongs to the innermost loop.
+     */
+    @Override
+    public Void visitJumpStmt(Stmt.Jump stmt) {
+        if (stmt.keyword.type == TokenType.RETURN) {
+            if (stmt.value != null)
+                resolve(stmt.value);
+            if (currentFunction == FunctionType.NONE) {
+                error(stmt.keyword, "Can't return from top-level code.");
+            } else if (currentFunction == FunctionType.PARALLEL) {
+                error(stmt.keyword, "Can't return from a parallel loop.");
+            } else if (currentFunction == FunctionType.INITIALIZER) {
+                if (stmt.value != null)
+                    error(stmt.keyword, "Can't return a value from an initializer.");
+            } else if (stmt.value instanceof Expr.Call) {
+                ((Expr.Call) stmt.value).tail = true;
+            }
+            return null;
+        }
+        if (loops.isEmpty() && currentFunction == FunctionType.PARALLEL) {
+            error(stmt.keyword, "Can't use '" + stmt.keyword.lexeme + "' in a parallel loop.");
+            return null;
+        }
+        if (loops.isEmpty()) {
+            error(stmt.keyword, "Can't use '" + stmt.keyword.lexeme + "' outside of a loop.");
+            return null;
+        }
+        if (stmt.label == null) {
+            stmt.target = loops.peek();
+            return null;
+        }
+        for (Stmt.While loop : loops) {
+            if (loop.label != null && loop.label.lexeme.equals(stmt.label.lexeme)) {
+                stmt.target = loop;
+                return null;
+            }
+        }
+        error(stmt.label, "No enclosing loop labelled '" + stmt.label.lexeme + "'.");
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        stmt.captured = false;
+        scopes.push(stmt);
+        locals.push(declared(stmt.statements, new HashSet<>()));
+        boolean scoped = false;
+        for (Stmt statement : stmt.statements) {
+            resolve(statement);
+            scoped |= declares(statement);
+        }
+        stmt.scoped = scoped;
+        locals.pop();
+        scopes.pop();
+        return null;
+    }
+
+    /*
+     * The function closes over every scope it is declared in,
+     * so none of them can be handed back to the frame pool
+     * once they are done. Loops don't reach into the body, a
+     * break inside a function can't leave a loop outside it.
+     */
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.name);
+        captureScopes();
+        resolveFunction(stmt, FunctionType.FUNCTION);
+        return null;
+    }
+
+    // The ModuleLoader resolves the modules themselves
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        return null;
+    }
+
+    /*
+     * Methods close over the scope the class is declared in
+     * just like functions do.
+     */
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        if (stmt.superclass != null && stmt.superclass.name.lexeme.equals(stmt.name.lexeme)) {
+            error(stmt.superclass.name, "A class can't inherit from itself.");
+        }
+        if (stmt.superclass != null)
+            resolve(stmt.superclass);
+        declare(stmt.name);
+
+        captureScopes();
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = method.name.lexeme.equals("init")
+                    ? FunctionType.INITIALIZER
+                    : FunctionType.METHOD;
+            resolveFunction(method, type);
+        }
+        return null;
+    }
+
+    /*
+     * The body of a parallel loop runs on several threads at
+     * once, so assigning to a variable declared outside of it
+     * would be a race. Only the loop variable and what the body
+     * declares itself can be assigned, results are collected in
+     * reduced variables, of which every thread gets its own copy.
+     * Names are matched without regard to which scope in the body
+     * they were declared in, so this catches the plain mistakes
+     * rather than every last one.
+     */
+    @Override
+    public Void visitParallelStmt(Stmt.Parallel stmt) {
+        resolve(stmt.start);
+        resolve(stmt.end);
+        Set<String> reduced = new HashSet<>();
+        for (Token name : stmt.reductions) {
+            if (name.lexeme.equals(stmt.variable.lexeme))
+                error(name, "Can't reduce into the loop variable.");
+            else if (!reduced.add(name.lexeme))
+                error(name, "Variable '" + name.lexeme + "' is reduced more than once.");
+            checkAssignable(name);
+        }
+
+        Set<String> enclosingLocals = parallelLocals;
+        Deque<Stmt.While> enclosingLoops = loops;
+        FunctionType enclosingFunction = currentFunction;
+        parallelLocals = reduced;
+        parallelLocals.add(stmt.variable.lexeme);
+        loops = new ArrayDeque<>();
+        currentFunction = FunctionType.PARALLEL;
+        stmt.captured = false;
+        scopes.push(stmt);
+        locals.push(new HashSet<>(parallelLocals));
+
+        resolve(stmt.body);
+
+        locals.pop();
+        scopes.pop();
+        currentFunction = enclosingFunction;
+        loops = enclosingLoops;
+        parallelLocals = enclosingLocals;
+        return null;
+    }
+
+    private void declare(Token name) {
+        if (parallelLocals != null)
+            parallelLocals.add(name.lexeme);
+    }
+
+    private void checkAssignable(Token name) {
+        if (parallelLocals != null && !parallelLocals.contains(name.lexeme))
+            error(name, "Can't assign to '" + name.lexeme + "' in a parallel loop, it isn't declared in it.");
+    }
+
+    private void resolveFunction(Stmt.Function function, FunctionType type) {
+        Deque<Stmt.While> enclosingLoops = loops;
+        FunctionType enclosingFunction = currentFunction;
+        loops = new ArrayDeque<>();
+        currentFunction = type;
+        function.captured = false;
+        scopes.push(function);
+        Set<String> names = declared(function.body, new HashSet<>());
+        for (Token param : function.params) {
+            declare(param);
+            names.add(param.lexeme);
+        }
+        locals.push(names);
+
+        resolve(function.body);
+
+        locals.pop();
+        scopes.pop();
+        currentFunction = enclosingFunction;
+        loops = enclosingLoops;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        if (stmt.elsebranch != null) {
+            resolve(stmt.elsebranch);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null)
+            resolve(stmt.initializer);
+        declare(stmt.name);
+        return null;
+    }
+
+    /*
+     * The spawned block may still be running long after the
+     * scopes around it are done, so just like for a function
+     * declared there none of them can go back to the pool.
+     */
+    @Override
+    public Void visitSpawnExpr(Expr.Spawn expr) {
+        captureScopes();
+        resolveFunction(expr.body, FunctionType.FUNCTION);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+        checkAssignable(expr.name);
+        expr.global = !isLocal(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitConditionalExpr(Expr.Conditional expr) {
+        resolve(expr.left);
+        resolve(expr.mid);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitPrePostExpr(Expr.PrePost expr) {
+        checkAssignable(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        expr.global = !isLocal(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        resolve(expr.callee);
+        resolveAll(expr.arguments);
+        return null;
+    }
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        resolveAll(expr.elements);
+        return null;
+    }
+
+    @Override
+    public Void visitMapExpr(Expr.Map expr) {
+        resolveAll(expr.keys);
+        resolveAll(expr.values);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        resolve(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        resolve(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        resolve(expr.object);
+        resolve(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        return null;
+    }
+
+    /*
+     * Whether executing the statement puts a new name in
+     * the environment it runs in. Nested blocks don't count
+     * as they get their own scope.
+     */
+    private boolean declares(Stmt stmt) {
+        return stmt instanceof Stmt.Var
+                || stmt instanceof Stmt.Function
+                || stmt instanceof Stmt.Class;
+    }
+
+    // Adds the names the statements put in the scope they run in
+    private Set<String> declared(List<Stmt> statements, Set<String> names) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var)
+                names.add(((Stmt.Var) statement).name.lexeme);
+            else if (statement instanceof Stmt.Function)
+                names.add(((Stmt.Function) statement).name.lexeme);
+            else if (statement instanceof Stmt.Class)
+                names.add(((Stmt.Class) statement).name.lexeme);
+        }
+        return names;
+    }
+
+    // Whether a scope around the name declares it, anywhere in the scope
+    private boolean isLocal(Token name) {
+        for (Set<String> scope : locals) {
+            if (scope.contains(name.lexeme))
+                return true;
+        }
+        return false;
+    }
+
+    // Whatever is declared here closes over every enclosing scope
+    private void captureScopes() {
+        for (Stmt scope : scopes) {
+            if (!capture(scope))
+                break; // Everything further out is already captured
+        }
+    }
+
+    // Marks a scope as captured, returns false if it already was
+    private boolean capture(Stmt scope) {
+        if (scope instanceof Stmt.Block) {
+            Stmt.Block block = (Stmt.Block) scope;
+            if (block.captured)
+                return false;
+            block.captured = true;
+        } else if (scope instanceof Stmt.Parallel) {
+            Stmt.Parallel loop = (Stmt.Parallel) scope;
+            if (loop.captured)
+                return false;
+            loop.captured = true;
+        } else {
+            Stmt.Function function = (Stmt.Function) scope;
+            if (function.captured)
+                return false;
+            function.captured = true;
+        }
+        return true;
+    }
+
+    private void error(Token token, String message) {
+        diagnostics.report(new Diagnostic(Diagnostic.Kind.SYNTAX, token, message));
+    }
+
+    private final Diagnostics diagnostics;
+    // Loops enclosing the statement being resolved, innermost first
+    private Deque<Stmt.While> loops = new ArrayDeque<>();
+    // Blocks, function and parallel loop bodies enclosing it, innermost first
+    private final Deque<Stmt> scopes = new ArrayDeque<>();
+    // Names declared in each of them, outside of the global scope
+    private final Deque<Set<String>> locals = new ArrayDeque<>();
+    // Names the innermost parallel loop may assign, null outside of one
+    private Set<String> parallelLocals = null;
+
+    private enum FunctionType {
+        NONE, FUNCTION, METHOD, INITIALIZER, PARALLEL
+    }
+
+    private FunctionType currentFunction = FunctionType.NONE;
+}
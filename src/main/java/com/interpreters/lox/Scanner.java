@@ -1,5 +1,8 @@
 package com.interpreters.lox;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -8,8 +11,33 @@ import java.util.Map;
 // import com.interpreter.lox.Error.ScannerError;
 
 public class Scanner {
-    Scanner(String source) {
+    Scanner(String source, Diagnostics diagnostics) {
+        this(source, null, diagnostics);
+    }
+
+    // Scans an imported module, whose tokens all know its file
+    Scanner(String source, String file, Diagnostics diagnostics) {
         this.source = source;
+        this.file = file;
+        this.diagnostics = diagnostics;
+        this.input = null;
+        this.chunk = null;
+    }
+
+    /*
+     * Scans source read from `input` a chunk at a time, as next()
+     * asks for more tokens, so tokens come out as soon as their
+     * text has arrived. What was scanned before the token being
+     * scanned is let go the next time a chunk comes in, so the
+     * source is a builder that chunks are appended to rather
+     * than a String made again for every one of them.
+     */
+    Scanner(Reader input, Diagnostics diagnostics) {
+        this.source = new StringBuilder();
+        this.file = null;
+        this.diagnostics = diagnostics;
+        this.input = input;
+        this.chunk = new char[CHUNK];
     }
 
     List<Token> scanTokens() {
@@ -19,17 +47,62 @@ public class Scanner {
                 scanToken();
             }
         } catch (LoxError.ScannerError e) {
-            LoxError.panic(e);
+            diagnostics.report(e);
             return null;
         }
 
         // Adding an EOF after entire code is scanned
-        tokens.add(new Token(TokenType.EOF, "", null, line));
+        tokens.add(new Token(TokenType.EOF, "", null, line, file));
         return tokens;
     }
 
+    /*
+     * The next token, EOF once there are no more. Scanning it
+     * only reads as much of the input as the token takes. An
+     * unexpected character is thrown as a ScannerError, other
+     * errors are reported as they are when scanning all of it.
+     */
+    Token next() {
+        tokens.clear();
+        while (tokens.isEmpty()) {
+            if (isAtEnd())
+                return new Token(TokenType.EOF, "", null, line, file);
+            start = current;
+            scanToken();
+        }
+        return tokens.get(0);
+    }
+
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= source.length() && !refill();
+    }
+
+    /*
+     * Reads the next chunk of input, keeping the part of the
+     * source from the start of the token being scanned on.
+     * Returns false if there is no more. What comes before that
+     * is only dropped once a token was made since the last
+     * chunk, so a token spanning many chunks, like a long string
+     * or comment, is never copied more than once.
+     */
+    private boolean refill() {
+        if (input == null)
+            return false;
+        try {
+            int read = input.read(chunk);
+            if (read < 0)
+                return false;
+            StringBuilder pending = (StringBuilder) source;
+            if (start > 0) {
+                pending.delete(0, start);
+                current -= start;
+                start = 0;
+            }
+            pending.append(chunk, 0, read);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
     }
 
     private void scanToken() {
@@ -49,7 +122,7 @@ public class Scanner {
                 addToken(TokenType.RIGHT_BRACE);
                 break;
             case '[':
-                addToken(TokenType.RIGHT_SQ_BRACE);
+                addToken(TokenType.LEFT_SQ_BRACE);
                 break;
             case ']':
                 addToken(TokenType.RIGHT_SQ_BRACE);
@@ -140,10 +213,10 @@ public class Scanner {
                      * -> This is also advantageous as there can be
                      * further errors in the code which can be reported
                      * to the programmer in one go.
-                     * -> Also none of the code will be executed as hasError
-                     * will be set to true
+                     * -> Also none of the code will be executed as the
+                     * error ends up in the run's diagnostics
                      */
-                    throw new LoxError.ScannerError(new Token(null, String.valueOf(c), null, line),
+                    throw new LoxError.ScannerError(new Token(null, String.valueOf(c), null, line, file),
                             "Unexpected Character");
                 }
                 break;
@@ -172,8 +245,10 @@ public class Scanner {
      * Peek at next character
      */
     private char peekNext() {
-        if (current + 1 >= source.length())
-            return '\0';
+        while (current + 1 >= source.length()) {
+            if (!refill())
+                return '\0';
+        }
         return source.charAt(current + 1);
     }
 
@@ -187,8 +262,8 @@ public class Scanner {
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        String text = text(start, current);
+        tokens.add(new Token(type, text, literal, line, file));
     }
 
     /*
@@ -232,11 +307,12 @@ public class Scanner {
         }
 
         if (isAtEnd()) {
-            Lox.error(new Token(null, String.valueOf(peek()), null, line), "Unterminated string.");
+            diagnostics.report(new Diagnostic(Diagnostic.Kind.SYNTAX,
+                    new Token(null, String.valueOf(peek()), null, line, file), "Unterminated string."));
         } else {
             consume(); // consume the closing quote if any or return EOF
             // quotes are not part of string
-            String str = source.substring(start + 1, current - 1);
+            String str = text(start + 1, current - 1);
             addToken(TokenType.STRING, str);
         }
 
@@ -265,39 +341,49 @@ public class Scanner {
                 consume();
         }
 
-        addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(TokenType.NUMBER, Double.parseDouble(text(start, current)));
     }
 
     /*
      * Scanning series of text until we hit a whitespace
      * or non alpha-numeric character(maximal munch) then we see
      * if it exists in a keywords map. If it does then add the
-     * associated token, else its and identifier
+     * associated token, else its and identifier, or a label if
+     * a ':' follows right after it, with the name's symbol
      */
     private void identifier() {
         while (isAlphaNum(peek()))
             consume();
 
-        if (peek() == ':') {
-            TokenType type = TokenType.LABEL;
+        String text = text(start, current);
+        TokenType type = keywords.get(text);
+        if (type != null) {
             addToken(type);
             return;
         }
+        // Names are interned, every token spelling one shares its symbol's String
+        int symbol = Symbols.id(text);
+        type = peek() == ':' ? TokenType.LABEL : TokenType.IDENTIFIER;
+        tokens.add(new Token(type, Symbols.name(symbol), null, line, file, symbol));
+    }
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null)
-            type = TokenType.IDENTIFIER;
-        addToken(type);
+    private String text(int from, int to) {
+        return source.subSequence(from, to).toString();
     }
 
     /*
-     * source contains the source code in string format
+     * source contains the source code, a String unless it is streamed
      * tokens contains all the parsed tokens from the source
      * keywords contain all possible keywords in JLox
      */
-    private final String source;
+    private final CharSequence source;
+    private final String file;
+    private final Diagnostics diagnostics;
     private final List<Token> tokens = new ArrayList<>();
+    // Where more of the source comes from when it is streamed, null otherwise
+    private final Reader input;
+    private final char[] chunk;
+    private static final int CHUNK = 8192;
     private final static Map<String, TokenType> keywords;
 
     static {
@@ -320,6 +406,10 @@ public class Scanner {
         keywords.put("while", TokenType.WHILE);
         keywords.put("break", TokenType.BREAK);
         keywords.put("continue", TokenType.CONTINUE);
+        keywords.put("spawn", TokenType.SPAWN);
+        keywords.put("parallel", TokenType.PARALLEL);
+        keywords.put("reduce", TokenType.REDUCE);
+        keywords.put("import", TokenType.IMPORT);
     }
 
     /*
@@ -0,0 +1,56 @@
+package com.interpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * A shape (or hidden class) describes the layout of an
+ * instance: which field lives in which slot of its field
+ * array. Instances don't carry a map of their own, every
+ * instance with the same fields added in the same order
+ * shares one shape.
+ *
+ * Each class starts its instances off with an empty root
+ * shape of its own. Adding a field moves an instance to the
+ * shape with that one extra field, and that transition is
+ * remembered so all instances that add the same fields in
+ * the same order end up on the very same shape objects. So a
+ * shape also tells which class an instance belongs to, which
+ * is what makes it a good key for the inline caches on
+ * property sites.
+ *
+ * Shapes deliberately don't point back to their class. Caches
+ * on the syntax tree keep shapes alive after the program run
+ * that created them is over, and a class would keep all of
+ * that run's methods, closures and globals alive with it.
+ */
+final class Shape {
+    // The root shape of a class
+    Shape() {
+        this.slots = new HashMap<>();
+    }
+
+    private Shape(Shape parent, String name) {
+        this.slots = new HashMap<>(parent.slots);
+        this.slots.put(name, parent.size());
+    }
+
+    int size() {
+        return slots.size();
+    }
+
+    // The slot holding the field, or -1 if there's no such field
+    int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    // The shape an instance of this shape moves to when given the field
+    Shape with(String name) {
+        return transitions.computeIfAbsent(name, field -> new Shape(this, field));
+    }
+
+    private final Map<String, Integer> slots;
+    private final Map<String, Shape> transitions = new ConcurrentHashMap<>();
+}
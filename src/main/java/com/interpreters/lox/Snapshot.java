@@ -0,0 +1,466 @@
+package com.interpreters.lox;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/*
+ * Writes the globals of a context to a stream and reads them
+ * back into another, so that a program that spends its first
+ * minutes building tables can build them once, save them, and
+ * have every later run start from the saved ones.
+ *
+ * What is saved is data: nil, booleans, numbers, strings,
+ * arrays and maps, persistent vectors and maps as well, to any
+ * depth. An array or map reachable in
+ * more than one way is written once and the others refer to
+ * it, so sharing and cycles come back just as they were, and
+ * so does every string after the first with the same contents,
+ * which keeps tables of maps with the same keys small. Arrays
+ * of numbers go out as raw doubles and come back without ever
+ * being boxed.
+ *
+ * The one cycle that can't come back is one through a
+ * persistent vector or map, one holding an array or map that
+ * holds it in turn. It can only be built once everything in it
+ * has been read, so whatever inside it refers back to it would
+ * have to refer to something that doesn't exist yet. Saving
+ * such a global fails like saving a function in a table does,
+ * whichever part of the cycle the walk comes to first.
+ *
+ * Functions and classes are code, the declarations that define
+ * them define them again, so globals holding them are left out.
+ * An instance has a class and so code too, and tasks and
+ * channels belong to the run that made them, so a global that
+ * holds one of those, at any depth, can't be saved at all.
+ *
+ * Both sides stream: values are written as they are walked
+ * and built as they are read, never held as bytes in between.
+ * They go through buffers of their own rather than Data and
+ * Buffered streams, which take a lock for every byte, and that
+ * was most of the time it took to read a snapshot back.
+ * A snapshot is
+ *   int    MAGIC
+ *   short  VERSION
+ *   int    number of globals, then each as its name and its value
+ * and a value a tag, followed by
+ *   INT        an int, for whole numbers that fit one
+ *   NUMBER     a double
+ *   STRING     int length and UTF-8 bytes, like names
+ *   NUMBERS    int size and a double per element
+ *   ARRAY      int size and a value per element
+ *   MAP        int size and a key and value per entry
+ *   VECTOR     like ARRAY, for a persistent vector
+ *   HASH       like MAP, for a persistent map
+ *   REF        int id of a string or collection read before,
+ *              counting each from 0 in the order they were read
+ * and nothing for NIL, FALSE and TRUE.
+ */
+final class Snapshot {
+    private Snapshot(Output out) {
+        this.out = out;
+    }
+
+    // Writes the globals, returning how many of them were written
+    static int save(Environment globals, OutputStream stream) throws IOException {
+        Map<String, Object> saved = new LinkedHashMap<>();
+        globals.forEach((name, value) -> {
+            if (!(value instanceof LoxCallable))
+                saved.put(name, value);
+        });
+
+        Output out = new Output(stream);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(saved.size());
+        Snapshot snapshot = new Snapshot(out);
+        for (Map.Entry<String, Object> global : saved.entrySet()) {
+            snapshot.writeString(global.getKey());
+            try {
+                snapshot.write(global.getValue());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Can't save '" + global.getKey() + "', " + e.getMessage());
+            }
+        }
+        out.flush();
+        return saved.size();
+    }
+
+    /*
+     * Reads globals written by save() and defines them, replacing
+     * globals of the same names. Nothing is defined unless all of
+     * them could be read.
+     */
+    static int restore(Environment globals, InputStream stream) throws IOException {
+        Input in = new Input(stream);
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a Lox snapshot.");
+        int version = in.readShort();
+        if (version != VERSION)
+            throw new IOException("Can't read a version " + version + " snapshot, only version " + VERSION + ".");
+
+        int count = in.readInt();
+        List<Object> read = new ArrayList<>();
+        Map<String, Object> restored = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String name = readString(in);
+            restored.put(name, read(in, read));
+        }
+        restored.forEach(globals::define);
+        return count;
+    }
+
+    private void write(Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NIL);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Double) {
+            double number = (Double) value;
+            if (number == (int) number && Double.doubleToRawLongBits(number) != NEGATIVE_ZERO) {
+                out.writeByte(INT);
+                out.writeInt((int) number);
+            } else {
+                out.writeByte(NUMBER);
+                out.writeDouble(number);
+            }
+        } else if (value instanceof String) {
+            Integer id = strings.get(value);
+            if (id != null) {
+                out.writeByte(REF);
+                out.writeInt(id);
+                return;
+            }
+            strings.put((String) value, ids++);
+            out.writeByte(STRING);
+            writeString((String) value);
+        } else if (value instanceof LoxArray || value instanceof LoxMap || value instanceof PersistentVector
+                || value instanceof PersistentMap) {
+            Integer id = objects.get(value);
+            if (id != null) {
+                Integer depth = depths.get(value);
+                if (depth != null)
+                    cycle(depth);
+                out.writeByte(REF);
+                out.writeInt(id);
+                return;
+            }
+            objects.put(value, ids++);
+            depths.put(value, open.size());
+            open.add(value);
+            if (value instanceof LoxArray)
+                writeArray((LoxArray) value);
+            else if (value instanceof LoxMap)
+                writeMap(MAP, ((LoxMap) value).size(), ((LoxMap) value)::forEach);
+            else if (value instanceof PersistentVector)
+                writeVector((PersistentVector) value);
+            else
+                writeMap(HASH, ((PersistentMap) value).size(), ((PersistentMap) value)::forEach);
+            open.remove(open.size() - 1);
+            depths.remove(value);
+        } else {
+            throw new IllegalArgumentException("it holds " + describe(value) + ".");
+        }
+    }
+
+    // A reference back to what is open at that depth closes a cycle, which mustn't go through a persistent one
+    private void cycle(int depth) {
+        for (int i = depth; i < open.size(); i++) {
+            Object value = open.get(i);
+            if (value instanceof PersistentVector || value instanceof PersistentMap)
+                throw new IllegalArgumentException("it holds " + describe(value) + " that holds itself.");
+        }
+    }
+
+    private void writeString(String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String describe(Object value) {
+        if (value instanceof LoxInstance)
+            return "a " + ((LoxInstance) value).klass.name + " instance";
+        if (value instanceof LoxCallable)
+            return "a function or class";
+        if (value instanceof LoxTask)
+            return "a task";
+        if (value instanceof LoxChannel)
+            return "a channel";
+        if (value instanceof PersistentVector)
+            return "a persistent vector";
+        if (value instanceof PersistentMap)
+            return "a persistent map";
+        return Interpreter.stringify(value);
+    }
+
+    private void writeArray(LoxArray array) throws IOException {
+        int size = array.size();
+        if (array.isNumeric()) {
+            out.writeByte(NUMBERS);
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeDouble(array.getNumber(i));
+            }
+            return;
+        }
+        out.writeByte(ARRAY);
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            write(array.get(i));
+        }
+    }
+
+    private void writeVector(PersistentVector vector) throws IOException {
+        out.writeByte(VECTOR);
+        out.writeInt(vector.size());
+        for (int i = 0; i < vector.size(); i++) {
+            write(vector.get(i));
+        }
+    }
+
+    // Either kind of map, given by its forEach
+    private void writeMap(byte tag, int size, Consumer<BiConsumer<Object, Object>> entries) throws IOException {
+        out.writeByte(tag);
+        out.writeInt(size);
+        IOException[] failed = { null };
+        entries.accept((key, value) -> {
+            if (failed[0] != null)
+                return;
+            try {
+                write(key);
+                write(value);
+            } catch (IOException e) {
+                failed[0] = e;
+            }
+        });
+        if (failed[0] != null)
+            throw failed[0];
+    }
+
+    // Reads a value, `read` holding the strings, arrays and maps read so far
+    private static Object read(Input in, List<Object> read) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NIL:
+                return null;
+            case FALSE:
+                return false;
+            case TRUE:
+                return true;
+            case INT:
+                return (double) in.readInt();
+            case NUMBER:
+                return in.readDouble();
+            case STRING: {
+                String string = readString(in);
+                read.add(string);
+                return string;
+            }
+            case NUMBERS: {
+                int size = in.readInt();
+                LoxArray array = new LoxArray(size);
+                read.add(array);
+                for (int i = 0; i < size; i++) {
+                    array.add(in.readDouble());
+                }
+                return array;
+            }
+            case ARRAY: {
+                int size = in.readInt();
+                LoxArray array = new LoxArray(size);
+                read.add(array);
+                for (int i = 0; i < size; i++) {
+                    array.add(read(in, read));
+                }
+                return array;
+            }
+            case MAP: {
+                int size = in.readInt();
+                LoxMap map = new LoxMap();
+                read.add(map);
+                for (int i = 0; i < size; i++) {
+                    Object key = read(in, read);
+                    map.put(key, read(in, read));
+                }
+                return map;
+            }
+            case VECTOR: {
+                // Nothing in it refers back to it, see cycle(), so it only takes its id once built
+                int size = in.readInt();
+                int id = read.size();
+                read.add(null);
+                PersistentVector.Transient vector = PersistentVector.EMPTY.asTransient();
+                for (int i = 0; i < size; i++) {
+                    vector = vector.conj(read(in, read));
+                }
+                read.set(id, vector.persistent());
+                return read.get(id);
+            }
+            case HASH: {
+                int size = in.readInt();
+                int id = read.size();
+                read.add(null);
+                PersistentMap.Transient map = PersistentMap.EMPTY.asTransient();
+                for (int i = 0; i < size; i++) {
+                    Object key = read(in, read);
+                    map = map.assoc(key, read(in, read));
+                }
+                read.set(id, map.persistent());
+                return read.get(id);
+            }
+            case REF: {
+                int id = in.readInt();
+                if (id < 0 || id >= read.size())
+                    throw new IOException("Broken snapshot, reference to value " + id + " of " + read.size() + ".");
+                return read.get(id);
+            }
+            default:
+                throw new IOException("Broken snapshot, unknown tag " + tag + ".");
+        }
+    }
+
+    private static String readString(Input in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Buffers what is written, handing it to the stream a buffer full at a time
+    private static final class Output {
+        Output(OutputStream stream) {
+            this.stream = stream;
+        }
+
+        void writeByte(int value) throws IOException {
+            room(1).put((byte) value);
+        }
+
+        void writeShort(int value) throws IOException {
+            room(2).putShort((short) value);
+        }
+
+        void writeInt(int value) throws IOException {
+            room(4).putInt(value);
+        }
+
+        void writeDouble(double value) throws IOException {
+            room(8).putDouble(value);
+        }
+
+        void write(byte[] bytes) throws IOException {
+            if (bytes.length > buffer.remaining()) {
+                flush();
+                stream.write(bytes);
+                return;
+            }
+            buffer.put(bytes);
+        }
+
+        void flush() throws IOException {
+            stream.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+            stream.flush();
+        }
+
+        private ByteBuffer room(int bytes) throws IOException {
+            if (buffer.remaining() < bytes)
+                flush();
+            return buffer;
+        }
+
+        private final OutputStream stream;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+    }
+
+    // Reads the stream a buffer full at a time
+    private static final class Input {
+        Input(InputStream stream) {
+            this.stream = stream;
+            buffer.flip();
+        }
+
+        byte readByte() throws IOException {
+            return fill(1).get();
+        }
+
+        short readShort() throws IOException {
+            return fill(2).getShort();
+        }
+
+        int readInt() throws IOException {
+            return fill(4).getInt();
+        }
+
+        double readDouble() throws IOException {
+            return fill(8).getDouble();
+        }
+
+        void readFully(byte[] bytes) throws IOException {
+            int offset = Math.min(bytes.length, buffer.remaining());
+            buffer.get(bytes, 0, offset);
+            if (offset < bytes.length && stream.readNBytes(bytes, offset, bytes.length - offset) < bytes.length - offset)
+                throw new EOFException("Snapshot ends early.");
+        }
+
+        // The buffer, with at least that many bytes left to read in it
+        private ByteBuffer fill(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes)
+                return buffer;
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                int read = stream.read(buffer.array(), buffer.position(), buffer.remaining());
+                if (read < 0)
+                    throw new EOFException("Snapshot ends early.");
+                buffer.position(buffer.position() + read);
+            }
+            return buffer.flip();
+        }
+
+        private final InputStream stream;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+    }
+
+    // "LOXS"
+    private static final int MAGIC = 0x4C4F5853;
+    // Goes up with every change to the format, older snapshots are then refused
+    static final short VERSION = 1;
+
+    // Tags of values
+    private static final byte NIL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+    private static final byte INT = 3;
+    private static final byte NUMBER = 4;
+    private static final byte STRING = 5;
+    private static final byte NUMBERS = 6;
+    private static final byte ARRAY = 7;
+    private static final byte MAP = 8;
+    private static final byte REF = 9;
+    private static final byte VECTOR = 10;
+    private static final byte HASH = 11;
+
+    private static final int BUFFER = 1 << 16;
+
+    private static final long NEGATIVE_ZERO = Double.doubleToRawLongBits(-0.0);
+
+    private final Output out;
+    // Ids of the strings, arrays and maps written so far
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final Map<Object, Integer> objects = new IdentityHashMap<>();
+    // The arrays and maps being written, outermost first, and where each of them is in that
+    private final List<Object> open = new ArrayList<>();
+    private final Map<Object, Integer> depths = new IdentityHashMap<>();
+    private int ids = 0;
+}
@@ -0,0 +1,133 @@
+package com.interpreters.lox;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * The top level statements of a source that is still being
+ * read, for running each as soon as it is complete instead of
+ * after all of it has been scanned, parsed and resolved. For a
+ * long generated script, or one piped in from the program that
+ * generates it, the first output then comes right away rather
+ * than after the whole of the source is in, and none of the
+ * statements that already ran are held on to.
+ *
+ * A thread of its own reads, scans, parses and resolves the
+ * source and hands over the statements through a short queue,
+ * so it stays a few statements ahead of the one running and no
+ * more. The imports among them are loaded before they are
+ * handed over, along with everything they import in turn.
+ *
+ * Unlike a PreparedScript, the statements before a syntax error
+ * have already run by the time it is found. It is reported all
+ * the same and nothing after it runs.
+ */
+final class StatementStream {
+    /*
+     * Starts reading the source of `file`, which imports are
+     * relative to, or without one to the working directory.
+     */
+    StatementStream(Reader source, Path file) {
+        this.source = source;
+        this.file = file;
+        this.producer = new Thread(this::produce, "lox-parser");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    // The next statement, null when there are none left
+    Stmt take() throws IOException {
+        Object next;
+        try {
+            next = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the next statement.");
+        }
+        if (next != END)
+            return (Stmt) next;
+        queue.add(END);
+        if (failure != null)
+            throw failure;
+        return null;
+    }
+
+    // The syntax errors found, once take() has returned null
+    List<Diagnostic> errors() {
+        return errors;
+    }
+
+    // Stops reading, for when the statements that are left won't be run
+    void close() {
+        producer.interrupt();
+    }
+
+    private void produce() {
+        Diagnostics diagnostics = new Diagnostics();
+        Parser parser = new Parser(new Scanner(source, diagnostics), diagnostics);
+        boolean closed = false;
+        try {
+            Resolver resolver = new Resolver(diagnostics);
+            Stmt statement;
+            while ((statement = parser.next()) != null && !diagnostics.hasErrors()) {
+                List<Stmt> resolved = List.of(statement);
+                resolver.resolve(resolved);
+                if (statement instanceof Stmt.Import && !diagnostics.hasErrors())
+                    modules.putAll(ModuleLoader.load(resolved, file, diagnostics));
+                if (diagnostics.hasErrors())
+                    break;
+                queue.put(statement);
+            }
+        } catch (LoxError.ScannerError error) {
+            diagnostics.report(error);
+        } catch (LoxError.ParserError error) {
+            // After the scanner reported an error the parser only runs into the end it made
+            if (!diagnostics.hasErrors())
+                diagnostics.report(error);
+        } catch (UncheckedIOException e) {
+            failure = e.getCause();
+        } catch (InterruptedException e) {
+            closed = true;
+        } catch (StackOverflowError e) {
+            // Source nested deeper than the parser can go, reported where it got to
+            diagnostics.report(new Diagnostic(Diagnostic.Kind.RUNTIME, parser.reached(), "Stack overflow."));
+        } catch (RuntimeException e) {
+            diagnostics.report(new Diagnostic(Diagnostic.Kind.RUNTIME, parser.reached(), "Internal error: " + e));
+        } finally {
+            // Whatever stopped the thread, the statement waiting for it has to find out
+            errors = diagnostics.list();
+            if (!closed) {
+                try {
+                    queue.put(END);
+                } catch (InterruptedException e) {
+                    // Nobody is waiting for the end anymore
+                }
+            }
+        }
+    }
+
+    // Statements parsed ahead of the one running at most
+    private static final int AHEAD = 64;
+
+    // Follows the last statement, or whatever ended the stream early
+    private static final Object END = new Object();
+
+    // Every module imported so far, for the interpreter to find them by path
+    final Map<Path, Module> modules = new ConcurrentHashMap<>();
+
+    private final Reader source;
+    private final Path file;
+    private final Thread producer;
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(AHEAD);
+    // Set before END is queued
+    private List<Diagnostic> errors = List.of();
+    private IOException failure = null;
+}
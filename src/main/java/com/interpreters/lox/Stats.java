@@ -0,0 +1,97 @@
+package com.interpreters.lox;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/*
+ * Counters of what the interpreter does, for keeping an eye on
+ * scripts in production. They are off unless the JVM is started
+ * with -Dlox.stats=true (which --stats sets before anything is
+ * run), and once on they count every run of every context in
+ * the JVM, and can be read over JMX as LoxStatsMXBean.
+ *
+ * Whether they are on is a static final field, read once when
+ * the class is loaded. With it off the JIT drops every
+ * `if (Stats.ENABLED)` in the interpreter entirely, so the
+ * counters cost nothing at all. With it on each count is an
+ * increment of a LongAdder, which threads running scripts side
+ * by side don't contend on.
+ */
+final class Stats {
+    private Stats() {
+    }
+
+    static void report(PrintStream out) {
+        out.println("Statements executed:  " + STATEMENTS.sum());
+        out.println("Environments created: " + ENVIRONMENTS.sum());
+        out.println("Scope chain hops:     " + SCOPE_HOPS.sum());
+        out.println("Numbers boxed:        " + NUMBERS_BOXED.sum());
+        out.println("Runtime errors:       " + RUNTIME_ERRORS.sum());
+    }
+
+    // The counters as the MXBean shows them
+    private static final class View implements LoxStatsMXBean {
+        @Override
+        public long getStatementsExecuted() {
+            return STATEMENTS.sum();
+        }
+
+        @Override
+        public long getEnvironmentsCreated() {
+            return ENVIRONMENTS.sum();
+        }
+
+        @Override
+        public long getScopeChainHops() {
+            return SCOPE_HOPS.sum();
+        }
+
+        @Override
+        public long getNumbersBoxed() {
+            return NUMBERS_BOXED.sum();
+        }
+
+        @Override
+        public long getRuntimeErrors() {
+            return RUNTIME_ERRORS.sum();
+        }
+
+        @Override
+        public void reset() {
+            STATEMENTS.reset();
+            ENVIRONMENTS.reset();
+            SCOPE_HOPS.reset();
+            NUMBERS_BOXED.reset();
+            RUNTIME_ERRORS.reset();
+        }
+    }
+
+    static final boolean ENABLED = Boolean.getBoolean("lox.stats");
+
+    // Statements the interpreters have executed
+    static final LongAdder STATEMENTS = new LongAdder();
+    // Environments allocated, not counting ones reused from a frame pool
+    static final LongAdder ENVIRONMENTS = new LongAdder();
+    // Times fetch() or assign() had to go on to an enclosing scope
+    static final LongAdder SCOPE_HOPS = new LongAdder();
+    // Results of arithmetic the interpreter had to box into a Double
+    static final LongAdder NUMBERS_BOXED = new LongAdder();
+    // Runtime errors raised, whether or not something caught them
+    static final LongAdder RUNTIME_ERRORS = new LongAdder();
+
+    static final String OBJECT_NAME = "com.interpreters.lox:type=Stats";
+
+    static {
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new View(), new ObjectName(OBJECT_NAME));
+            } catch (JMException e) {
+                // Someone else registered it, the counters still work
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.interpreters.lox;
 
+import java.nio.file.Path;
 import java.util.List;
 
 abstract class Stmt {
@@ -16,13 +17,25 @@ abstract class Stmt {
 
         T visitVarStmt(Var stmt);
 
+        T visitJumpStmt(Jump stmt);
+
+        T visitFunctionStmt(Function stmt);
+
+        T visitClassStmt(Class stmt);
+
+        T visitParallelStmt(Parallel stmt);
+
+        T visitImportStmt(Import stmt);
+
     }
 
     static class While extends Stmt {
-        While(Token label, Expr condition, Stmt body) {
+        While(Token keyword, Token label, Expr condition, Stmt body, Stmt increment) {
+            this.keyword = keyword;
             this.label = label;
             this.condition = condition;
             this.body = body;
+            this.increment = increment;
         }
 
         @Override
@@ -30,9 +43,17 @@ abstract class Stmt {
             return visitor.visitWhileStmt(this);
         }
 
+        // The `for` or `while` the loop was written with
+        final Token keyword;
         final Token label;
         final Expr condition;
         final Stmt body;
+        final Stmt increment;
+        /*
+         * Set by the LoopAnalyzer on a for loop whose iterations
+         * can run in parallel, null for every other loop.
+         */
+        ParallelPlan plan;
     }
 
     static class Block extends Stmt {
@@ -46,6 +67,16 @@ abstract class Stmt {
         }
 
         final List<Stmt> statements;
+        /*
+         * Set by the Resolver, false when nothing in the block
+         * declares a name and it can run in the enclosing scope.
+         */
+        boolean scoped = true;
+        /*
+         * Set by the Resolver, false unless a function declared
+         * inside the block can hold on to its environment.
+         */
+        boolean captured = true;
     }
 
     static class Expression extends Stmt {
@@ -106,5 +137,120 @@ abstract class Stmt {
         final Expr initializer;
     }
 
+    static class Jump extends Stmt {
+        Jump(Token keyword, Token label, Expr value) {
+            this.keyword = keyword;
+            this.label = label;
+            this.value = value;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitJumpStmt(this);
+        }
+
+        final Token keyword;
+        final Token label;
+        final Expr value;
+        /*
+         * The loop a break/continue leaves or continues, found
+         * by the Resolver. Always null for a return.
+         */
+        While target;
+    }
+
+    static class Function extends Stmt {
+        Function(Token name, List<Token> params, List<Stmt> body) {
+            this.name = name;
+            this.params = params;
+            this.body = body;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitFunctionStmt(this);
+        }
+
+        final Token name;
+        final List<Token> params;
+        final List<Stmt> body;
+        /*
+         * Set by the Resolver when a function declared inside
+         * the body can hold on to the frame of a call.
+         */
+        boolean captured = true;
+    }
+
+    static class Class extends Stmt {
+        Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
+            this.name = name;
+            this.superclass = superclass;
+            this.methods = methods;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitClassStmt(this);
+        }
+
+        final Token name;
+        final Expr.Variable superclass;
+        final List<Stmt.Function> methods;
+    }
+
+    static class Parallel extends Stmt {
+        Parallel(Token keyword, Token variable, Expr start, Expr end, List<Token> operators, List<Token> reductions,
+                Stmt body) {
+            this.keyword = keyword;
+            this.variable = variable;
+            this.start = start;
+            this.end = end;
+            this.operators = operators;
+            this.reductions = reductions;
+            this.body = body;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitParallelStmt(this);
+        }
+
+        final Token keyword;
+        // The loop counts `variable` up from `start` to before `end`
+        final Token variable;
+        final Expr start;
+        final Expr end;
+        // Each reduced variable with the operator combining its values
+        final List<Token> operators;
+        final List<Token> reductions;
+        final Stmt body;
+        /*
+         * Set by the Resolver, false unless a function declared
+         * in the body can hold on to the environment of a run.
+         */
+        boolean captured = true;
+    }
+
+    static class Import extends Stmt {
+        Import(Token keyword, Token file) {
+            this.keyword = keyword;
+            this.file = file;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitImportStmt(this);
+        }
+
+        final Token keyword;
+        // The string literal naming the module, relative to the importing file
+        final Token file;
+        // Set by the ModuleLoader, the module's absolute path
+        Path path;
+    }
+
     abstract <T> T accept(Visitor<T> visitor);
+
+    // The line the statement starts on, set by the Parser
+    int line;
 }
@@ -0,0 +1,57 @@
+package com.interpreters.lox;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Every name any script in the JVM uses gets a small number of
+ * its own, its symbol, the first time the scanner comes across
+ * it. Tokens that spell the same name then carry the same
+ * symbol and the very same String as their lexeme, rather than
+ * a substring of their own, so comparing two names for the
+ * scopes' maps never gets past comparing references.
+ *
+ * Globals are kept by symbol, see Globals, which takes a name
+ * to its variable without hashing it at all.
+ *
+ * Symbols are never forgotten. Any token of any prepared script
+ * may still carry one, and scripts run in contexts of any engine,
+ * so no table smaller than the JVM could tell when a symbol is
+ * no longer in use. The price is a String and a few words for
+ * every name ever scanned, which a server running scripts that
+ * make up names of their own keeps paying for as long as it
+ * runs. Globals are kept so that they don't add to it, a table
+ * only takes room for the symbols it actually holds.
+ */
+final class Symbols {
+    private Symbols() {
+    }
+
+    // The symbol of the name, a new one if it has none yet
+    static int id(String name) {
+        Integer id = IDS.get(name);
+        if (id != null)
+            return id;
+        synchronized (Symbols.class) {
+            id = IDS.get(name);
+            if (id != null)
+                return id;
+            if (count == names.length)
+                names = Arrays.copyOf(names, count * 2);
+            names[count] = name;
+            IDS.put(name, count);
+            return count++;
+        }
+    }
+
+    // The name of a symbol, the one String all tokens spelling it share
+    static String name(int id) {
+        return names[id];
+    }
+
+    private static final Map<String, Integer> IDS = new ConcurrentHashMap<>();
+    // Written before the symbol is handed out, so readers always find their name
+    private static volatile String[] names = new String[256];
+    private static int count = 0;
+}
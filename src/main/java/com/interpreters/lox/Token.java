@@ -2,10 +2,28 @@ package com.interpreters.lox;
 
 public class Token {
     Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line, null);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, String file) {
+        this(type, lexeme, literal, line, file, -1);
+    }
+
+    // A name the scanner already looked up the symbol of, lexeme being the symbol's name
+    Token(TokenType type, String lexeme, Object literal, int line, String file, int symbol) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.file = file;
+        this.symbol = symbol;
+    }
+
+    // The symbol of the lexeme, see Symbols, looked up on first use for tokens the scanner didn't make
+    int symbol() {
+        if (symbol < 0)
+            symbol = Symbols.id(lexeme);
+        return symbol;
     }
 
     public String toString() {
@@ -16,4 +34,8 @@ public class Token {
     final String lexeme;
     final Object literal;
     final int line;
+    // The module the token is from, null for the script being run itself
+    final String file;
+    // Every thread that looks it up finds the same one, so racing to store it is harmless
+    private int symbol;
 }
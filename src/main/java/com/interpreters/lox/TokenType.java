@@ -21,7 +21,7 @@ public enum TokenType {
     // Keywords.
     AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
     PRINT, RETURN, SUPER, THIS, TRUE, LET, WHILE,
-    BREAK, CONTINUE,
+    BREAK, CONTINUE, SPAWN, PARALLEL, REDUCE, IMPORT,
 
     EOF
 }
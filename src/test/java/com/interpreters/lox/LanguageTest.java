@@ -0,0 +1,243 @@
+package com.interpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Runs small scripts and checks what they print, for the parts
+ * of the language that only show in how a script behaves.
+ */
+public class LanguageTest
+    extends TestCase
+{
+    public LanguageTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( LanguageTest.class );
+    }
+
+    public void testLoopBodiesGetAFreshScopeEveryIteration()
+    {
+        assertEquals( "30\n999000\n3\n1\n5050\n", run( "let fs = [];\n"
+            + "for (let i = 0; i < 3; i++) { let n = i * 10; fun f() { return n; } push(fs, f); }\n"
+            + "let total = 0;\n"
+            + "for (let i = 0; i < 1000; i++) { let sq = i * 2; total = total + sq; }\n"
+            + "print(fs[0]() + fs[1]() + fs[2]());\n"
+            + "print(total);\n"
+            + "let x = 1;\n"
+            + "{ let x = 2; { x = 3; } print(x); }\n"
+            + "print(x);\n"
+            + "fun count(n) { if (n == 0) return 0; let k = n; return count(n - 1) + k; }\n"
+            + "print(count(100));\n" ) );
+    }
+
+    public void testLabelledJumpsLeaveTheLoopTheyName()
+    {
+        assertEquals( "0\n1\n10\n11\n20\n21\n8\n9\n10\n", run( "outer: for (let i = 0; i < 5; i++) {\n"
+            + "    for (let j = 0; j < 5; j++) {\n"
+            + "        if (j == 2) continue outer;\n"
+            + "        if (i == 3) break outer;\n"
+            + "        print(i * 10 + j);\n"
+            + "    }\n"
+            + "}\n"
+            + "let w = 0;\n"
+            + "while (w < 10) { w++; if (w < 8) continue; print(w); }\n" ) );
+        assertEquals( "[line 1] Error at 'break' : Can't use 'break' outside of a loop.\n", run( "break;" ) );
+        assertEquals( "[line 1] Error at 'nope' : No enclosing loop labelled 'nope'.\n",
+            run( "while (true) { break nope; }" ) );
+        assertEquals( "1\n", run( "let c = true; let a = 1; let b = 2; print(c ? a: b);" ) );
+    }
+
+    public void testRuntimeErrorsAreStacklessDiagnostics()
+    {
+        Diagnostics diagnostics = new Diagnostics();
+        List<Stmt> statements = PreparedScript.compile( "fun down(n) { if (n == 0) return nil + 1; return 1 + down(n - 1); }\n"
+            + "print(\"before\");\n"
+            + "down(500);\n"
+            + "print(\"after\");\n", null, diagnostics );
+        assertFalse( diagnostics.hasErrors() );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Diagnostic error = new Interpreter( new PrintStream( out ) ).interprete( statements, null );
+        assertEquals( Diagnostic.Kind.RUNTIME, error.kind );
+        assertEquals( 1, error.line() );
+        assertEquals( "before\n", out.toString().replace( System.lineSeparator(), "\n" ) );
+
+        LoxError thrown = new LoxError.RuntimeError( error.token, error.message );
+        assertEquals( 0, thrown.getStackTrace().length );
+        assertEquals( error.toString(), thrown.toDiagnostic().toString() );
+    }
+
+    public void testTailCallsRunInConstantStack()
+    {
+        assertEquals( "1000000\nfalse\n42\n[line 8] Error at ')' : Stack overflow.\n", run(
+            "fun count(n, acc) { if (n == 0) return acc; return count(n - 1, acc + 1); }\n"
+            + "print(count(1000000, 0));\n"
+            + "fun even(n) { if (n == 0) return true; return odd(n - 1); }\n"
+            + "fun odd(n) { if (n == 0) return false; return even(n - 1); }\n"
+            + "print(even(100001));\n"
+            + "fun adder(k) { fun add(x) { return x + k; } return add; }\n"
+            + "print(adder(2)(40));\n"
+            + "fun deep(n) { return 1 + deep(n + 1); }\n"
+            + "deep(0);\n" ) );
+    }
+
+    public void testArraysBoxOnlyOnceTheyHoldANonNumber()
+    {
+        assertEquals( "5.5\n[x, 2.5, 3, nil]\n4\n[x, [...], 3, nil, [[...]]]\n[[x, [...], 3, nil, [...]]]\n"
+            + "[line 10] Error at '[' : Array index 10 out of bounds for length 5.\n", run( "let a = [1, 2.5, 3];\n"
+            + "print(a[1] + a[0] * a[2]);\n"
+            + "a[0] = \"x\";\n"
+            + "push(a, nil);\n"
+            + "print(a);\n"
+            + "print(len(a));\n"
+            + "let b = [a];\n"
+            + "a[1] = a; push(a, b);\n"
+            + "print(a); print(b);\n"
+            + "a[10] = 1;\n" ) );
+    }
+
+    /*
+     * The property sites see three shapes, and the second run of
+     * the same tree sees classes of its own with the sites' caches
+     * still filled from the first one.
+     */
+    public void testPropertySitesStayRightAcrossShapesAndRuns()
+    {
+        String source = "class Point {\n"
+            + "    init(x, y) { this.x = x; this.y = y; }\n"
+            + "    dot(o) { return this.x * o.x + this.y * o.y; }\n"
+            + "}\n"
+            + "class Point3 < Point {\n"
+            + "    init(x, y, z) { super.init(x, y); this.z = z; }\n"
+            + "    dot(o) { return super.dot(o) + this.z * o.z; }\n"
+            + "}\n"
+            + "let total = 0;\n"
+            + "let ps = [Point(1, 2), Point3(1, 2, 3), Point(3, 4)];\n"
+            + "for (let i = 0; i < 30; i++) { let p = ps[i - floor(i / 3) * 3]; p.tag = i; total = total + p.dot(p); }\n"
+            + "print(total);\n"
+            + "let p = Point(1, 2); p.y = \"two\"; p.z = 5;\n"
+            + "print(p.y); print(p.z);\n"
+            + "print(Point3(1, 1, 1).dot(Point3(2, 2, 2)));\n"
+            + "print(p.missing);\n";
+        String expected = "440\ntwo\n5\n6\n[line 16] Error at 'missing' : Undefined property 'missing'.\n";
+        LoxEngine engine = new LoxEngine();
+        PreparedScript script = engine.prepare( source );
+        for ( int run = 0; run < 2; run++ )
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            List<Diagnostic> errors = engine.newContext( new PrintStream( out ) ).execute( script );
+            assertEquals( expected, out.toString().replace( System.lineSeparator(), "\n" ) + errors.get( 0 ) + "\n" );
+        }
+        assertEquals( "[line 1] Error at 'A' : A class can't inherit from itself.\n", run( "class A < A {}" ) );
+    }
+
+    public void testPersistentCollectionsLeaveTheOldVersionAlone()
+    {
+        assertEquals( "[1, 2, 3]\n[a, 2, 3, 4]\n4\n[a, 2, 3]\n1\nfalse\n3\n[1, 2, 3, 9]\ntrue\n"
+            + "[line 8] Error at ')' : Transient used after it was made persistent.\n", run( "let v = vec([1, 2, 3]);\n"
+            + "let w = conj(assoc(v, 0, \"a\"), 4);\n"
+            + "print(v); print(w); print(len(w)); print(pop(w));\n"
+            + "let m = assoc(assoc(hashmap(), \"a\", 1), 2, \"b\");\n"
+            + "let n = dissoc(assoc(m, \"c\", 3), \"a\");\n"
+            + "print(get(m, \"a\")); print(contains(n, \"a\")); print(n[\"c\"]);\n"
+            + "let t = transient(v); conj(t, 9); print(persistent(t)); print(v == vec([1, 2, 3]));\n"
+            + "conj(t, 1);\n" ) );
+    }
+
+    public void testMapsKeepInsertionOrderAndTellZerosApart()
+    {
+        assertEquals( "{a: 11, nil: true, -0: neg, 0: zero, b: 3}\n5\n[a, nil, -0, 0, b]\n[11, true, neg, zero, 3]\n"
+            + "false\nnil\n{a: 11, nil: true, -0: neg, 0: zero, b: 3, self: {...}, list: [{...}]}\n"
+            + "[line 8] Error at '[' : Undefined key 'missing'.\n", run(
+            "let m = {\"a\": 1, 2: \"two\", nil: true, -0: \"neg\", 0: \"zero\"};\n"
+            + "m[\"b\"] = 3; m[\"a\"] = m[\"a\"] + 10; delete(m, 2);\n"
+            + "print(m);\n"
+            + "print(len(m)); print(keys(m)); print(values(m)); print(contains(m, 2)); print(get(m, \"zz\"));\n"
+            + "let l = [m];\n"
+            + "m[\"self\"] = m; m[\"list\"] = l;\n"
+            + "print(m);\n"
+            + "print(m[\"missing\"]);\n" ) );
+    }
+
+    // The call in `call` binds to one native after another, the last one with another arity
+    public void testNativesAndTheSitesBoundToThem()
+    {
+        assertEquals( "23\n4\nABcdxel\n2\n[a, b, c]\n5\n3nil\n3000\n5\n"
+            + "[line 6] Error at ')' : Expected 2 arguments but got 1.\n", run(
+            "print(abs(-2) + floor(2.7) + ceil(2.2) + round(2.5) + sqrt(16) + pow(2, 3) + mod(7, 3));\n"
+            + "print(min(3, 1) + max(3, 1));\n"
+            + "print(upper(\"ab\") + lower(\"CD\") + trim(\"  x \") + substring(\"hello\", 1, 3));\n"
+            + "print(indexOf(\"hello\", \"l\")); print(split(\"a,b,c\", \",\"));\n"
+            + "print(parseNumber(\"2.5\") * 2); print(str(3) + str(nil));\n"
+            + "fun call(g, x) { return g(x); }\n"
+            + "let n = 0; for (let i = 0; i < 1000; i++) n = n + call(len, \"abc\"); print(n);\n"
+            + "print(call(len, \"ab\") + call(sqrt, 9)); call(pow, 1);\n" ) );
+
+        // Called at another arity from Java, a native fails like it would in a script
+        LoxNative negate = LoxNative.of( "negate", a -> -(Double) a );
+        assertEquals( -2.0, negate.call1( 2.0 ) );
+        try
+        {
+            negate.call2( 2.0, 3.0 );
+            fail();
+        }
+        catch ( LoxError.RuntimeError error )
+        {
+            assertEquals( "Expected 1 arguments but got 2.", error.message );
+        }
+    }
+
+    /*
+     * The sweep runs on a pool of four threads, so the iterations
+     * are split among several even on a machine with one core.
+     */
+    public void testParallelForReducesLikeASequentialLoop() throws Exception
+    {
+        String source = "let n = 10000;\n"
+            + "let sum = 0; let prod = 1; let lo = 100;\n"
+            + "parallel for (let i = 0; i < n; i++) reduce (+: sum, *: prod, min: lo) {\n"
+            + "    let x = i - floor(i / 7) * 7; sum = sum + x; prod = prod * 1; lo = min(lo, x - 3);\n"
+            + "}\n"
+            + "let check = 0;\n"
+            + "for (let i = 0; i < n; i++) check = check + i - floor(i / 7) * 7;\n"
+            + "print(sum); print(prod); print(lo); print(check == sum);\n";
+        ForkJoinPool pool = new ForkJoinPool( 4 );
+        try
+        {
+            assertEquals( "29994\n1\n-3\ntrue\n", pool.submit( () -> run( source ) ).get() );
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        assertEquals( "[line 1] Error at 't' : Can't assign to 't' in a parallel loop, it isn't declared in it.\n",
+            run( "let t = 0; parallel for (let i = 0; i < 3; i++) { t = i; }" ) );
+        assertEquals( "[line 1] Error at 'i' : Can't reduce into the loop variable.\n",
+            run( "let i = 0; parallel for (let i = 0; i < 3; i++) reduce (+: i) {}" ) );
+        assertEquals( "[line 1] Error at '+' : Either operands must be string or both numbers.\n",
+            run( "let s = 0; parallel for (let i = 0; i < 10; i++) reduce (+: s) { if (i == 7) s = s + nil; }" ) );
+    }
+
+    // What the script printed, with its errors after it
+    private static String run( String source )
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<Diagnostic> errors = new LoxEngine().newContext( new PrintStream( out ) ).eval( source );
+        StringBuilder result = new StringBuilder( out.toString().replace( System.lineSeparator(), "\n" ) );
+        for ( Diagnostic error : errors )
+        {
+            result.append( error ).append( '\n' );
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,518 @@
+package com.interpreters.lox;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Runs many scripts at once on one engine and checks that
+ * each context only ever sees its own output, globals and errors.
+ */
+public class LoxEngineTest
+    extends TestCase
+{
+    public LoxEngineTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( LoxEngineTest.class );
+    }
+
+    public void testGlobalsPersistAcrossEvals()
+    {
+        LoxContext context = new LoxEngine().newContext( new PrintStream( new ByteArrayOutputStream() ) );
+        assertTrue( context.eval( "let x = 40;" ).isEmpty() );
+        assertTrue( context.eval( "x = x + n;" ).size() == 1 );
+        context.set( "n", 2 );
+        assertTrue( context.eval( "x = x + n;" ).isEmpty() );
+        assertEquals( 42.0, context.get( "x" ) );
+    }
+
+    // Enough names to spread the globals over many chunks of the table, defined both ways
+    public void testGlobalsSpreadOverManySymbols() throws Exception
+    {
+        LoxEngine engine = new LoxEngine();
+        LoxContext context = engine.newContext( new PrintStream( new ByteArrayOutputStream() ) );
+        StringBuilder source = new StringBuilder();
+        for ( int i = 0; i < 3000; i++ )
+        {
+            if ( i % 2 == 0 )
+                context.set( "spread" + i, i );
+            else
+                source.append( "let spread" ).append( i ).append( " = " ).append( i ).append( ";\n" );
+        }
+        source.append( "let total = spread0 + spread1 + spread1500 + spread2999;" );
+        assertTrue( context.eval( source.toString() ).isEmpty() );
+        assertEquals( 4500.0, context.get( "total" ) );
+
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        assertEquals( 3001, context.snapshot( snapshot ) );
+        LoxContext restored = engine.newContext( new PrintStream( new ByteArrayOutputStream() ) );
+        restored.restore( new ByteArrayInputStream( snapshot.toByteArray() ) );
+        assertEquals( 2047.0, restored.get( "spread2047" ) );
+        assertNull( restored.get( "spread3000" ) );
+    }
+
+    public void testErrorsStayInTheirContext()
+    {
+        LoxEngine engine = new LoxEngine();
+        LoxContext broken = engine.newContext( new PrintStream( new ByteArrayOutputStream() ) );
+        LoxContext fine = engine.newContext( new PrintStream( new ByteArrayOutputStream() ) );
+
+        List<Diagnostic> errors = broken.eval( "let x = ;" );
+        assertEquals( 1, errors.size() );
+        assertEquals( Diagnostic.Kind.SYNTAX, errors.get( 0 ).kind );
+        assertTrue( fine.eval( "let x = 1;" ).isEmpty() );
+
+        errors = broken.eval( "print(undefined);" );
+        assertEquals( 1, errors.size() );
+        assertEquals( Diagnostic.Kind.RUNTIME, errors.get( 0 ).kind );
+        assertTrue( fine.eval( "print(x);" ).isEmpty() );
+    }
+
+    public void testUnexpectedCharactersAreSyntaxErrors() throws Exception
+    {
+        LoxEngine engine = new LoxEngine();
+        List<Diagnostic> errors = engine.newContext( new PrintStream( new ByteArrayOutputStream() ) ).eval( "print(1 % 2);" );
+        assertEquals( 1, errors.size() );
+        assertEquals( Diagnostic.Kind.SYNTAX, errors.get( 0 ).kind );
+        assertEquals( "[line 1] Error at '%' : Unexpected Character", errors.get( 0 ).toString() );
+
+        Path directory = Files.createTempDirectory( "lox-modules" );
+        Files.writeString( directory.resolve( "bad.lox" ), "let a = 1;\nlet b = a # 2;" );
+        Files.writeString( directory.resolve( "main.lox" ), "import \"bad.lox\";" );
+        errors = engine.prepare( directory.resolve( "main.lox" ) ).errors();
+        assertEquals( 1, errors.size() );
+        assertEquals( Diagnostic.Kind.SYNTAX, errors.get( 0 ).kind );
+        assertEquals( 2, errors.get( 0 ).line() );
+    }
+
+    public void testPreparedScriptRunsWithEachContextsBindings()
+    {
+        String rule = "let score = 0;\n"
+            + "if (amount > 1000) score = score + 2;\n"
+            + "if (amount > 4000) score = score + 3;\n"
+            + "if (country == \"XX\") score = score + 4;\n"
+            + "for (let i = 0; i < attempts; i++) score = score + 1;\n"
+            + "let flagged = score >= 6;\n";
+        LoxEngine engine = new LoxEngine();
+        PreparedScript script = engine.prepare( rule );
+        Map<String, Object> bindings = new HashMap<>();
+        for ( int i = 0; i < 200; i++ )
+        {
+            bindings.put( "amount", i * 25 );
+            bindings.put( "country", i % 7 == 0 ? "XX" : "NL" );
+            bindings.put( "attempts", i % 4 );
+            LoxContext prepared = engine.newContext( new PrintStream( new ByteArrayOutputStream() ), bindings );
+            LoxContext evaluated = engine.newContext( new PrintStream( new ByteArrayOutputStream() ), bindings );
+            assertTrue( prepared.execute( script ).isEmpty() );
+            assertTrue( evaluated.eval( rule ).isEmpty() );
+            double score = ( i * 25 > 1000 ? 2 : 0 ) + ( i * 25 > 4000 ? 3 : 0 ) + ( i % 7 == 0 ? 4 : 0 ) + i % 4;
+            assertEquals( score, prepared.get( "score" ) );
+            assertEquals( evaluated.get( "flagged" ), prepared.get( "flagged" ) );
+        }
+    }
+
+    public void testSpawnedTasks()
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        LoxContext context = new LoxEngine().newContext( new PrintStream( bytes, true ) );
+        String source = "let results = channel(0);\n"
+            + "let tasks = [];\n"
+            + "let shared = 0;\n"
+            + "for (let i = 0; i < 1000; i++) {\n"
+            + "    let n = i;\n"
+            + "    push(tasks, spawn { send(results, n); shared = n; return n * 2; });\n"
+            + "}\n"
+            + "let received = 0;\n"
+            + "for (let i = 0; i < 1000; i++) received = received + receive(results);\n"
+            + "let joined = 0;\n"
+            + "for (let i = 0; i < 1000; i++) joined = joined + join(tasks[i]);\n"
+            + "print(received);\n"
+            + "print(joined);\n"
+            + "join(spawn { return 1 + nil; });\n";
+        List<Diagnostic> errors = context.eval( source );
+        String lf = System.lineSeparator();
+        assertEquals( "499500" + lf + "999000" + lf, bytes.toString() );
+        assertEquals( 1, errors.size() );
+        assertTrue( errors.get( 0 ).message.startsWith( "Task failed at line 14" ) );
+        assertTrue( context.get( "shared" ) instanceof Double );
+    }
+
+    public void testAutoParallelLoopsEndAsSequentialOnes()
+    {
+        String source = "let n = 5000;\n"
+            + "let sum = 0;\n"
+            + "let top = -1;\n"
+            + "for (let i = 0; i < n; i++) { let x = i / n; sum = sum + sqrt(x) * 0.1; top = max(top, sin(i)); }\n"
+            + "for (let i = 0; i < n; i++) print(i);\n"
+            + "let partial = 0;\n"
+            + "for (let i = 0; i <= n; i++) { partial = partial + i; if (i == 4000) { let x = nil + 1; } }\n";
+        LoxContext sequential = new LoxEngine().newContext( new PrintStream( new ByteArrayOutputStream() ) );
+        LoxEngine engine = new LoxEngine().autoParallel( true );
+        LoxContext parallel = engine.newContext( new PrintStream( new ByteArrayOutputStream() ) );
+        PreparedScript script = engine.prepare( source );
+
+        assertEquals( 3, script.loopReport().size() );
+        assertTrue( script.loopReport().get( 0 ).contains( "Runs in parallel" ) );
+        assertTrue( script.loopReport().get( 1 ).contains( "prints" ) );
+        assertTrue( script.loopReport().get( 2 ).contains( "Runs in parallel" ) );
+        assertEquals( sequential.eval( source ).toString(), parallel.execute( script ).toString() );
+        for ( String name : new String[] { "sum", "top", "partial" } )
+        {
+            assertEquals( sequential.get( name ), parallel.get( name ) );
+        }
+    }
+
+    public void testBudgetsStopRunawayScripts()
+    {
+        LoxContext context = new LoxEngine().newContext( new PrintStream( new ByteArrayOutputStream() ) );
+        List<Diagnostic> errors = context.eval( "let n = 0;\nfor (;;) n = n + 1;", Budget.UNLIMITED.steps( 100000 ) );
+        assertEquals( 1, errors.size() );
+        assertEquals( 2, errors.get( 0 ).line() );
+        assertTrue( errors.get( 0 ).message.contains( "100000 steps" ) );
+        assertTrue( (Double) context.get( "n" ) < 100000 );
+
+        errors = context.eval( "fun f(n) { return f(n) + 1; }\nwhile (true) {}",
+            Budget.UNLIMITED.time( Duration.ofMillis( 50 ) ) );
+        assertTrue( errors.get( 0 ).message.contains( "50 ms" ) );
+
+        // Waiting takes no steps, the deadline interrupts the wait
+        errors = context.eval( "let c = channel(0);\nreceive(c);", Budget.UNLIMITED.time( Duration.ofMillis( 50 ) ) );
+        assertEquals( 2, errors.get( 0 ).line() );
+        assertTrue( errors.get( 0 ).message.contains( "50 ms" ) );
+        errors = context.eval( "join(spawn { sleep(60000); });", Budget.UNLIMITED.time( Duration.ofMillis( 50 ) ) );
+        assertTrue( errors.get( 0 ).message.contains( "50 ms" ) );
+        assertFalse( Thread.currentThread().isInterrupted() );
+
+        errors = context.eval( "let s = \"x\";\nfor (let i = 0; i < 40; i++) s = s + s;",
+            Budget.UNLIMITED.memory( 1 << 20 ) );
+        assertTrue( errors.get( 0 ).message.contains( "bytes of memory" ) );
+
+        errors = context.eval( "join(spawn { while (true) {} });", Budget.UNLIMITED.steps( 5000 ) );
+        assertTrue( errors.get( 0 ).message.startsWith( "Task failed" ) );
+        assertTrue( context.eval( "n = 0;" ).isEmpty() );
+    }
+
+    public void testBudgetsAScriptStaysWithinChangeNothing()
+    {
+        String source = "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }\n"
+            + "let f = fib(18);\n"
+            + "let total = 0;\n"
+            + "for (let i = 0; i < 2000; i++) { let x = i * 2; total = total + x; }\n"
+            + "let s = \"\";\n"
+            + "for (let i = 0; i < 500; i++) s = s + \"x\";\n"
+            + "print(f); print(total); print(len(s));\n";
+        LoxEngine engine = new LoxEngine();
+        PreparedScript script = engine.prepare( source );
+        Budget generous = Budget.UNLIMITED.steps( 1L << 40 ).time( Duration.ofHours( 1 ) ).memory( 1L << 40 );
+        ByteArrayOutputStream unlimited = new ByteArrayOutputStream();
+        ByteArrayOutputStream limited = new ByteArrayOutputStream();
+        assertTrue( engine.newContext( new PrintStream( unlimited ) ).execute( script ).isEmpty() );
+        assertTrue( engine.newContext( new PrintStream( limited ) ).execute( script, generous ).isEmpty() );
+        assertEquals( "2584\n3998000\n500\n", unlimited.toString().replace( System.lineSeparator(), "\n" ) );
+        assertEquals( unlimited.toString(), limited.toString() );
+    }
+
+    public void testImportsRunEachModuleOnceInItsOwnScope() throws Exception
+    {
+        Path directory = Files.createTempDirectory( "lox-modules" );
+        Files.writeString( directory.resolve( "base.lox" ), "let hidden = 1;\nprint(\"base\");" );
+        Files.writeString( directory.resolve( "a.lox" ), "import \"base.lox\";\nfun a() { return hidden + 1; }" );
+        Files.writeString( directory.resolve( "b.lox" ), "import \"base.lox\";\nlet b = hidden + 2;" );
+        Files.writeString( directory.resolve( "main.lox" ), "import \"a.lox\";\nimport \"b.lox\";\nprint(a() + b);" );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LoxEngine engine = new LoxEngine();
+        PreparedScript script = engine.prepare( directory.resolve( "main.lox" ) );
+        assertTrue( engine.newContext( new PrintStream( out ) ).execute( script ).isEmpty() );
+        assertEquals( "base\n5\n", out.toString().replace( System.lineSeparator(), "\n" ) );
+        assertEquals( 1, engine.newContext( new PrintStream( out ) ).eval( "import \"" + directory.resolve( "a.lox" )
+            + "\"; print(hidden);" ).size() );
+
+        Files.writeString( directory.resolve( "base.lox" ), "import \"b.lox\";" );
+        List<Diagnostic> errors = engine.prepare( directory.resolve( "main.lox" ) ).errors();
+        assertEquals( 1, errors.size() );
+        assertTrue( errors.get( 0 ).message.startsWith( "Import cycle" ) );
+
+        String lib = directory.resolve( "lib.lox" ).toString();
+        Files.writeString( directory.resolve( "lib.lox" ), "fun a() { return 1; }" );
+        out.reset();
+        assertTrue( engine.newContext( new PrintStream( out ) ).eval( "import \"" + lib + "\";\nimport \"" + lib
+            + "\";\nprint(a());" ).isEmpty() );
+        assertEquals( "1\n", out.toString().replace( System.lineSeparator(), "\n" ) );
+        errors = engine.newContext( new PrintStream( out ) ).eval( "let a = 2;\nimport \"" + lib + "\";" );
+        assertEquals( 1, errors.size() );
+        assertEquals( 2, errors.get( 0 ).line() );
+        assertEquals( "Imported name 'a' is already defined in this scope.", errors.get( 0 ).message );
+    }
+
+    public void testSnapshotRestoresSharedTables() throws Exception
+    {
+        LoxEngine engine = new LoxEngine();
+        LoxContext saved = engine.newContext( new PrintStream( new ByteArrayOutputStream() ) );
+        assertTrue( saved.eval( "let row = [1, \"a\", nil]; let table = {\"x\": row, \"y\": row, 2: -0.5};"
+            + " table[\"self\"] = table; fun f() {}" ).isEmpty() );
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        assertEquals( 2, saved.snapshot( snapshot ) );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LoxContext restored = engine.newContext( new PrintStream( out ) );
+        restored.restore( new ByteArrayInputStream( snapshot.toByteArray() ) );
+        assertTrue( restored.eval( "table[\"x\"][1] = \"b\"; print(table[\"self\"][\"y\"]); print(table[2]);"
+            + " print(row[1]);" ).isEmpty() );
+        assertEquals( "[1, b, nil]\n-0.5\nb\n", out.toString().replace( System.lineSeparator(), "\n" ) );
+    }
+
+    public void testSnapshotRestoresPersistentCollectionsButNotCyclesThroughThem() throws Exception
+    {
+        LoxEngine engine = new LoxEngine();
+        LoxContext saved = engine.newContext( new PrintStream( new ByteArrayOutputStream() ) );
+        assertTrue( saved.eval( "let v = vec([1, \"a\", nil]); let rows = [v, v]; let h = assoc(hashmap(), \"v\", v);"
+            + " let box = [2]; let keep = vec([box, box]);" ).isEmpty() );
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        assertEquals( 5, saved.snapshot( snapshot ) );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LoxContext restored = engine.newContext( new PrintStream( out ) );
+        restored.restore( new ByteArrayInputStream( snapshot.toByteArray() ) );
+        assertTrue( restored.eval( "push(keep[0], 3); print(h); print(rows); print(keep); print(box);" ).isEmpty() );
+        assertEquals( "{v: [1, a, nil]}\n[[1, a, nil], [1, a, nil]]\n[[2, 3], [2, 3]]\n[2, 3]\n",
+            out.toString().replace( System.lineSeparator(), "\n" ) );
+
+        // The same cycle fails to save whichever end of it is saved first
+        String[] cycles = { "let a = []; let w = vec([a]); push(a, w);", "let w = vec([[]]); push(w[0], w);",
+            "let m = {}; let p = assoc(hashmap(), 1, m); m[\"p\"] = p;" };
+        for ( String cycle : cycles )
+        {
+            LoxContext context = engine.newContext( new PrintStream( new ByteArrayOutputStream() ) );
+            assertTrue( context.eval( cycle ).isEmpty() );
+            try
+            {
+                context.snapshot( new ByteArrayOutputStream() );
+                fail( cycle );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                assertTrue( e.getMessage(), e.getMessage().endsWith( "that holds itself." ) );
+            }
+        }
+    }
+
+    public void testStreamRunsStatementsBeforeALaterSyntaxError() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LoxContext context = new LoxEngine().newContext( new PrintStream( out ) );
+        List<Diagnostic> errors = context.stream( new StringReader( "let x = 20; fun twice(n) { return n * 2; }\n"
+            + "print(twice(x) + 2);\nprint(x +);\nprint(x);" ), null );
+        assertEquals( "42\n", out.toString().replace( System.lineSeparator(), "\n" ) );
+        assertEquals( 1, errors.size() );
+        assertEquals( Diagnostic.Kind.SYNTAX, errors.get( 0 ).kind );
+
+        // Nesting too deep for the parser ends the stream instead of leaving it waiting for more
+        out.reset();
+        String deep = "print(1);\nprint(" + "(".repeat( 200000 ) + "1" + ")".repeat( 200000 ) + ");";
+        errors = context.stream( new StringReader( deep ), null );
+        assertEquals( "1\n", out.toString().replace( System.lineSeparator(), "\n" ) );
+        assertEquals( 1, errors.size() );
+        assertEquals( Diagnostic.Kind.RUNTIME, errors.get( 0 ).kind );
+        assertEquals( "Stack overflow.", errors.get( 0 ).message );
+
+        // A long string coming in a few characters at a time, which is only copied once over
+        out.reset();
+        Reader trickle = new FilterReader( new StringReader( "print(len(\"" + "x".repeat( 300000 ) + "\"));" ) )
+        {
+            @Override
+            public int read( char[] buffer, int offset, int length ) throws IOException
+            {
+                return super.read( buffer, offset, Math.min( length, 7 ) );
+            }
+        };
+        assertTrue( context.stream( trickle, null ).isEmpty() );
+        assertEquals( "300000\n", out.toString().replace( System.lineSeparator(), "\n" ) );
+    }
+
+    // Everything under one temporary directory, so nothing depends on where the tests run from
+    public void testBatchGlobsMatchRelativeToTheirDirectory() throws Exception
+    {
+        Path directory = Files.createTempDirectory( "lox-batch" ).toAbsolutePath();
+        Files.createDirectory( directory.resolve( "sub" ) );
+        Files.writeString( directory.resolve( "a.lox" ), "" );
+        Files.writeString( directory.resolve( "b.txt" ), "" );
+        Files.writeString( directory.resolve( "sub" ).resolve( "c.lox" ), "" );
+        assertEquals( List.of( directory.resolve( "a.lox" ) ), Batch.scripts( List.of( directory + "/*.lox" ) ) );
+        assertEquals( List.of( directory.resolve( "a.lox" ), directory.resolve( "sub" ).resolve( "c.lox" ) ),
+            Batch.scripts( List.of( directory + "/**.lox" ) ) );
+        assertEquals( List.of( directory.resolve( "sub" ).resolve( "c.lox" ) ),
+            Batch.scripts( List.of( directory + "/s?b/*.lox" ) ) );
+    }
+
+    // The server stops on its own a second after the request is done
+    public void testServerReportsAScriptItCantRead() throws Exception
+    {
+        Path directory = Files.createTempDirectory( "lox-server" );
+        Path socket = directory.resolve( "lox.sock" );
+        Thread server = new Thread( () ->
+        {
+            try
+            {
+                new LoxServer( socket, Duration.ofSeconds( 1 ) ).serve();
+            }
+            catch ( IOException e )
+            {
+                throw new UncheckedIOException( e );
+            }
+        } );
+        server.setDaemon( true );
+        server.start();
+
+        try ( SocketChannel channel = connect( socket ) )
+        {
+            DataOutputStream request = new DataOutputStream( Channels.newOutputStream( channel ) );
+            request.writeByte( LoxServer.FILE );
+            request.writeUTF( directory.toString() );
+            request.writeInt( 0 );
+            request.flush();
+
+            DataInputStream response = new DataInputStream( Channels.newInputStream( channel ) );
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            while ( true )
+            {
+                byte kind = response.readByte();
+                int length = response.readInt();
+                if ( kind == LoxServer.EXIT )
+                {
+                    assertEquals( ExitCode.IO_ERR.exitCode, length );
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                response.readFully( bytes );
+                if ( kind == LoxServer.STDERR )
+                    err.write( bytes );
+            }
+            assertEquals( "Can't read " + directory + ".", err.toString().trim() );
+        }
+    }
+
+    public void testConcurrentContexts() throws Exception
+    {
+        final LoxEngine engine = new LoxEngine();
+        ExecutorService pool = Executors.newFixedThreadPool( 16 );
+        List<Future<String>> results = new ArrayList<>();
+        try
+        {
+            for ( int i = 0; i < RUNS; i++ )
+            {
+                final int id = i;
+                results.add( pool.submit( new Callable<String>()
+                {
+                    public String call()
+                    {
+                        return run( engine, id );
+                    }
+                } ) );
+            }
+            for ( int i = 0; i < RUNS; i++ )
+            {
+                assertEquals( expected( i ), results.get( i ).get() );
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /*
+     * Every script defines the same globals with values of its
+     * own, and every third one fails halfway through, either on
+     * a runtime error or, having never run, on a syntax error.
+     */
+    private static String run( LoxEngine engine, int id )
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        LoxContext context = engine.newContext( new PrintStream( bytes, true ) );
+        context.set( "id", id );
+
+        String source = "let total = 0;\n"
+            + "fun add(n) { total = total + n; }\n"
+            + "for (let i = 0; i < 1000; i++) add(id);\n"
+            + "print(total);\n"
+            + "let m = {};\n"
+            + "m[id] = str(id);\n"
+            + "print(m);\n";
+        if ( id % 3 == 1 )
+            source += "print(total + nil);\n";
+        else if ( id % 3 == 2 )
+            source += "print(;\n";
+        source += "print(\"done\");\n";
+
+        List<Diagnostic> errors = context.eval( source );
+        StringBuilder result = new StringBuilder( bytes.toString() );
+        for ( Diagnostic error : errors )
+        {
+            result.append( error.kind ).append( ' ' ).append( error.line() ).append( '\n' );
+        }
+        result.append( context.get( "total" ) );
+        return result.toString();
+    }
+
+    private static String expected( int id )
+    {
+        String lf = System.lineSeparator();
+        if ( id % 3 == 2 )
+            return "SYNTAX 8\nnull";
+        String output = ( id * 1000 ) + lf + "{" + id + ": " + id + "}" + lf;
+        if ( id % 3 == 1 )
+            return output + "RUNTIME 8\n" + ( id * 1000.0 );
+        return output + "done" + lf + ( id * 1000.0 );
+    }
+
+    // The socket's file is there a moment before the server listens on it, so it tries until it does
+    private static SocketChannel connect( Path socket ) throws Exception
+    {
+        for ( int attempt = 0;; attempt++ )
+        {
+            try
+            {
+                return SocketChannel.open( UnixDomainSocketAddress.of( socket ) );
+            }
+            catch ( IOException e )
+            {
+                if ( attempt == 500 )
+                    throw e;
+                Thread.sleep( 10 );
+            }
+        }
+    }
+
+    private static final int RUNS = 300;
+}
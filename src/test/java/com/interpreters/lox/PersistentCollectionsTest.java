@@ -0,0 +1,185 @@
+package com.interpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Puts the persistent vector and map through random changes,
+ * side by side with an ArrayList and a HashMap, and checks that
+ * every older version kept still holds what it held when it was
+ * made, transient edits after it included.
+ */
+public class PersistentCollectionsTest
+    extends TestCase
+{
+    public PersistentCollectionsTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PersistentCollectionsTest.class );
+    }
+
+    public void testVectorMatchesAList()
+    {
+        Random random = new Random( 32 );
+        PersistentVector vector = PersistentVector.EMPTY;
+        List<Object> list = new ArrayList<>();
+        List<PersistentVector> versions = new ArrayList<>();
+        List<List<Object>> contents = new ArrayList<>();
+        for ( int step = 0; step < 20000; step++ )
+        {
+            int choice = random.nextInt( 10 );
+            if ( choice < 6 || list.isEmpty() )
+            {
+                vector = vector.conj( (double) step );
+                list.add( (double) step );
+            }
+            else if ( choice < 8 )
+            {
+                int index = random.nextInt( list.size() );
+                vector = vector.assoc( index, "s" + step );
+                list.set( index, "s" + step );
+            }
+            else if ( choice < 9 )
+            {
+                vector = vector.pop();
+                list.remove( list.size() - 1 );
+            }
+            else
+            {
+                PersistentVector.Transient edits = vector.asTransient();
+                for ( int i = random.nextInt( 100 ); i > 0; i-- )
+                {
+                    edits.conj( (double) i );
+                    list.add( (double) i );
+                }
+                if ( !list.isEmpty() )
+                {
+                    edits.assoc( 0, "t" + step );
+                    list.set( 0, "t" + step );
+                }
+                vector = edits.persistent();
+            }
+            if ( step % 500 == 0 )
+            {
+                versions.add( vector );
+                contents.add( new ArrayList<>( list ) );
+            }
+        }
+        versions.add( vector );
+        contents.add( list );
+        for ( int v = 0; v < versions.size(); v++ )
+        {
+            assertEquals( contents.get( v ), elements( versions.get( v ) ) );
+        }
+    }
+
+    public void testMapMatchesAHashMap()
+    {
+        Random random = new Random( 33 );
+        PersistentMap map = PersistentMap.EMPTY;
+        Map<Object, Object> expected = new HashMap<>();
+        List<PersistentMap> versions = new ArrayList<>();
+        List<Map<Object, Object>> contents = new ArrayList<>();
+        for ( int step = 0; step < 20000; step++ )
+        {
+            Object key = key( random );
+            int choice = random.nextInt( 10 );
+            if ( choice < 6 )
+            {
+                map = map.assoc( key, (double) step );
+                expected.put( key, (double) step );
+            }
+            else if ( choice < 9 )
+            {
+                map = map.dissoc( key );
+                expected.remove( key );
+            }
+            else
+            {
+                PersistentMap.Transient edits = map.asTransient();
+                for ( int i = random.nextInt( 100 ); i > 0; i-- )
+                {
+                    Object other = key( random );
+                    if ( random.nextBoolean() )
+                    {
+                        edits.assoc( other, "t" + i );
+                        expected.put( other, "t" + i );
+                    }
+                    else
+                    {
+                        edits.dissoc( other );
+                        expected.remove( other );
+                    }
+                }
+                map = edits.persistent();
+            }
+            if ( step % 500 == 0 )
+            {
+                versions.add( map );
+                contents.add( new HashMap<>( expected ) );
+            }
+        }
+        versions.add( map );
+        contents.add( expected );
+        for ( int v = 0; v < versions.size(); v++ )
+        {
+            assertEquals( contents.get( v ), entries( versions.get( v ) ) );
+            for ( Map.Entry<Object, Object> entry : contents.get( v ).entrySet() )
+            {
+                assertEquals( entry.getValue(), versions.get( v ).get( entry.getKey(), null ) );
+            }
+        }
+    }
+
+    /*
+     * Numbers, strings, and strings whose hash codes are all the
+     * same ("Aa" and "BB" hash alike, and so do their sequences),
+     * which end up in collision nodes.
+     */
+    private static Object key( Random random )
+    {
+        switch ( random.nextInt( 3 ) )
+        {
+            case 0:
+                return (double) random.nextInt( 400 );
+            case 1:
+                return "k" + random.nextInt( 400 );
+            default:
+                StringBuilder key = new StringBuilder();
+                for ( int i = 0; i < 3; i++ )
+                {
+                    key.append( random.nextBoolean() ? "Aa" : "BB" );
+                }
+                return key.toString();
+        }
+    }
+
+    private static List<Object> elements( PersistentVector vector )
+    {
+        List<Object> elements = new ArrayList<>();
+        for ( int i = 0; i < vector.size(); i++ )
+        {
+            elements.add( vector.get( i ) );
+        }
+        return elements;
+    }
+
+    private static Map<Object, Object> entries( PersistentMap map )
+    {
+        Map<Object, Object> entries = new HashMap<>();
+        map.forEach( entries::put );
+        assertEquals( map.size(), entries.size() );
+        return entries;
+    }
+}